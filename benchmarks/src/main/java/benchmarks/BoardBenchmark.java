@@ -0,0 +1,162 @@
+package benchmarks;
+
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the Swing side of the game: a click on a Cell, the refresh
+ * of the cell icons, the installation of a new deal and the lookups done on
+ * every click. The Board is driven headless with synthetic ActionEvents from
+ * the benchmark thread while the event dispatch thread is held.
+ *
+ * Run with -prof gc to get the allocation rate of each path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx2g" })
+public class BoardBenchmark {
+
+ private static final MethodHandle NEW_BOARD = GameClasses.constructor(
+   "Board", int.class, int.class);
+ private static final MethodHandle RE_INIT = GameClasses.method("Board",
+   "reInit");
+ private static final MethodHandle IS_SOLVED = GameClasses.method("Board",
+   "isSolved");
+ private static final MethodHandle SET_IMAGES = GameClasses.method("Board",
+   "setImages");
+ private static final MethodHandle INIT_CARD_STORAGE = GameClasses.method(
+   "Board", "initCardStorage");
+ private static final MethodHandle MARK_DIRTY = GameClasses.method("Board",
+   "markDirty", int.class);
+ private static final MethodHandle MARK_ALL_DIRTY = GameClasses.method(
+   "Board", "markAllDirty");
+ private static final MethodHandle REFRESH_DIRTY_CELLS = GameClasses.method(
+   "Board", "refreshDirtyCells");
+ private static final MethodHandle GET_CELL_INDEX = GameClasses.method(
+   "Board", "getCellIndex", GameClasses.find("Cell"));
+
+ @Param({ "4x6", "20x20", "100x100", "200x200" })
+ public String size;
+
+ private final EdtGate mGate = new EdtGate();
+
+ private Object mBoard;
+ private ActionListener mListener;
+ private Component[] mCells;
+ private ActionEvent[] mClicks;
+ private int mNext = 0;
+
+ @Setup(Level.Trial)
+ public void createBoard() throws Exception {
+  String[] dimensions = size.split("x");
+  final int rows = Integer.parseInt(dimensions[0]);
+  final int columns = Integer.parseInt(dimensions[1]);
+
+  EdtGate.runOnEdt(new Runnable() {
+   public void run() {
+    try {
+     mBoard = (Object) NEW_BOARD.invokeExact(rows, columns);
+    } catch (Throwable t) {
+     throw new IllegalStateException(t);
+    }
+   }
+  });
+
+  mListener = (ActionListener) mBoard;
+  mCells = ((java.awt.Container) mBoard).getComponents();
+  mClicks = new ActionEvent[mCells.length];
+  for (int i = 0; i < mCells.length; i++) {
+   mClicks[i] = new ActionEvent(mCells[i], ActionEvent.ACTION_PERFORMED,
+     "");
+  }
+ }
+
+ @Setup(Level.Iteration)
+ public void holdEdt() throws InterruptedException {
+  mGate.close();
+ }
+
+ @TearDown(Level.Iteration)
+ public void releaseEdt() {
+  mGate.open();
+ }
+
+ /**
+  * One click, on the cells in board order. A solved board is dealt again.
+  */
+ @Benchmark
+ public void actionPerformed() throws Throwable {
+  mListener.actionPerformed(mClicks[mNext]);
+  if (++mNext == mClicks.length) {
+   mNext = 0;
+   if ((boolean) IS_SOLVED.invokeExact(mBoard)) {
+    RE_INIT.invokeExact(mBoard);
+   }
+  }
+ }
+
+ /**
+  * The refresh of a single changed cell.
+  */
+ @Benchmark
+ public void refreshOneCell() throws Throwable {
+  MARK_DIRTY.invokeExact(mBoard, mNext);
+  REFRESH_DIRTY_CELLS.invokeExact(mBoard);
+  if (++mNext == mCells.length) {
+   mNext = 0;
+  }
+ }
+
+ /**
+  * The refresh of the whole board, what every click used to cost.
+  */
+ @Benchmark
+ public void refreshAllCells() throws Throwable {
+  MARK_ALL_DIRTY.invokeExact(mBoard);
+  REFRESH_DIRTY_CELLS.invokeExact(mBoard);
+ }
+
+ @Benchmark
+ public void setImages() throws Throwable {
+  SET_IMAGES.invokeExact(mBoard);
+ }
+
+ @Benchmark
+ public Object initCardStorage() throws Throwable {
+  return (Object) INIT_CARD_STORAGE.invokeExact(mBoard);
+ }
+
+ @Benchmark
+ public int getCellIndex() throws Throwable {
+  Object cell = mCells[mNext];
+  if (++mNext == mCells.length) {
+   mNext = 0;
+  }
+  return (int) GET_CELL_INDEX.invokeExact(mBoard, cell);
+ }
+
+ @Benchmark
+ public boolean isSolved() throws Throwable {
+  return (boolean) IS_SOLVED.invokeExact(mBoard);
+ }
+}
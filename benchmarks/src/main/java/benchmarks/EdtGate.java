@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.awt.EventQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Holds the event dispatch thread while a benchmark drives a Board from the
+ * benchmark thread. The Swing timers started by the Board only queue their
+ * events meanwhile, they run once the gate is opened again, between
+ * iterations, so that they never race with the measured code.
+ */
+final class EdtGate {
+
+ private CountDownLatch mRelease = null;
+
+ /**
+  * Blocks the event dispatch thread once every event queued so far has been
+  * dispatched.
+  */
+ void close() throws InterruptedException {
+  final CountDownLatch held = new CountDownLatch(1);
+  final CountDownLatch release = new CountDownLatch(1);
+
+  EventQueue.invokeLater(new Runnable() {
+   public void run() {
+    held.countDown();
+    try {
+     release.await();
+    } catch (InterruptedException e) {
+     Thread.currentThread().interrupt();
+    }
+   }
+  });
+
+  mRelease = release;
+  held.await();
+ }
+
+ /**
+  * Lets the event dispatch thread run again.
+  */
+ void open() {
+  if (mRelease != null) {
+   mRelease.countDown();
+   mRelease = null;
+  }
+ }
+
+ /**
+  * Runs a task on the event dispatch thread and waits for it, the gate must
+  * be open.
+  */
+ static void runOnEdt(Runnable aTask) throws Exception {
+  EventQueue.invokeAndWait(aTask);
+ }
+}
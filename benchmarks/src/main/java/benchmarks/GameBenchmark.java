@@ -0,0 +1,154 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the headless side of the game: dealing cards with the
+ * Dealer, a single flip, a whole game played by a player that remembers
+ * every card and a snapshot of a game saved and restored, on the Game engine
+ * alone.
+ *
+ * Run with -prof gc to get the allocation rate of each path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+
+ private static final MethodHandle NEW_DEALER = GameClasses.constructor(
+   "Dealer", long.class);
+ private static final MethodHandle DEAL = GameClasses.method("Dealer",
+   "deal", int[].class);
+ private static final MethodHandle NEW_GAME = GameClasses.constructor(
+   "Game", int.class);
+ private static final MethodHandle GAME_DEAL = GameClasses.method("Game",
+   "deal", int[].class);
+ private static final MethodHandle FLIP = GameClasses.method("Game", "flip",
+   int.class);
+ private static final MethodHandle GET_TYPE = GameClasses.method("Game",
+   "getType", int.class);
+ private static final MethodHandle IS_SOLVED = GameClasses.method("Game",
+   "isSolved");
+ private static final MethodHandle SAVE = GameClasses.method("Game", "save",
+   ByteBuffer.class);
+ private static final MethodHandle RESTORE = GameClasses.method("Game",
+   "restore", ByteBuffer.class);
+ private static final MethodHandle SNAPSHOT_SIZE = GameClasses.method(
+   "Game", "getSnapshotSize");
+
+ @Param({ "24", "400", "10000", "40000" })
+ public int cards;
+
+ private Object mDealer;
+ private Object mGame;
+ private int[] mDeal;
+ // Position of the partner of every card, for the perfect player
+ private int[] mPartner;
+ private int mNext = 0;
+ private ByteBuffer mSnapshot;
+
+ @Setup(Level.Trial)
+ public void createGame() throws Throwable {
+  mDealer = (Object) NEW_DEALER.invokeExact(42L);
+  mGame = (Object) NEW_GAME.invokeExact(cards);
+  mDeal = new int[cards];
+  mPartner = new int[cards];
+
+  DEAL.invokeExact(mDealer, (Object) mDeal);
+  GAME_DEAL.invokeExact(mGame, (Object) mDeal);
+
+  mSnapshot = ByteBuffer.allocateDirect((int) SNAPSHOT_SIZE
+    .invokeExact(mGame));
+  SAVE.invokeExact(mGame, (Object) mSnapshot);
+
+  int[] open = new int[cards + 1];
+  java.util.Arrays.fill(open, -1);
+  for (int i = 0; i < cards; i++) {
+   int type = (int) GET_TYPE.invokeExact(mGame, i);
+   if (open[type] < 0) {
+    open[type] = i;
+   } else {
+    mPartner[i] = open[type];
+    mPartner[open[type]] = i;
+    open[type] = -1;
+   }
+  }
+ }
+
+ /**
+  * A new deal into an existing array.
+  */
+ @Benchmark
+ public int[] deal() throws Throwable {
+  DEAL.invokeExact(mDealer, (Object) mDeal);
+  return mDeal;
+ }
+
+ /**
+  * One flip, on the cards in board order. A solved game is dealt again.
+  */
+ @Benchmark
+ public int flip() throws Throwable {
+  int result = (int) FLIP.invokeExact(mGame, mNext);
+  if (++mNext == cards) {
+   mNext = 0;
+   if ((boolean) IS_SOLVED.invokeExact(mGame)) {
+    GAME_DEAL.invokeExact(mGame, (Object) mDeal);
+   }
+  }
+  return result;
+ }
+
+ /**
+  * A whole game, every pair flipped once by a player that knows the deal.
+  */
+ @Benchmark
+ public int perfectGame() throws Throwable {
+  int results = 0;
+  GAME_DEAL.invokeExact(mGame, (Object) mDeal);
+  for (int i = 0; i < cards; i++) {
+   if (mPartner[i] > i) {
+    results += (int) FLIP.invokeExact(mGame, i);
+    results += (int) FLIP.invokeExact(mGame, mPartner[i]);
+   }
+  }
+  return results;
+ }
+
+ /**
+  * A snapshot of the game written to a direct buffer, as in a mapped file.
+  */
+ @Benchmark
+ public ByteBuffer save() throws Throwable {
+  mSnapshot.clear();
+  SAVE.invokeExact(mGame, (Object) mSnapshot);
+  return mSnapshot;
+ }
+
+ /**
+  * The game replaced by a snapshot read from a direct buffer.
+  */
+ @Benchmark
+ public boolean restore() throws Throwable {
+  mSnapshot.clear();
+  return (boolean) RESTORE.invokeExact(mGame, (Object) mSnapshot);
+ }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the game classes. They live in the default package, which can't
+ * be imported from a named package (and JMH refuses benchmarks in the default
+ * package), so they are reached through method handles. Reference types are
+ * erased to Object so that call sites can use invokeExact.
+ */
+final class GameClasses {
+
+ private GameClasses() {
+ }
+
+ /**
+  * Finds a class of the game.
+  */
+ static Class<?> find(String aClassName) {
+  try {
+   return Class.forName(aClassName);
+  } catch (ClassNotFoundException e) {
+   throw new IllegalStateException("Game class not found: " + aClassName, e);
+  }
+ }
+
+ /**
+  * Finds a method of the game, private or not, and returns a handle taking
+  * the receiver as its first parameter.
+  */
+ static MethodHandle method(String aClassName, String aName,
+   Class<?>... aParameterTypes) {
+  try {
+   Method method = find(aClassName).getDeclaredMethod(aName,
+     aParameterTypes);
+   method.setAccessible(true);
+   return erase(MethodHandles.lookup().unreflect(method));
+  } catch (ReflectiveOperationException e) {
+   throw new IllegalStateException("Game method not found: " + aClassName
+     + "." + aName, e);
+  }
+ }
+
+ /**
+  * Finds a constructor of the game and returns a handle creating an Object.
+  */
+ static MethodHandle constructor(String aClassName,
+   Class<?>... aParameterTypes) {
+  try {
+   Constructor<?> constructor = find(aClassName).getDeclaredConstructor(
+     aParameterTypes);
+   constructor.setAccessible(true);
+   return erase(MethodHandles.lookup().unreflectConstructor(constructor));
+  } catch (ReflectiveOperationException e) {
+   throw new IllegalStateException("Game constructor not found: "
+     + aClassName, e);
+  }
+ }
+
+ // Replaces the reference types of a handle by Object
+ private static MethodHandle erase(MethodHandle aHandle) {
+  MethodType type = aHandle.type();
+  MethodType erased = type.erase();
+  return aHandle.asType(erased);
+ }
+}
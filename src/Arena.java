@@ -0,0 +1,232 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Locale;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * A window playing many independent boards at once, each with its own game
+ * and score. The heap used by a board is measured when the boards are
+ * created, and shown under them.
+ */
+public class Arena extends JFrame {
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Constants
+ ///////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Arena: ";
+
+ private static final long serialVersionUID = 1L;
+
+ private static final int DEFAULT_NUMBER_OF_BOARDS = 16;
+ private static final int DEFAULT_NUMBER_OF_ROWS = 4;
+ private static final int DEFAULT_NUMBER_OF_COLUMNS = 6;
+
+ // Garbage collections before reading the heap, each followed by the
+ // finalization of what it found, so that the heap settles
+ private static final int NUMBER_OF_COLLECTIONS = 3;
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ///////////////////////////////////////////////////////////////////////////
+
+ // Logic
+ private Board[] mBoards;
+ private long mHeapPerBoard;
+ // GUI components
+ private JLabel mStatusLabel;
+ private JButton mNewButton;
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ///////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a Frame displaying a number of boards.
+  *
+  * @param aNumOfBoards
+  *            is the number of boards
+  * @param aNumOfRows
+  *            is the number of rows of every board
+  * @param aNumOfColumns
+  *            is the number of columns of every board
+  */
+ public Arena(int aNumOfBoards, int aNumOfRows, int aNumOfColumns) {
+
+  super("Memory arena");
+
+  setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+  setBackground(Color.WHITE);
+
+  mBoards = new Board[aNumOfBoards];
+  mHeapPerBoard = createBoards(mBoards, aNumOfRows, aNumOfColumns);
+
+  int numOfColumns = (int) Math.ceil(Math.sqrt(aNumOfBoards));
+  JPanel arena = new JPanel(new GridLayout(0, numOfColumns));
+  arena.setBackground(Color.WHITE);
+  for (Board board : mBoards) {
+   arena.add(board);
+  }
+  add(new JScrollPane(arena), BorderLayout.CENTER);
+
+  JPanel status = new JPanel(new BorderLayout());
+  mStatusLabel = new JLabel(getStatus(aNumOfBoards, mHeapPerBoard));
+  status.add(mStatusLabel, BorderLayout.CENTER);
+
+  mNewButton = new JButton("New Games");
+  mNewButton.setFocusPainted(false);
+  mNewButton.addMouseListener(btnMouseListener);
+  status.add(mNewButton, BorderLayout.EAST);
+  add(status, BorderLayout.SOUTH);
+
+  pack();
+  setResizable(true);
+  setVisible(true);
+ }
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ///////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the heap used by one board, measured when the boards
+  * were created.
+  *
+  * @return the number of bytes
+  */
+ public long getHeapPerBoard() {
+
+  return mHeapPerBoard;
+ }
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Listeners
+ ///////////////////////////////////////////////////////////////////////////
+
+ private MouseListener btnMouseListener = new MouseAdapter() {
+  public void mouseClicked(MouseEvent e) {
+   if (e.getClickCount() == 1 && e.getComponent() == mNewButton) {
+    for (Board board : mBoards) {
+     board.init();
+    }
+   }
+  }
+ };
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ///////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Starts the arena, or only measures the heap of the boards when there is
+  * no display.
+  *
+  * @param args
+  *            - Optional number of boards (16 by default), and number of
+  *            rows and columns of every board (4 x 6 by default).
+  */
+ public static void main(String[] args) throws Exception {
+
+  final int numOfBoards = args.length >= 1 ? Integer.parseInt(args[0])
+    : DEFAULT_NUMBER_OF_BOARDS;
+  final int numOfRows = args.length >= 3 ? Integer.parseInt(args[1])
+    : DEFAULT_NUMBER_OF_ROWS;
+  final int numOfColumns = args.length >= 3 ? Integer.parseInt(args[2])
+    : DEFAULT_NUMBER_OF_COLUMNS;
+
+  if (numOfBoards < 1) {
+   error("main(String[]) received an invalid number of boards", true);
+  }
+
+  if (GraphicsEnvironment.isHeadless()) {
+   measure(numOfBoards, numOfRows, numOfColumns);
+   System.exit(0);
+  }
+
+  SwingUtilities.invokeLater(new Runnable() {
+   public void run() {
+    new Arena(numOfBoards, numOfRows, numOfColumns);
+   }
+  });
+ }
+
+ // This method prints the heap used by boards that aren't displayed
+ private static void measure(final int numOfBoards, final int numOfRows,
+   final int numOfColumns) throws Exception {
+
+  SwingUtilities.invokeAndWait(new Runnable() {
+   public void run() {
+    Board[] boards = new Board[numOfBoards];
+    long heapPerBoard = createBoards(boards, numOfRows, numOfColumns);
+
+    System.out.println(getStatus(boards.length, heapPerBoard));
+   }
+  });
+ }
+
+ // This method creates the boards, each with its own deal, and returns the
+ // heap used by one board
+ private static long createBoards(Board[] boards, int numOfRows,
+   int numOfColumns) {
+
+  // A first board loads the card images that every board shares. The
+  // boards decode their images and prepare their next deal in the
+  // background, the heap is read once that is done.
+  new Board(numOfRows, numOfColumns).getBackgroundWork().join();
+  long before = getUsedHeap();
+
+  for (int i = 0; i < boards.length; i++) {
+   boards[i] = new Board(numOfRows, numOfColumns);
+  }
+  for (Board board : boards) {
+   board.getBackgroundWork().join();
+  }
+
+  // A collection may still free more than the boards hold
+  return Math.max(0, getUsedHeap() - before) / boards.length;
+ }
+
+ // This method gets the heap in use once the garbage is collected
+ private static long getUsedHeap() {
+
+  MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+  for (int i = 0; i < NUMBER_OF_COLLECTIONS; i++) {
+   memory.gc();
+   System.runFinalization();
+  }
+  return memory.getHeapMemoryUsage().getUsed();
+ }
+
+ // This method describes the heap used by the boards
+ private static String getStatus(int numOfBoards, long heapPerBoard) {
+
+  return String.format(Locale.ROOT,
+    " %d boards, %.1f KB of heap per board, %.1f MB in all",
+    numOfBoards, heapPerBoard / 1024.0, numOfBoards * heapPerBoard
+      / (1024.0 * 1024.0));
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,142 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs the card images into the atlas read by CardAtlas: the faces, the
+ * empty slot and the hidden card are decoded once, at build time, and their
+ * pixels stacked in one file. Maven runs it after the classes are compiled,
+ * see game/pom.xml.
+ */
+public class AtlasPacker {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "AtlasPacker: ";
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Static access only
+ private AtlasPacker() {
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Writes the atlas of the card images found in the class path.
+  *
+  * @param args
+  *            - The atlas file to write.
+  */
+ public static void main(String[] args) throws IOException {
+
+  if (args.length != 1) {
+   error("main(String[]) expects the atlas file", true);
+  }
+
+  long start = System.nanoTime();
+  File file = new File(args[0]);
+  int size = pack(file);
+
+  System.out.println(TAG + "packed "
+    + CardImages.getBuiltInTypes().length + " images, " + size / 1024 + " KB, in "
+    + (System.nanoTime() - start) / 1000000 + " ms to " + file);
+ }
+
+ // This method decodes the images and writes the atlas, it returns its size
+ private static int pack(File file) throws IOException {
+
+  // The faces, then the empty slot and the hidden card
+  int[] types = CardImages.getBuiltInTypes();
+  int numOfImages = types.length;
+  BufferedImage[] images = new BufferedImage[numOfImages];
+  int width = 0;
+  int height = 0;
+
+  for (int i = 0; i < numOfImages; i++) {
+   URL resource = AtlasPacker.class.getResource(CardImages
+     .getImagePath(types[i]));
+   if (resource == null) {
+    throw new IOException("Missing image of type " + types[i]);
+   }
+   images[i] = ImageIO.read(resource);
+   width = Math.max(width, images[i].getWidth());
+   height += images[i].getHeight();
+  }
+
+  // The images are stacked, one under the other
+  int pixels = CardAtlas.HEADER_SIZE + numOfImages * CardAtlas.ENTRY_SIZE;
+  ByteBuffer buffer = ByteBuffer.allocate(pixels + width * height * 4);
+
+  buffer.putInt(CardAtlas.MAGIC);
+  buffer.putInt(CardAtlas.VERSION);
+  buffer.putInt(width);
+  buffer.putInt(height);
+  buffer.putInt(numOfImages);
+
+  int y = 0;
+  for (int i = 0; i < numOfImages; i++) {
+   buffer.putInt(types[i]);
+   buffer.putInt(0);
+   buffer.putInt(y);
+   buffer.putInt(images[i].getWidth());
+   buffer.putInt(images[i].getHeight());
+   y += images[i].getHeight();
+  }
+
+  int[] row = new int[width];
+  for (BufferedImage image : images) {
+   for (int line = 0; line < image.getHeight(); line++) {
+    // A narrower image is padded with black
+    Arrays.fill(row, 0);
+    image.getRGB(0, line, image.getWidth(), 1, row, 0, width);
+    for (int pixel : row) {
+     buffer.putInt(pixel & 0xFFFFFF);
+    }
+   }
+  }
+
+  File folder = file.getAbsoluteFile().getParentFile();
+  if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+   throw new IOException("Can't create " + folder);
+  }
+
+  buffer.flip();
+  FileChannel channel = FileChannel.open(file.toPath(),
+    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+    StandardOpenOption.TRUNCATE_EXISTING);
+  try {
+   while (buffer.hasRemaining()) {
+    channel.write(buffer);
+   }
+  } finally {
+   channel.close();
+  }
+
+  return buffer.limit();
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -1,28 +1,40 @@
+import java.awt.BasicStroke;
+import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
-import java.awt.Point;
+import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Random;
-
-import javax.swing.AbstractAction;
-import javax.swing.Action;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.Timer;
 
 /**
- * A Board implementation that holds cards and maintain their states.
- * 
+ * A Board implementation that displays the cards of a Game and forwards the
+ * player's clicks to it. All the state of a game belongs to its board, so
+ * many boards can be played in the same process, see Arena.
+ *
  * @author Yasser Ghamlouch <a
  *         href="mailto:yasman8@gmail.com">mailto:yasman8@gmail.com</a>
- * 
+ *
  */
 public class Board extends JPanel implements ActionListener {
 
@@ -32,79 +44,224 @@ public class Board extends JPanel implements ActionListener {
 
  private static final String TAG = "Board: ";
 
+ /**
+  * The property changed after every flip when the known cards are tracked,
+  * its new value is the KnownCards of the board.
+  */
+ public static final String KNOWN_CARDS_PROPERTY = "knownCards";
+
+ /**
+  * The views of the cards: a Cell per card, or every card painted by one
+  * BoardCanvas, for large boards.
+  */
+ public static final int CELL_VIEW = 0;
+ public static final int PAINTED_VIEW = 1;
+
  // Serial ID
  private static final long serialVersionUID = 1L;
  // Logic constants
  private static final int BOARD_BORDER_WIDTH = 20;
- private static final int MAX_NUM_OF_CARDS = 24;
- private static final int MIN_NUM_OF_CARDS = 1;
- private static final int NUMBER_OF_ROWS = 4;
- private static final int NUMBER_OF_COLUMNS = 6;
- private static final int NUMBER_OF_PAIRS = 12;
-
- private static final int MAX_SELECTED_CARDS = 2;
- private static final int FIRST = 0;
- private static final int SECOND = 1;
+ private static final int DEFAULT_NUMBER_OF_ROWS = 4;
+ private static final int DEFAULT_NUMBER_OF_COLUMNS = 6;
+ private static final int MIN_NUMBER_OF_ROWS = 2;
+ private static final int MIN_NUMBER_OF_COLUMNS = 2;
+ private static final int MAX_NUMBER_OF_ROWS = 256;
+ private static final int MAX_NUMBER_OF_COLUMNS = 256;
+
  private static final int VISIBLE_DELAY = (int) 2 * 1000;
  private static final int PEEK_DELAY = (int) 2 * 1000;
-
- // Card types
- private static final int EMPTY_CELL_TYPE = 0;
- private static final int HIDDEN_CARD_TYPE = 26;
- private static final int EMPTY_CARD_TYPE = 25;
-
- // Card image file properties
- private static final String DEFAULT_IMAGE_FILENAME_SUFFIX = ".jpg";
- private static final String DEFAULT_IMAGE_FILENAME_PREFIX = "img-";
- private static final String DEFAULT_IMAGE_FOLDER = "/images/";
- private static final String HIDDEN_IMAGE_PATH = DEFAULT_IMAGE_FOLDER
-   + DEFAULT_IMAGE_FILENAME_PREFIX + "26"
-   + DEFAULT_IMAGE_FILENAME_SUFFIX;
- private static final String EMPTY_IMAGE_PATH = DEFAULT_IMAGE_FOLDER
-   + DEFAULT_IMAGE_FILENAME_PREFIX + "25"
-   + DEFAULT_IMAGE_FILENAME_SUFFIX;
-
- ////////////////////////////////////////////////////////////////////////////
- // Static variables
- ////////////////////////////////////////////////////////////////////////////
-
- private static ArrayList<Cell> chosenCards = new ArrayList<Cell>();
- private static int numOfMatchedPairs = 0;
- private static int numOfFailedAttempts = 0;
- private static int selectedCards = 0;
+ // Heatmap overlay, red over the cells whose card is forgotten the most
+ private static final int HEATMAP_MAX_ALPHA = 160;
+ // One color per alpha step, so that a repaint allocates none
+ private static final Color[] HEATMAP_COLORS = createHeatmapColors();
+ // Hint outline, around the cards of a sure match
+ private static final Color HINT_COLOR = new Color(255, 160, 0);
+ private static final int HINT_WIDTH = 4;
+
+ // Quiet time after the last resize before the images are scaled
+ private static final int RESIZE_DELAY = 150;
+
+ // Card types, a cell not dealt yet is below the reserved types
+ private static final int EMPTY_CELL_TYPE = CardImages.HIDDEN_CARD_TYPE - 1;
+ private static final int HIDDEN_CARD_TYPE = CardImages.HIDDEN_CARD_TYPE;
+ private static final int EMPTY_CARD_TYPE = CardImages.EMPTY_CARD_TYPE;
+ private static final int[] RESERVED_TYPES = { HIDDEN_CARD_TYPE,
+   EMPTY_CARD_TYPE };
 
  ////////////////////////////////////////////////////////////////////////////
  // Instance variables
  ////////////////////////////////////////////////////////////////////////////
 
- private Cell[][] mBoard = null;
- private String[] mCardStorage = initCardStorage();
- private Cell[] mCardChecker = new Cell[MAX_SELECTED_CARDS];
+ private final int mNumOfRows;
+ private final int mNumOfColumns;
+ private final int mNumOfCards;
+
+ // The faces dealt, those of the deck when the board was created
+ private final int mFirstFace;
+ private final int mNumOfFaces;
+
+ // The cells of the cell view, or the canvas of the painted view
+ private Cell[] mBoard = null;
+ private BoardCanvas mCanvas = null;
+ // The area of a card, as last asked for
+ private final Rectangle mCellBounds = new Rectangle();
+ private Game mGame = null;
+ private int[] mCardStorage = null;
+
+ // Seed of the current deal, and the source of the seeds of new deals
+ private long mSeed = 0;
+ private SplittableRandom mSeeds = new SplittableRandom();
+
+ // The next deal, dealt and its images decoded in the background while the
+ // current game is played. The images of a deal are acquired from
+ // CardImages until it is replaced, so only the faces in play stay decoded.
+ private long mNextSeed = 0;
+ private CompletableFuture<int[]> mNextDeal = null;
+
+ // Cells whose state changed since the last refresh
+ private boolean[] mIsDirty = null;
+ private int[] mDirtyCells = null;
+ private int mNumOfDirtyCells = 0;
+
+ // Where the game is saved after every change, if anywhere
+ private SnapshotFile mSnapshots = null;
+ private int mSnapshotSlot = 0;
+
+ // Delayed tasks, on the timer wheel shared by every board
+ private TimerWheel.Timeout mSettleTimeout = null;
+ private TimerWheel.Timeout mResultsTimeout = null;
+ private TimerWheel.Timeout mResizeTimeout = null;
+
+ // Card images scaled to the cells, null until the board is laid out, and
+ // the size they were requested for
+ private ScaledCardImages.Icons mIcons = null;
+ private int mIconWidth = 0;
+ private int mIconHeight = 0;
+ // Placeholders are showing until the images being decoded arrive
+ private boolean mIsWaitingForImages = false;
+
+ // Where the moves are recorded, if anywhere
+ private MoveJournal mJournal = null;
+
+ // Where the finished games are ranked, if anywhere, and the rank of the
+ // last one
+ private Leaderboard mLeaderboard = null;
+ private long mGameStart = System.currentTimeMillis();
+ private long mRank = 0;
+ private float mPercentile = 0;
+ // The failed attempts expected of the best play on this board, asked for
+ // when the board is created
+ private CompletableFuture<Double> mPar = null;
+
+ // Where the recall of the cards is analysed, if anywhere, and if it is
+ // shown over the cells
+ private RecallStats mRecallStats = null;
+ private boolean mIsHeatmapShown = false;
+
+ // The cards seen so far, if tracked, if the hints are shown over the cells
+ // and the cards outlined
+ private KnownCards mKnownCards = null;
+ private boolean mIsHintShown = false;
+ private int mHintFirst = Game.NO_CARD;
+ private int mHintSecond = Game.NO_CARD;
+
+ // The flip and vanish animations of the cards, if animated
+ private FlipTimeline mTimeline = null;
+
+ // Refresh statistics
+ private int mLastRefreshCellCount = 0;
+ private long mTotalRefreshCellCount = 0;
+ private long mNumOfRefreshes = 0;
 
  ////////////////////////////////////////////////////////////////////////////
  // Constructor
  ////////////////////////////////////////////////////////////////////////////
  /**
-  * Initialize a Board ready to be used for a game.
+  * Initialize a 4 x 6 Board ready to be used for a game.
   */
  public Board() {
+  this(DEFAULT_NUMBER_OF_ROWS, DEFAULT_NUMBER_OF_COLUMNS);
+ }
+
+ /**
+  * Initialize a Board of the specified size ready to be used for a game.
+  *
+  * @param aNumOfRows
+  *            is the number of rows, between 2 and 256
+  * @param aNumOfColumns
+  *            is the number of columns, between 2 and 256. The board must
+  *            hold an even number of cards.
+  */
+ public Board(int aNumOfRows, int aNumOfColumns) {
+  this(aNumOfRows, aNumOfColumns, CELL_VIEW);
+ }
+
+ /**
+  * Initialize a Board of the specified size and view ready to be used for a
+  * game.
+  *
+  * @param aNumOfRows
+  *            is the number of rows, between 2 and 256
+  * @param aNumOfColumns
+  *            is the number of columns, between 2 and 256. The board must
+  *            hold an even number of cards.
+  * @param aView
+  *            is CELL_VIEW or PAINTED_VIEW
+  */
+ public Board(int aNumOfRows, int aNumOfColumns, int aView) {
   super();
 
+  if (aView != CELL_VIEW && aView != PAINTED_VIEW) {
+   error("Board(int, int, int) reported \"Invalid view\"", true);
+  }
+
+  if (aNumOfRows < MIN_NUMBER_OF_ROWS || aNumOfRows > MAX_NUMBER_OF_ROWS
+    || aNumOfColumns < MIN_NUMBER_OF_COLUMNS
+    || aNumOfColumns > MAX_NUMBER_OF_COLUMNS
+    || (aNumOfRows * aNumOfColumns) % 2 != 0) {
+   error("Board(int, int) reported \"Invalid board size\"", true);
+  }
+
+  mNumOfRows = aNumOfRows;
+  mNumOfColumns = aNumOfColumns;
+  mNumOfCards = aNumOfRows * aNumOfColumns;
+  mFirstFace = CardImages.getFirstFace();
+  mNumOfFaces = CardImages.getNumOfFaces();
+
+  mGame = new Game(mNumOfCards);
+  mIsDirty = new boolean[mNumOfCards];
+  mDirtyCells = new int[mNumOfCards];
+
+  // Solved while the first game is played, unless nobody will see it
+  if (!GraphicsEnvironment.isHeadless()) {
+   mPar = ParSolver.getPar(mNumOfCards / 2);
+  }
+
   setBackground(Color.WHITE);
   setBorder(BorderFactory.createEmptyBorder(BOARD_BORDER_WIDTH,
     BOARD_BORDER_WIDTH, BOARD_BORDER_WIDTH, BOARD_BORDER_WIDTH));
-  setLayout(new GridLayout(NUMBER_OF_ROWS, NUMBER_OF_COLUMNS));
 
-  mBoard = new Cell[NUMBER_OF_ROWS][NUMBER_OF_COLUMNS];
+  if (aView == PAINTED_VIEW) {
+   setLayout(new BorderLayout());
+   mCanvas = new BoardCanvas(mNumOfRows, mNumOfColumns, new IntConsumer() {
+    public void accept(int index) {
+     flip(index);
+    }
+   });
+   add(mCanvas, BorderLayout.CENTER);
+  } else {
+   setLayout(new GridLayout(mNumOfRows, mNumOfColumns));
+   mBoard = new Cell[mNumOfCards];
 
-  for (int row = 0; row < NUMBER_OF_ROWS; row++) {
-   for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
-    mBoard[row][column] = new Cell(EMPTY_CELL_TYPE);
-    mBoard[row][column].addActionListener(this);
-    add(mBoard[row][column]);
+   for (int index = 0; index < mNumOfCards; index++) {
+    mBoard[index] = new Cell(EMPTY_CELL_TYPE, index);
+    mBoard[index].addActionListener(this);
+    add(mBoard[index]);
    }
   }
 
+  addComponentListener(resizeListener);
+
   init();
  }
 
@@ -113,16 +270,28 @@ public class Board extends JPanel implements ActionListener {
  ////////////////////////////////////////////////////////////////////////////
 
  /**
-  * This method initializes the board with a new set of cards
+  * This method initializes the board with a new set of cards. The deal
+  * prepared in the background is used if it is ready.
   */
  public void init() {
 
-  resetMatchedImages();
-  resetBoardParam();
-  peek();
-  mCardStorage = initCardStorage();
-  setImages();
+  if (mNextDeal == null) {
+   init(mSeeds.nextLong());
+  } else {
+   init(mNextSeed, mNextDeal.getNow(null));
+  }
+ }
+
+ /**
+  * This method initializes the board with the set of cards of a seed, the
+  * same seed always gives the same cards
+  *
+  * @param aSeed
+  *            is the seed of the deal
+  */
+ public void init(long aSeed) {
 
+  init(aSeed, null);
  }
 
  /**
@@ -131,58 +300,379 @@ public class Board extends JPanel implements ActionListener {
   */
  public void reInit() {
 
-  resetMatchedImages();
-  resetBoardParam();
+  cancelTimers();
   peek();
+  mGame.restart();
+  mGameStart = System.currentTimeMillis();
+  if (mRecallStats != null) {
+   mRecallStats.deal(mGame);
+  }
+  dealKnownCards();
   setImages();
+  save();
+
+  if (mJournal != null) {
+   mJournal.restart();
+  }
 
  }
 
+ /**
+  * This method saves the game in a slot of a snapshot file after every
+  * change, so that it can be resumed after the board is closed.
+  *
+  * @param aSnapshots
+  *            is the file, of games of this board's size, or null to stop
+  *            saving
+  * @param aSlot
+  *            is the slot of this board in the file
+  */
+ public void setSnapshotFile(SnapshotFile aSnapshots, int aSlot) {
+
+  if (aSnapshots != null && aSnapshots.getNumOfCards() != mNumOfCards) {
+   error("setSnapshotFile(SnapshotFile, int) received a file of another size",
+     false);
+   return;
+  }
+
+  mSnapshots = aSnapshots;
+  mSnapshotSlot = aSlot;
+ }
+
+ /**
+  * This method records every move of the following games in a journal. The
+  * current game is recorded from its deal if no card was flipped yet,
+  * otherwise from its current state, e.g. for a resumed game whose first
+  * moves the journal may have lost.
+  *
+  * @param aJournal
+  *            is the journal, or null to stop recording
+  */
+ public void setJournal(MoveJournal aJournal) {
+
+  mJournal = aJournal;
+
+  if (mJournal != null) {
+   mJournal.newGame(mSeed, mNumOfCards, mFirstFace, mNumOfFaces);
+   if (mGame.getSelectedCard() != Game.NO_CARD
+     || mGame.getNumOfMatchedPairs() != 0
+     || mGame.getNumOfFailedAttempts() != 0) {
+    mJournal.resumed(mGame);
+   }
+  }
+ }
+
+ /**
+  * This method ranks the following finished games on a leaderboard, the
+  * results dialog then shows their rank and percentile.
+  *
+  * @param aLeaderboard
+  *            is the leaderboard, or null to stop ranking
+  */
+ public void setLeaderboard(Leaderboard aLeaderboard) {
+
+  mLeaderboard = aLeaderboard;
+ }
+
+ /**
+  * This method analyses where the cards are forgotten from now on, or stops
+  * it.
+  *
+  * @param isEnabled
+  *            is true to analyse the following flips, false to drop the
+  *            statistics
+  */
+ public void setRecallStatsEnabled(boolean isEnabled) {
+
+  if (!isEnabled) {
+   mRecallStats = null;
+   setHeatmapShown(false);
+  } else if (mRecallStats == null) {
+   mRecallStats = new RecallStats(mNumOfCards, mFirstFace + mNumOfFaces - 1);
+   mRecallStats.deal(mGame);
+  }
+ }
+
+ /**
+  * This method gets where the cards were forgotten.
+  *
+  * @return the statistics, or null if they are not enabled
+  */
+ public RecallStats getRecallStats() {
+
+  return mRecallStats;
+ }
+
+ /**
+  * This method shows or hides the heatmap of the forgotten cards over the
+  * cells: the more often a card was forgotten at a position, the redder the
+  * cell. It needs the recall statistics.
+  *
+  * @param isShown
+  *            is true to show the heatmap
+  */
+ public void setHeatmapShown(boolean isShown) {
+
+  mIsHeatmapShown = isShown && mRecallStats != null;
+  repaint();
+ }
+
+ /**
+  * This method checks if the heatmap is shown over the cells.
+  */
+ public boolean isHeatmapShown() {
+
+  return mIsHeatmapShown;
+ }
+
+ /**
+  * This method tracks the cards seen from now on, or stops it. The cards
+  * seen before are unknown, as if they were never seen.
+  *
+  * @param isEnabled
+  *            is true to track the following flips, false to drop what is
+  *            known
+  */
+ public void setKnownCardsEnabled(boolean isEnabled) {
+
+  if (!isEnabled) {
+   mKnownCards = null;
+   setHintShown(false);
+  } else if (mKnownCards == null) {
+   mKnownCards = new KnownCards(mNumOfCards);
+   mKnownCards.deal(mGame);
+  }
+  firePropertyChange(KNOWN_CARDS_PROPERTY, null, mKnownCards);
+ }
+
+ /**
+  * This method gets the cards seen so far.
+  *
+  * @return the known cards, or null if they are not tracked
+  */
+ public KnownCards getKnownCards() {
+
+  return mKnownCards;
+ }
+
+ /**
+  * This method shows or hides the hints over the cells: the cards of a pair
+  * whose two cards were seen, or the partner of the selected card, are
+  * outlined. It needs the known cards.
+  *
+  * @param isShown
+  *            is true to show the hints
+  */
+ public void setHintShown(boolean isShown) {
+
+  mIsHintShown = isShown && mKnownCards != null;
+  updateHint();
+  repaint();
+ }
+
+ /**
+  * This method checks if the hints are shown over the cells.
+  */
+ public boolean isHintShown() {
+
+  return mIsHintShown;
+ }
+
+ /**
+  * This method animates the cards turning over and vanishing from now on,
+  * or shows the changes at once.
+  *
+  * @param isAnimated
+  *            is true to animate the cards
+  */
+ public void setAnimated(boolean isAnimated) {
+
+  if (isAnimated == (mTimeline != null)) {
+   return;
+  }
+
+  if (isAnimated) {
+   mTimeline = new FlipTimeline(mNumOfCards, animationListener);
+  } else {
+   mTimeline.cancelAll();
+   mTimeline = null;
+  }
+
+  if (mCanvas != null) {
+   mCanvas.setTimeline(mTimeline);
+  } else {
+   for (Cell cell : mBoard) {
+    cell.setTimeline(mTimeline);
+   }
+  }
+ }
+
+ /**
+  * This method checks if the cards are animated.
+  */
+ public boolean isAnimated() {
+
+  return mTimeline != null;
+ }
+
+ /**
+  * This method gets the work the board started in the background: the
+  * images of its deal, the deal prepared next and the par, e.g. to measure
+  * the board once it is settled.
+  *
+  * @return a future completed once all of it is done
+  */
+ CompletableFuture<Void> getBackgroundWork() {
+
+  return CompletableFuture.allOf(getImagesReady(mIcons),
+    mNextDeal != null ? mNextDeal : CompletableFuture.completedFuture(null),
+    mPar != null ? mPar : CompletableFuture.completedFuture(null));
+ }
+
+ /**
+  * This method tells Swing that the heatmap or the hints overlap the cells,
+  * so that a cell is repainted with them over it.
+  */
+ public boolean isOptimizedDrawingEnabled() {
+
+  return !mIsHeatmapShown && !mIsHintShown;
+ }
+
+ /**
+  * This method resumes the game saved in the snapshot file, in place of the
+  * current one. A solved game is not resumed.
+  *
+  * @return true if a game was resumed, false if the current game goes on
+  */
+ public boolean resume() {
+
+  if (mSnapshots == null || !mSnapshots.isSaved(mSnapshotSlot)) {
+   return false;
+  }
+
+  if (!mSnapshots.restore(mSnapshotSlot, mGame) || mGame.isSolved()
+    || !isDealtFromDeck()) {
+   // Back to the current deal, face down
+   mGame.deal(mCardStorage);
+   dealKnownCards();
+   markAllDirty();
+   refreshDirtyCells();
+   save();
+   return false;
+  }
+
+  mSeed = mSnapshots.getSeed(mSnapshotSlot);
+  // The time ranked is the time played, not the time since the relaunch
+  mGameStart = System.currentTimeMillis()
+    - Math.max(0, mSnapshots.getElapsedTime(mSnapshotSlot));
+  int[] previous = mCardStorage;
+  mCardStorage = new int[mNumOfCards];
+  for (int index = 0; index < mNumOfCards; index++) {
+   mCardStorage[index] = mGame.getType(index);
+  }
+  CardImages.acquire(mCardStorage);
+  CardImages.release(previous);
+  if (mRecallStats != null) {
+   mRecallStats.deal(mGame);
+  }
+  dealKnownCards();
+
+  markAllDirty();
+  refreshDirtyCells();
+
+  // The pair left face up is turned down as after any flip
+  if (mGame.getPendingFirst() != Game.NO_CARD) {
+   peek();
+  }
+
+  return true;
+ }
+
  /**
   * This method checks if the board is solved or not.
-  * 
+  *
   * @return true if the board is solved, false if there remains cards that
   *         have to be matched
   */
  public boolean isSolved() {
 
-  // No check for null, the method can't be called out of
-  // an instance, and the constructor initialize the mBoard
+  return mGame.isSolved();
+ }
 
-  for (int row = 0; row < NUMBER_OF_ROWS; row++) {
-   for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
-    if (!mBoard[row][column].isEmpty()) {
-     return false;
-    }
-   } // column loop
-  } // row loop
+ /**
+  * This method gets the seed of the current deal.
+  *
+  * @return the seed that init(long) needs to deal the same cards again
+  */
+ public long getSeed() {
 
-  return true;
+  return mSeed;
  }
 
  /**
-  * This method adds a selected card to the chosen card list
-  * 
-  * @param aCard
-  *            is the card to be added to the list
+  * This method gets the number of rows of the board.
+  *
+  * @return the number of rows
   */
+ public int getNumOfRows() {
 
- private void addToChose(Cell aCard) {
+  return mNumOfRows;
+ }
 
-  if (aCard != null) {
-   if (!chosenCards.contains(aCard)) {
-    chosenCards.add(aCard);
-   }
-  } else {
-   error("addToChose( Cell ) received null.", true);
-  }
+ /**
+  * This method gets the number of columns of the board.
+  *
+  * @return the number of columns
+  */
+ public int getNumOfColumns() {
+
+  return mNumOfColumns;
+ }
+
+ /**
+  * This method gets the game displayed by this board.
+  *
+  * @return the game holding the cards and the score
+  */
+ public Game getGame() {
 
+  return mGame;
+ }
+
+ /**
+  * This method gets the number of cells updated by the last refresh.
+  *
+  * @return the number of cells that were given a new icon
+  */
+ public int getLastRefreshCellCount() {
+
+  return mLastRefreshCellCount;
+ }
+
+ /**
+  * This method gets the number of cells updated by all the refreshes.
+  *
+  * @return the total number of cells that were given a new icon
+  */
+ public long getTotalRefreshCellCount() {
+
+  return mTotalRefreshCellCount;
+ }
+
+ /**
+  * This method gets the number of refreshes done on this board.
+  *
+  * @return the number of refreshes
+  */
+ public long getRefreshCount() {
+
+  return mNumOfRefreshes;
  }
 
  /**
   * This method is the action performed when a card is clicked it represents
   * the main user interface of the game
-  * 
+  *
   * @param e
   *            an ActionEvent
   */
@@ -198,380 +688,677 @@ public class Board extends JPanel implements ActionListener {
    return;
   }
 
-  if (!isCardValid((Cell) e.getSource())) {
+  int index = getCellIndex((Cell) e.getSource());
+  if (index < 0) {
    return;
   }
 
   // Proceed with cases we want to cover
+  flip(index);
+ }
 
-  ++selectedCards;
+ ////////////////////////////////////////////////////////////////////////////
+ // Listeners
+ ////////////////////////////////////////////////////////////////////////////
 
-  if (selectedCards <= MAX_SELECTED_CARDS) {
-   Point gridLoc = getCellLocation((Cell) e.getSource());
-   setCardToVisible(gridLoc.x, gridLoc.y);
-   mCardChecker[selectedCards - 1] = getCellAtLoc(gridLoc);
-   addToChose(getCellAtLoc(gridLoc));
+ // A drag-resize sends many events, the images are scaled once it stops
+ private ComponentListener resizeListener = new ComponentAdapter() {
+  public void componentResized(ComponentEvent e) {
+   if (mResizeTimeout != null) {
+    mResizeTimeout.cancel();
+   }
+   mResizeTimeout = TimerWheel.getDefault().schedule(mRescaleTask,
+     RESIZE_DELAY);
   }
+ };
 
-  if (selectedCards == MAX_SELECTED_CARDS) {
-
-   if (!sameCellPosition(mCardChecker[FIRST].getLocation(),
-     mCardChecker[SECOND].getLocation())) {
-
-    setSelectedCards(mCardChecker[FIRST], mCardChecker[SECOND]);
+ // Each frame of an animation draws its card again
+ private FlipTimeline.Listener animationListener = new FlipTimeline.Listener() {
+  public void animate(int index) {
+   if (mCanvas != null) {
+    mCanvas.repaintCard(index);
    } else {
-    --selectedCards;
+    mBoard[index].repaint();
    }
-  } // if selectedCards == MAX
- }
+  }
+ };
 
  ////////////////////////////////////////////////////////////////////////////
  // Utils Methods
  ////////////////////////////////////////////////////////////////////////////
 
- // This method returns the location of a Cell object on the board
- private Cell getCellAtLoc(Point point) {
-  if (point == null) {
-   error("getCellAtLoc( Point ) received null", true);
-   return null;
+ // This method flips a card clicked in either view
+ private void flip(int index) {
+
+  // The pair that is still face up is turned down by the next flip
+  int pendingFirst = mGame.getPendingFirst();
+  int pendingSecond = mGame.getPendingSecond();
+
+  int result = mGame.flip(index);
+
+  if (result == Game.FLIP_IGNORED) {
+   return;
+  }
+
+  if (pendingFirst != Game.NO_CARD) {
+   markDirty(pendingFirst);
+   markDirty(pendingSecond);
   }
 
-  return mBoard[point.x][point.y];
+  markDirty(index);
+
+  if (mRecallStats != null) {
+   int changed = mRecallStats.flip(mGame, index, result, System.nanoTime());
+   if (mIsHeatmapShown) {
+    repaintCell(changed);
+   }
+  }
+
+  if (mKnownCards != null) {
+   mKnownCards.flip(mGame, index, result);
+   updateHint();
+   firePropertyChange(KNOWN_CARDS_PROPERTY, null, mKnownCards);
+  }
+
+  if (mJournal != null) {
+   mJournal.flip(index, result);
+   if (result == Game.FLIP_MATCH && mGame.isSolved()) {
+    mJournal.solved(mGame.getNumOfFailedAttempts());
+   }
+  }
+
+  if (result != Game.FLIP_FIRST) {
+   setSelectedCards(mGame.getPendingFirst(), mGame.getPendingSecond(),
+     result == Game.FLIP_MATCH);
+  }
+
+  refreshDirtyCells();
+  save();
  }
 
- // This method sets a card to visible at a certain location
- private void setCardToVisible(int x, int y) {
+ // This method initializes the board with the cards of a seed, dealt already
+ // or null to deal them now
+ private void init(long aSeed, int[] aDeal) {
+
+  cancelTimers();
+  peek();
+  mSeed = aSeed;
+  int[] previous = mCardStorage;
+  mCardStorage = aDeal != null ? aDeal : initCardStorage();
+  if (aDeal == null) {
+   CardImages.acquire(mCardStorage);
+  }
+  if (previous != null) {
+   CardImages.release(previous);
+  }
+  mGame.deal(mCardStorage);
+  mGameStart = System.currentTimeMillis();
+  if (mRecallStats != null) {
+   mRecallStats.deal(mGame);
+  }
+  dealKnownCards();
+  setImages();
+  save();
 
-  mBoard[x][y].setSelected(true);
-  showCardImages();
+  if (mJournal != null) {
+   mJournal.newGame(mSeed, mNumOfCards, mFirstFace, mNumOfFaces);
+  }
+
+  // Prepare the next deal, unless this one was chosen by its seed and the
+  // prepared one wasn't used
+  if (aDeal != null) {
+   mNextDeal = null;
+  }
+  if (mNextDeal == null || aSeed == mNextSeed) {
+   prefetch();
+  }
+ }
+
+ // This method deals the next cards and decodes their images in the
+ // background, scaled to the cells if they are laid out
+ private void prefetch() {
+
+  final long seed = mSeeds.nextLong();
+  final int numOfCards = mNumOfCards;
+  final int firstFace = mFirstFace;
+  final int numOfFaces = mNumOfFaces;
+  final ScaledCardImages.Icons icons = mIcons;
+
+  // A prepared deal that wasn't used gives its images back
+  if (mNextDeal != null) {
+   mNextDeal.thenAccept(new Consumer<int[]>() {
+    public void accept(int[] deal) {
+     CardImages.release(deal);
+    }
+   });
+  }
+
+  mNextSeed = seed;
+  mNextDeal = CompletableFuture.supplyAsync(new Supplier<int[]>() {
+   public int[] get() {
+    return new Dealer(seed, firstFace, numOfFaces).deal(numOfCards);
+   }
+  }).thenCompose(new Function<int[], CompletionStage<int[]>>() {
+   public CompletionStage<int[]> apply(final int[] deal) {
+    // Decoded, then scaled, the deal is ready
+    return CardImages.acquire(deal)
+      .thenCompose(new Function<Void, CompletionStage<Void>>() {
+       public CompletionStage<Void> apply(Void nothing) {
+        return icons != null ? icons.scale(deal) : CompletableFuture
+          .<Void> completedFuture(null);
+       }
+      }).thenApply(new Function<Void, int[]>() {
+       public int[] apply(Void nothing) {
+        return deal;
+       }
+      });
+   }
+  });
  }
 
- // This method delays the setCards method, so the user can peek at the cards
- // before the board resets them
+ // This method delays the flip back of the cards, so the user can peek at
+ // them before the board resets them. Only the last pair gets flipped back,
+ // an earlier delay still running is cancelled.
  private void peek() {
 
-  Action showImagesAction = new AbstractAction() {
+  if (mSettleTimeout != null) {
+   mSettleTimeout.cancel();
+  }
+  mSettleTimeout = TimerWheel.getDefault().schedule(mSettleTask,
+    PEEK_DELAY);
+ }
 
-   private static final long serialVersionUID = 1L;
+ private final Runnable mSettleTask = new Runnable() {
+  public void run() {
+   int pendingFirst = mGame.getPendingFirst();
+   int pendingSecond = mGame.getPendingSecond();
 
-   public void actionPerformed(ActionEvent e) {
-    showCardImages();
+   if (mGame.settle()) {
+    markDirty(pendingFirst);
+    markDirty(pendingSecond);
+    save();
    }
-  };
+   refreshDirtyCells();
+  }
+ };
 
-  Timer timer = new Timer(PEEK_DELAY, showImagesAction);
-  timer.setRepeats(false);
-  timer.start();
+ // This method saves the game in the snapshot file, if there is one
+ private void save() {
+
+  if (mSnapshots != null) {
+   mSnapshots.save(mSnapshotSlot, mSeed, System.currentTimeMillis()
+     - mGameStart, mGame);
+  }
  }
 
  // This method sets the images on the board
  private void setImages() {
 
-  ImageIcon anImage;
+  // A new deal shows at once
+  if (mTimeline != null) {
+   mTimeline.cancelAll();
+  }
 
-  for (int row = 0; row < NUMBER_OF_ROWS; row++) {
-   for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+  for (int index = 0; index < mNumOfCards; index++) {
 
-    URL file = getClass().getResource(
-      DEFAULT_IMAGE_FOLDER
-        + DEFAULT_IMAGE_FILENAME_PREFIX
-        + mCardStorage[column
-          + (NUMBER_OF_COLUMNS * row)]
-        + DEFAULT_IMAGE_FILENAME_SUFFIX);
+   showCard(index, mGame.getType(index), false);
 
-    if (file == null) {
-     System.err.println(TAG
-       + "setImages() reported error \"File not found\".");
-     System.exit(-1);
-    }
+  } // card loop
+
+  // Every face is showing, the next refresh turns them all down
+  markAllDirty();
+ }
+
+ // This method refreshes the cells that changed since the last refresh
+ private void refreshDirtyCells() {
 
-    anImage = new ImageIcon(file);
+  int count = mNumOfDirtyCells;
 
-    mBoard[row][column].setIcon(anImage);
+  for (int i = 0; i < count; i++) {
+   int index = mDirtyCells[i];
+   mIsDirty[index] = false;
+   refreshCell(index);
+  }
 
-   } // column loop
-  } // row loop
+  mNumOfDirtyCells = 0;
+  mLastRefreshCellCount = count;
+  mTotalRefreshCellCount += count;
+  mNumOfRefreshes++;
  }
 
- // This method shows a specific image at a certain location
- private void showImage(int x, int y) {
+ // This method sets the image and type of a card according to its state in
+ // the game
+ private void refreshCell(int index) {
 
-  URL file = getClass().getResource(
-    DEFAULT_IMAGE_FOLDER + DEFAULT_IMAGE_FILENAME_PREFIX
-      + mCardStorage[y + (NUMBER_OF_COLUMNS * x)]
-      + DEFAULT_IMAGE_FILENAME_SUFFIX);
+  int type;
 
-  if (file == null) {
-   System.err.println(TAG
-     + "showImage(int, int) reported error \"File not found\".");
-   System.exit(-1);
+  if (mGame.isFaceUp(index)) {
+   // The card is selected, show its face
+   type = mGame.getType(index);
+  } else if (mGame.isRemoved(index)) {
+   // It was matched, empty the card slot
+   type = EMPTY_CARD_TYPE;
+  } else {
+   // It was not, put the "hidden card" image
+   type = HIDDEN_CARD_TYPE;
   }
 
-  ImageIcon anImage = new ImageIcon(file);
-  mBoard[x][y].setIcon(anImage);
-
+  showCard(index, type, true);
  }
 
- // This method sets all the images on the board
- private void showCardImages() {
+ // This method shows a card type in a cell of the view, a card turning over
+ // or vanishing is animated if asked for
+ private void showCard(int index, int type, boolean isAnimated) {
 
-  // For each card on the board
-  for (int row = 0; row < NUMBER_OF_ROWS; row++) {
-   for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
+  if (isAnimated && mTimeline != null) {
+   int shown = mCanvas != null ? mCanvas.getType(index) : mBoard[index]
+     .getType();
+   if (shown != type && shown != EMPTY_CELL_TYPE) {
+    mTimeline.start(index, type == EMPTY_CARD_TYPE ? FlipTimeline.VANISH
+      : FlipTimeline.FLIP);
+   }
+  }
 
-    // Is card selected ?
-    if (!mBoard[row][column].isSelected()) {
+  if (mCanvas != null) {
+   mCanvas.setCard(index, type, getIcon(type));
+  } else {
+   mBoard[index].setCard(type, getIcon(type));
+  }
+ }
 
-     // If selected, verify if the card was matched by the user
-     if (mBoard[row][column].isMatched()) {
-      // It was matched, empty the card slot
-      mBoard[row][column].setIcon(new ImageIcon(getClass()
-        .getResource(EMPTY_IMAGE_PATH)));
-      mBoard[row][column].setType(EMPTY_CARD_TYPE);
-     } else {
-      // It was not, put the "hidden card" image
-      mBoard[row][column].setIcon(new ImageIcon(getClass()
-        .getResource(HIDDEN_IMAGE_PATH)));
-      mBoard[row][column].setType(HIDDEN_CARD_TYPE);
-     }
+ // This method gets the image of a card type, scaled to the cells once they
+ // are laid out. An image that isn't decoded yet shows as a placeholder.
+ private ImageIcon getIcon(int type) {
 
-    } else {
-     // The card was not selected
-     showImage(row, column);
+  ImageIcon icon = mIcons != null ? mIcons.get(type) : CardImages
+    .getIfLoaded(type);
+  if (icon == null) {
+   waitForImages();
+   return CardImages.getPlaceholder();
+  }
+  return icon;
+ }
 
-     String type = mCardStorage[column
-       + (NUMBER_OF_COLUMNS * row)];
-     int parsedType = Integer.parseInt(type);
+ // This method decodes the images of the current deal in the background,
+ // and scales them if the cells are laid out, the placeholders are replaced
+ // once they are all ready
+ private void waitForImages() {
 
-     mBoard[row][column].setType(parsedType);
+  if (mIsWaitingForImages) {
+   return;
+  }
 
-    } // Is card selected?
-   } // inner loop - columns
-  } // outer loop - rows
+  mIsWaitingForImages = true;
+  getImagesReady(mIcons).thenRun(new Runnable() {
+   public void run() {
+    EventQueue.invokeLater(new Runnable() {
+     public void run() {
+      mIsWaitingForImages = false;
+      updateIcons();
+     }
+    });
+   }
+  });
  }
 
- // This method generates a random image, i.e. a random integer representing
- // the type of the image
+ // The cells keep their icons while the images of their new size are scaled
+ // off the event dispatch thread, then swap them in one pass
+ private final Runnable mRescaleTask = new Runnable() {
+  public void run() {
+   final int width;
+   final int height;
+   if (mCanvas != null) {
+    width = mCanvas.getImageWidth();
+    height = mCanvas.getImageHeight();
+   } else {
+    Insets insets = mBoard[0].getInsets();
+    width = mBoard[0].getWidth() - insets.left - insets.right;
+    height = mBoard[0].getHeight() - insets.top - insets.bottom;
+   }
 
- private String generateRandomImageFilename(int max, int min) {
+   if (width <= 0 || height <= 0
+     || (width == mIconWidth && height == mIconHeight)) {
+    return;
+   }
+
+   mIconWidth = width;
+   mIconHeight = height;
+
+   final ScaledCardImages.Icons icons = ScaledCardImages.get(width, height);
+   getImagesReady(icons).thenRun(new Runnable() {
+    public void run() {
+     EventQueue.invokeLater(new Runnable() {
+      public void run() {
+       setIcons(icons, width, height);
+      }
+     });
+    }
+   });
+  }
+ };
 
-  Random random = new Random();
-  Integer aNumber = (min + random.nextInt(max));
+ // This method gets the images of the current deal and the reserved types
+ // ready, decoded and scaled if icons of a size are given
+ private CompletableFuture<Void> getImagesReady(ScaledCardImages.Icons icons) {
 
-  if (aNumber > 0 && aNumber < 10) {
-   return "0" + aNumber;
-  } else {
-   return aNumber.toString();
+  if (icons == null) {
+   return CompletableFuture.allOf(CardImages.preload(mCardStorage),
+     CardImages.preload(RESERVED_TYPES));
   }
+  return CompletableFuture.allOf(icons.scale(mCardStorage),
+    icons.scale(RESERVED_TYPES));
  }
 
- // This method creates an array of string holding the indices of 24 random
- // images grouped in pairs.
+ // This method shows the images scaled for a size, unless the cells were
+ // resized again since they were requested
+ private void setIcons(ScaledCardImages.Icons icons, int width, int height) {
 
- private String[] initCardStorage() {
+  if (width != mIconWidth || height != mIconHeight) {
+   return;
+  }
 
-  String[] cardStorage = new String[MAX_NUM_OF_CARDS];
-  String[] firstPair = new String[NUMBER_OF_PAIRS];
-  String[] secondPair = new String[NUMBER_OF_PAIRS];
+  mIcons = icons;
+  updateIcons();
+ }
 
-  firstPair = randomListWithoutRep();
+ // This method gives every cell the current image of the card it shows,
+ // faces up during a peek included
+ private void updateIcons() {
 
-  for (int i = 0; i < NUMBER_OF_PAIRS; i++) {
-   cardStorage[i] = firstPair[i];
+  for (int index = 0; index < mNumOfCards; index++) {
+   int type = mCanvas != null ? mCanvas.getType(index) : mBoard[index]
+     .getType();
+   if (type != EMPTY_CELL_TYPE) {
+    showCard(index, type, false);
+   }
   }
+ }
 
-  Collections.shuffle(Arrays.asList(firstPair));
+ // This method paints the cells, then the heatmap and the hints over them
+ protected void paintChildren(Graphics g) {
+
+  super.paintChildren(g);
+
+  if (mIsHeatmapShown) {
+   // Only the cells repainted, e.g. the one of an animation frame
+   Rectangle clip = g.getClipBounds();
+   int firstRow = 0;
+   int lastRow = mNumOfRows - 1;
+   int firstColumn = 0;
+   int lastColumn = mNumOfColumns - 1;
+   if (clip != null) {
+    firstRow = findCell(mNumOfRows, mNumOfColumns, clip.y, true);
+    lastRow = findCell(mNumOfRows, mNumOfColumns, clip.y + clip.height - 1,
+      true);
+    firstColumn = findCell(mNumOfColumns, 1, clip.x, false);
+    lastColumn = findCell(mNumOfColumns, 1, clip.x + clip.width - 1, false);
+   }
 
-  for (int j = 0; j < NUMBER_OF_PAIRS; j++) {
-   secondPair[j] = firstPair[j];
+   for (int row = firstRow; row <= lastRow; row++) {
+    for (int column = firstColumn; column <= lastColumn; column++) {
+     int index = row * mNumOfColumns + column;
+     float rate = mRecallStats.getLapseRate(index);
+     if (rate > 0) {
+      Rectangle cell = getCellBounds(index);
+      g.setColor(HEATMAP_COLORS[Math.round(rate * HEATMAP_MAX_ALPHA)]);
+      g.fillRect(cell.x, cell.y, cell.width, cell.height);
+     }
+    }
+   }
   }
 
-  for (int k = NUMBER_OF_PAIRS; k < MAX_NUM_OF_CARDS; k++) {
-   cardStorage[k] = secondPair[k - NUMBER_OF_PAIRS];
+  if (mIsHintShown && mHintFirst != Game.NO_CARD) {
+   Graphics2D g2 = (Graphics2D) g.create();
+   g2.setColor(HINT_COLOR);
+   g2.setStroke(new BasicStroke(HINT_WIDTH));
+   paintHint(g2, mHintFirst);
+   paintHint(g2, mHintSecond);
+   g2.dispose();
   }
-
-  return cardStorage;
  }
 
- // this method is to generate a list of NUMBER_OF_PAIRS images (types)
- // without repetition
-
- private String[] randomListWithoutRep() {
+ // This method outlines a hinted card, if any
+ private void paintHint(Graphics2D g2, int index) {
 
-  String[] generatedArray = new String[NUMBER_OF_PAIRS];
-  ArrayList<String> generated = new ArrayList<String>();
+  if (index != Game.NO_CARD) {
+   Rectangle cell = getCellBounds(index);
+   g2.drawRect(cell.x + HINT_WIDTH / 2, cell.y + HINT_WIDTH / 2, cell.width
+     - HINT_WIDTH, cell.height - HINT_WIDTH);
+  }
+ }
 
-  for (int i = 0; i < NUMBER_OF_PAIRS; i++) {
-   while (true) {
-    String next = generateRandomImageFilename(MAX_NUM_OF_CARDS,
-      MIN_NUM_OF_CARDS);
+ // This method follows a game just dealt, restarted or restored
+ private void dealKnownCards() {
 
-    if (!generated.contains(next)) {
-     generated.add(next);
-     generatedArray[i] = generated.get(i);
-     break; // breaks back to "for" loop
-    }
-   } // inner loop - for every random card, ensure its not already
-    // existing
-  } // outer loop - we want NUMBER_OF_PAIRS different pairs
-
-  return generatedArray;
+  if (mKnownCards != null) {
+   mKnownCards.deal(mGame);
+   updateHint();
+   firePropertyChange(KNOWN_CARDS_PROPERTY, null, mKnownCards);
+  }
  }
 
- // This method gets the location of a cell on the board and returns that
- // specific point
- private Point getCellLocation(Cell aCell) {
+ // This method reads the hint after a change of the known cards, only the
+ // cells outlined before or now are repainted
+ private void updateHint() {
+
+  int first = Game.NO_CARD;
+  int second = Game.NO_CARD;
+  if (mIsHintShown) {
+   first = mKnownCards.getHint();
+   // Both cards of a known pair, only the partner of the selected card
+   if (first != Game.NO_CARD && mGame.getSelectedCard() == Game.NO_CARD) {
+    second = mKnownCards.getPartner(first);
+   }
+  }
 
-  if (aCell == null) {
-   error("getCellLocation(Cell) received null", true);
-   return null;
+  if (first == mHintFirst && second == mHintSecond) {
+   return;
   }
 
-  Point p = new Point();
+  repaintCell(mHintFirst);
+  repaintCell(mHintSecond);
+  mHintFirst = first;
+  mHintSecond = second;
+  repaintCell(mHintFirst);
+  repaintCell(mHintSecond);
+ }
 
-  for (int column = 0; column < NUMBER_OF_ROWS; column++) {
+ // This method finds the first row, or column, whose cells end past a
+ // coordinate, the last one if none does. The cells are in order in either
+ // view, so a binary search over their bounds finds it.
+ private int findCell(int count, int stride, int coordinate,
+   boolean isVertical) {
+
+  int low = 0;
+  int high = count - 1;
+  while (low < high) {
+   int middle = (low + high) >>> 1;
+   Rectangle cell = getCellBounds(middle * stride);
+   int end = isVertical ? cell.y + cell.height : cell.x + cell.width;
+   if (end > coordinate) {
+    high = middle;
+   } else {
+    low = middle + 1;
+   }
+  }
+  return low;
+ }
 
-   for (int row = 0; row < NUMBER_OF_COLUMNS; row++) {
+ // This method repaints the area of a cell, if any
+ private void repaintCell(int index) {
 
-    if (mBoard[column][row] == aCell) {
-     p.setLocation(column, row);
-     return p;
-    }
-   } // row for
-  } // column for
-  return null;
+  if (index != Game.NO_CARD) {
+   Rectangle cell = getCellBounds(index);
+   repaint(cell.x, cell.y, cell.width, cell.height);
+  }
  }
 
- // This methods checks if 2 cards are the same
- private boolean sameCellPosition(Point firstCell, Point secondCell) {
+ // This method gets the area of a card on the board, in either view
+ private Rectangle getCellBounds(int index) {
 
-  if (firstCell == null || secondCell == null) {
-   if (secondCell == firstCell) {
-    // They're equal if both are null
-    return true;
-   }
+  if (mCanvas != null) {
+   mCanvas.getCellBounds(index, mCellBounds);
+   mCellBounds.translate(mCanvas.getX(), mCanvas.getY());
+  } else {
+   mBoard[index].getBounds(mCellBounds);
+  }
+  return mCellBounds;
+ }
 
-   if (firstCell == null) {
-    error("sameCellPosition(Point, Point) received (null, ??)",
-      true);
-   }
-   if (secondCell == null) {
-    error("sameCellPosition(Point, Point) received (??, null)",
-      true);
-   }
+ // This method records that a card changed state and needs a new image
+ private void markDirty(int index) {
 
-   return false;
+  if (!mIsDirty[index]) {
+   mIsDirty[index] = true;
+   mDirtyCells[mNumOfDirtyCells++] = index;
   }
+ }
+
+ // This method records that every card needs a new image
+ private void markAllDirty() {
 
-  if (firstCell.equals(secondCell)) {
-   return true;
+  for (int index = 0; index < mNumOfCards; index++) {
+   markDirty(index);
   }
-  return false;
  }
 
- // This method check if any 2 selected cards are the same so it replaces
- // them with a blank cell or if they're different it flips them back,
- // it also check if the board is solved
- private void setSelectedCards(Cell firstCell, Cell secondCell) {
+ // This method deals the cards of the current seed, every image is laid in
+ // pairs. When the board has more pairs than there are images, the images
+ // are used more than once.
+ private int[] initCardStorage() {
 
-  if (firstCell == null || secondCell == null) {
+  return new Dealer(mSeed, mFirstFace, mNumOfFaces).deal(mNumOfCards);
+ }
 
-   if (firstCell == null) {
-    error("setSelectedCards(Cell, Cell) received (null, ??)", true);
-   }
-   if (secondCell == null) {
-    error("setSelectedCards(Cell, Cell) received (??, null)", true);
+ // This method checks that every card of the game is a face of the deck,
+ // e.g. of a game restored from a snapshot
+ private boolean isDealtFromDeck() {
+
+  for (int index = 0; index < mNumOfCards; index++) {
+   int type = mGame.getType(index);
+   if (type < mFirstFace || type - mFirstFace >= mNumOfFaces) {
+    return false;
    }
-   return;
   }
+  return true;
+ }
 
-  if (firstCell.sameType(secondCell)) {
+ // This method gets the index of a cell on the board, or -1 if the cell
+ // belongs to another board
+ private int getCellIndex(Cell aCell) {
 
-   firstCell.setMatched(true);
-   secondCell.setMatched(true);
-   firstCell.setSelected(false);
-   secondCell.setSelected(false);
-   showImage(getCellLocation(secondCell).x,
-     getCellLocation(secondCell).y);
-   peek();
-   numOfMatchedPairs++;
-   finalMessage();
-  } else {
+  if (aCell == null) {
+   error("getCellIndex(Cell) received null", true);
+   return -1;
+  }
 
-   firstCell.setMatched(false);
-   secondCell.setMatched(false);
-   firstCell.setSelected(false);
-   secondCell.setSelected(false);
-   showImage(getCellLocation(secondCell).x,
-     getCellLocation(secondCell).y);
-   peek();
-   numOfFailedAttempts++;
+  int index = aCell.getIndex();
+
+  if (mBoard == null || index < 0 || index >= mNumOfCards
+    || mBoard[index] != aCell) {
+   return -1;
   }
-  resetSelectedCards();
+
+  return index;
  }
 
- // This method checks if a selected card is valid, the user isn't allowed to
- // select blank cells again
- private boolean isCardValid(Cell aCard) {
+ // This method flips back the pair the game just resolved once the user had
+ // time to see it, and checks if the board is solved
+ private void setSelectedCards(int firstCard, int secondCard, boolean matched) {
 
-  if (aCard == null) {
-   error("isCardValid(Cell) received null", false);
-   return false;
+  markDirty(firstCard);
+  markDirty(secondCard);
+  peek();
+
+  if (matched && isSolved()) {
+   rank();
+   finalMessage();
   }
+ }
 
-  if (!aCard.isEmpty()) {
-   return true;
-  } else {
-   return false;
+ // This method records the solved game on the leaderboard, if there is one
+ private void rank() {
+
+  if (mLeaderboard == null) {
+   return;
   }
 
+  int numOfFailedAttempts = mGame.getNumOfFailedAttempts();
+  mLeaderboard.record(mNumOfCards, numOfFailedAttempts,
+    System.currentTimeMillis() - mGameStart, mSeed);
+  mRank = mLeaderboard.getRank(mNumOfCards, numOfFailedAttempts);
+  mPercentile = mLeaderboard.getPercentile(mNumOfCards,
+    numOfFailedAttempts);
  }
 
  // This method displays the results when the game is solved
  private void finalMessage() {
 
-  @SuppressWarnings("serial")
-  // Anonymous class are not to be serialized
-  Action showImagesAction = new AbstractAction() {
+  if (mResultsTimeout != null) {
+   mResultsTimeout.cancel();
+  }
+  mResultsTimeout = TimerWheel.getDefault().schedule(mResultsTask,
+    VISIBLE_DELAY);
+ }
+
+ private final Runnable mResultsTask = new Runnable() {
+  public void run() {
+   // No dialog without a display, e.g. when the board is benchmarked
+   if (isSolved() && !GraphicsEnvironment.isHeadless()) {
 
-   public void actionPerformed(ActionEvent e) {
-    if (isSolved()) {
+    Float numeralScore = mGame.getErrorPercentage();
+    String textualScore = numeralScore.toString();
+    String details = "";
+    Double par = mPar != null ? mPar.getNow(null) : null;
 
-     Float numeralScore = (((float) numOfFailedAttempts) / ((float) MAX_NUM_OF_CARDS)) * 100;
-     String textualScore = numeralScore.toString();
+    if (par != null) {
+     details += String.format(Locale.ROOT,
+       "\n Par: %.1f failed attempts, you: %+.1f", par,
+       mGame.getNumOfFailedAttempts() - par);
+    }
 
-     JOptionPane.showMessageDialog(null,
-       "Solved!! Your results:\n" + " Failed Attempts: "
-         + numOfFailedAttempts
-         + "\n Error percentage : " + textualScore
-         + " %", "RESULTS",
-       JOptionPane.INFORMATION_MESSAGE);
-    } // if solved
-   } // actionPerformed()
-  }; // class implementation
+    if (mLeaderboard != null) {
+     details += "\n Rank: " + mRank + " of "
+       + mLeaderboard.getNumOfGames(mNumOfCards) + "\n Better than "
+       + String.format(Locale.ROOT, "%.1f", mPercentile)
+       + " % of the games";
+    }
 
-  Timer timer = new Timer(VISIBLE_DELAY, showImagesAction);
-  timer.setRepeats(false);
-  timer.start();
+    JOptionPane.showMessageDialog(null, "Solved!! Your results:\n"
+      + " Failed Attempts: " + mGame.getNumOfFailedAttempts()
+      + "\n Error percentage : " + textualScore + " %" + details,
+      "RESULTS", JOptionPane.INFORMATION_MESSAGE);
+   } // if solved
+  } // run()
+ };
 
- }
+ // This method cancels the delayed tasks of the previous game
+ private void cancelTimers() {
 
- // this method resets all the matched images, used in the replay method and
- // new game
- private void resetMatchedImages() {
-  for (int row = 0; row < NUMBER_OF_ROWS; row++) {
-   for (int column = 0; column < NUMBER_OF_COLUMNS; column++) {
-    if (mBoard[row][column].isMatched()) {
-     mBoard[row][column].setMatched(false);
-    } // if
-   } // for column
-  } // for row
+  if (mSettleTimeout != null) {
+   mSettleTimeout.cancel();
+   mSettleTimeout = null;
+  }
+  if (mResultsTimeout != null) {
+   mResultsTimeout.cancel();
+   mResultsTimeout = null;
+  }
  }
 
  ////////////////////////////////////////////////////////////////////////////
  // Static methods
  ////////////////////////////////////////////////////////////////////////////
 
+ // This method creates the heatmap colors, indexed by alpha
+ private static Color[] createHeatmapColors() {
+
+  Color[] colors = new Color[HEATMAP_MAX_ALPHA + 1];
+  for (int alpha = 0; alpha <= HEATMAP_MAX_ALPHA; alpha++) {
+   colors[alpha] = new Color(255, 0, 0, alpha);
+  }
+  return colors;
+ }
+
  /**
   * Error reporting.
   */
@@ -582,28 +1369,4 @@ public class Board extends JPanel implements ActionListener {
   }
  }
 
- // This method resets the number of selected cards to 0 after 2 cards have
- // been chosen and checked
- private static void resetSelectedCards() {
-  selectedCards = 0;
- }
-
- // This method resets the number of matched pairs on the board
- private static void resetNumMatchedCards() {
-  numOfMatchedPairs = 0;
- }
-
- // This method resets the number of failed attempts
- private static void resetFailedAttempts() {
-  numOfFailedAttempts = 0;
- }
-
- // This method resets the parameters of the board
- // used when replaying or when starting a new game
- private static void resetBoardParam() {
-
-  resetFailedAttempts();
-  resetNumMatchedCards();
- }
-
 }
@@ -0,0 +1,464 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/**
+ * The cards of a Board painted by one component, in place of a Cell per
+ * card: boards of tens of thousands of cards stay cheap to lay out and to
+ * repaint. The cells are laid on a grid computed from the size of the
+ * component, so the cell under the mouse is found arithmetically.
+ *
+ * The board is kept drawn in a buffer, in video memory when the display
+ * allows it. A change of card only redraws that cell into the buffer and
+ * asks Swing to repaint its area, which copies the area from the buffer; the
+ * whole buffer is drawn again only when it is created, resized or its
+ * contents are lost.
+ */
+public class BoardCanvas extends JComponent {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "BoardCanvas: ";
+
+ // Serial ID
+ private static final long serialVersionUID = 1L;
+
+ // A cell not dealt yet, as on the Board
+ private static final int EMPTY_CELL_TYPE = CardImages.HIDDEN_CARD_TYPE - 1;
+ private static final int NO_CELL = -1;
+
+ // Space between the cells, and around the card image of a cell
+ private static final int CELL_GAP = 1;
+ private static final Color CELL_COLOR = Color.WHITE;
+ private static final Color CARD_BORDER_COLOR = Color.LIGHT_GRAY;
+
+ // Preferred size, the cells shrink on large boards
+ private static final int PREFERRED_CELL_SIZE = 120;
+ private static final int MIN_PREFERRED_CELL_SIZE = 6;
+ private static final int MAX_PREFERRED_SIZE = 900;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfRows;
+ private final int mNumOfColumns;
+ private final int mNumOfCards;
+
+ // Called with the index of a clicked cell
+ private final IntConsumer mFlipListener;
+
+ // The type and image of each cell, as a Cell holds them, and the image
+ // before the last change of type
+ private final int[] mTypes;
+ private final Image[] mImages;
+ private final Image[] mFromImages;
+
+ // The animations of the board, if animated
+ private FlipTimeline mTimeline = null;
+
+ // Cells changed since they were last drawn into the buffer
+ private final boolean[] mIsDirty;
+ private final int[] mDirtyCells;
+ private int mNumOfDirtyCells = 0;
+
+ // The board as last drawn, a VolatileImage or a BufferedImage without a
+ // display
+ private Image mBuffer = null;
+
+ // The cell pressed by the mouse, a click is a release on the same cell
+ private int mPressedCell = NO_CELL;
+
+ // The area of the cell being drawn
+ private final Rectangle mCellBounds = new Rectangle();
+
+ // Refresh statistics
+ private long mNumOfDrawnCells = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates the cells of a board, none is dealt yet.
+  *
+  * @param aNumOfRows
+  *            is the number of rows
+  * @param aNumOfColumns
+  *            is the number of columns
+  * @param aFlipListener
+  *            is called with the index of each cell clicked
+  */
+ public BoardCanvas(int aNumOfRows, int aNumOfColumns,
+   IntConsumer aFlipListener) {
+
+  super();
+
+  if (aNumOfRows < 1 || aNumOfColumns < 1 || aFlipListener == null) {
+   error("BoardCanvas(int, int, IntConsumer) reported \"Invalid board\"",
+     true);
+  }
+
+  mNumOfRows = aNumOfRows;
+  mNumOfColumns = aNumOfColumns;
+  mNumOfCards = aNumOfRows * aNumOfColumns;
+  mFlipListener = aFlipListener;
+
+  mTypes = new int[mNumOfCards];
+  Arrays.fill(mTypes, EMPTY_CELL_TYPE);
+  mImages = new Image[mNumOfCards];
+  mFromImages = new Image[mNumOfCards];
+  mIsDirty = new boolean[mNumOfCards];
+  mDirtyCells = new int[mNumOfCards];
+
+  int cellSize = Math.max(MIN_PREFERRED_CELL_SIZE, Math.min(
+    PREFERRED_CELL_SIZE,
+    MAX_PREFERRED_SIZE / Math.max(aNumOfRows, aNumOfColumns)));
+  setPreferredSize(new Dimension(aNumOfColumns * cellSize, aNumOfRows
+    * cellSize));
+  setOpaque(true);
+
+  addMouseListener(mouseListener);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method shows a card in a cell. The image it had is kept for the
+  * animation of the change, if any.
+  *
+  * @param anIndex
+  *            is the index of the cell
+  * @param aType
+  *            is the card type shown
+  * @param anIcon
+  *            is its image, drawn to fit the cell
+  */
+ public void setCard(int anIndex, int aType, ImageIcon anIcon) {
+
+  Image image = anIcon != null ? anIcon.getImage() : null;
+  if (mTypes[anIndex] == aType && mImages[anIndex] == image) {
+   return;
+  }
+
+  if (mTypes[anIndex] != aType) {
+   mFromImages[anIndex] = mImages[anIndex];
+  }
+  mTypes[anIndex] = aType;
+  mImages[anIndex] = image;
+  repaintCard(anIndex);
+ }
+
+ /**
+  * This method draws a cell again, e.g. on a frame of its animation.
+  */
+ public void repaintCard(int anIndex) {
+
+  markDirty(anIndex);
+  getCellBounds(anIndex, mCellBounds);
+  repaint(mCellBounds.x, mCellBounds.y, mCellBounds.width,
+    mCellBounds.height);
+ }
+
+ /**
+  * This method draws the cards from the animations of the board, or stops
+  * it.
+  *
+  * @param aTimeline
+  *            is the timeline of the board, or null
+  */
+ public void setTimeline(FlipTimeline aTimeline) {
+
+  mTimeline = aTimeline;
+  markAllDirty();
+  repaint();
+ }
+
+ /**
+  * This method gets the card type shown in a cell.
+  */
+ public int getType(int anIndex) {
+
+  return mTypes[anIndex];
+ }
+
+ /**
+  * This method gets the cell at a point of the component.
+  *
+  * @return the index of the cell, or -1 if the point is off the board
+  */
+ public int getCellAt(int x, int y) {
+
+  int width = getWidth();
+  int height = getHeight();
+  if (x < 0 || y < 0 || x >= width || y >= height) {
+   return NO_CELL;
+  }
+
+  // The cells start at column * width / columns, rounded down
+  int column = (int) ((long) x * mNumOfColumns / width);
+  if ((long) (column + 1) * width / mNumOfColumns <= x) {
+   column++;
+  }
+  int row = (int) ((long) y * mNumOfRows / height);
+  if ((long) (row + 1) * height / mNumOfRows <= y) {
+   row++;
+  }
+  return row * mNumOfColumns + column;
+ }
+
+ /**
+  * This method gets the area of a cell in the component.
+  *
+  * @param anIndex
+  *            is the index of the cell
+  * @param aBounds
+  *            receives the area
+  * @return aBounds
+  */
+ public Rectangle getCellBounds(int anIndex, Rectangle aBounds) {
+
+  int row = anIndex / mNumOfColumns;
+  int column = anIndex % mNumOfColumns;
+  int width = getWidth();
+  int height = getHeight();
+
+  int x = (int) ((long) column * width / mNumOfColumns);
+  int y = (int) ((long) row * height / mNumOfRows);
+  int right = (int) ((long) (column + 1) * width / mNumOfColumns);
+  int bottom = (int) ((long) (row + 1) * height / mNumOfRows);
+  aBounds.setBounds(x, y, right - x, bottom - y);
+  return aBounds;
+ }
+
+ /**
+  * This method gets the width available for a card image, the one of the
+  * narrowest cell.
+  */
+ public int getImageWidth() {
+
+  return getWidth() / mNumOfColumns - 2 * CELL_GAP;
+ }
+
+ /**
+  * This method gets the height available for a card image, the one of the
+  * shortest cell.
+  */
+ public int getImageHeight() {
+
+  return getHeight() / mNumOfRows - 2 * CELL_GAP;
+ }
+
+ /**
+  * This method gets the number of cells drawn into the buffer so far.
+  */
+ public long getNumOfDrawnCells() {
+
+  return mNumOfDrawnCells;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Listeners
+ ////////////////////////////////////////////////////////////////////////////
+
+ private MouseListener mouseListener = new MouseAdapter() {
+  public void mousePressed(MouseEvent e) {
+   mPressedCell = SwingUtilities.isLeftMouseButton(e) ? getCellAt(e.getX(),
+     e.getY()) : NO_CELL;
+  }
+
+  public void mouseReleased(MouseEvent e) {
+   int pressed = mPressedCell;
+   mPressedCell = NO_CELL;
+   if (pressed != NO_CELL && pressed == getCellAt(e.getX(), e.getY())) {
+    mFlipListener.accept(pressed);
+   }
+  }
+ };
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method draws the changed cells into the buffer, then copies the
+ // area being repainted from it
+ protected void paintComponent(Graphics g) {
+
+  int width = getWidth();
+  int height = getHeight();
+  if (width <= 0 || height <= 0) {
+   return;
+  }
+
+  do {
+   Graphics2D buffer = prepareBuffer(width, height);
+   drawDirtyCells(buffer);
+   buffer.dispose();
+   g.drawImage(mBuffer, 0, 0, null);
+  } while (mBuffer instanceof VolatileImage
+    && ((VolatileImage) mBuffer).contentsLost());
+ }
+
+ // This method gets the buffer ready to be drawn into, every cell is dirty
+ // if it was created or its contents were lost
+ private Graphics2D prepareBuffer(int width, int height) {
+
+  boolean isNew = mBuffer == null || mBuffer.getWidth(null) != width
+    || mBuffer.getHeight(null) != height;
+
+  if (!isNew && mBuffer instanceof VolatileImage) {
+   int state = ((VolatileImage) mBuffer).validate(getGraphicsConfiguration());
+   if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+    isNew = true;
+   } else if (state == VolatileImage.IMAGE_RESTORED) {
+    markAllDirty();
+   }
+  }
+
+  if (isNew) {
+   if (mBuffer != null) {
+    mBuffer.flush();
+   }
+   mBuffer = createBuffer(width, height);
+   markAllDirty();
+  }
+
+  Graphics2D buffer = (Graphics2D) mBuffer.getGraphics();
+  buffer.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+  if (isNew) {
+   // The gaps between the cells
+   buffer.setColor(getBackground() != null ? getBackground() : CELL_COLOR);
+   buffer.fillRect(0, 0, width, height);
+  }
+  return buffer;
+ }
+
+ // This method creates the buffer in video memory if the display allows it
+ private Image createBuffer(int width, int height) {
+
+  GraphicsConfiguration configuration = getGraphicsConfiguration();
+  if (configuration != null) {
+   VolatileImage image = configuration.createCompatibleVolatileImage(width,
+     height);
+   if (image != null) {
+    return image;
+   }
+  }
+  return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+ }
+
+ // This method draws the cells that changed into the buffer
+ private void drawDirtyCells(Graphics2D buffer) {
+
+  int count = mNumOfDirtyCells;
+
+  for (int i = 0; i < count; i++) {
+   int index = mDirtyCells[i];
+   mIsDirty[index] = false;
+   drawCell(buffer, index);
+  }
+
+  mNumOfDirtyCells = 0;
+  mNumOfDrawnCells += count;
+ }
+
+ // This method draws the card of a cell, its image fitted and centered
+ private void drawCell(Graphics2D buffer, int index) {
+
+  Rectangle cell = getCellBounds(index, mCellBounds);
+  buffer.setColor(CELL_COLOR);
+  buffer.fillRect(cell.x, cell.y, cell.width, cell.height);
+
+  Image image = mImages[index];
+  if (image == null || mTypes[index] == EMPTY_CELL_TYPE) {
+   return;
+  }
+
+  int availableWidth = cell.width - 2 * CELL_GAP;
+  int availableHeight = cell.height - 2 * CELL_GAP;
+  int width = image.getWidth(null);
+  int height = image.getHeight(null);
+  if (availableWidth <= 0 || availableHeight <= 0 || width <= 0
+    || height <= 0) {
+   return;
+  }
+
+  // Images scaled to the cells are drawn as they are, others are fitted
+  if (width > availableWidth || height > availableHeight) {
+   if ((long) width * availableHeight > (long) height * availableWidth) {
+    height = (int) Math.max(1, (long) height * availableWidth / width);
+    width = availableWidth;
+   } else {
+    width = (int) Math.max(1, (long) width * availableHeight / height);
+    height = availableHeight;
+   }
+  }
+
+  int x = cell.x + (cell.width - width) / 2;
+  int y = cell.y + (cell.height - height) / 2;
+  int kind = mTimeline != null ? mTimeline.getKind(index) : FlipTimeline.NONE;
+  if (kind != FlipTimeline.NONE) {
+   FlipTimeline.paint(buffer, mFromImages[index], image, kind,
+     mTimeline.getProgress(index), x, y, width, height);
+   return;
+  }
+
+  buffer.drawImage(image, x, y, width, height, null);
+  buffer.setColor(CARD_BORDER_COLOR);
+  buffer.drawRect(x - CELL_GAP, y - CELL_GAP, width + 2 * CELL_GAP - 1,
+    height + 2 * CELL_GAP - 1);
+ }
+
+ // This method records that a cell needs to be drawn again
+ private void markDirty(int index) {
+
+  if (!mIsDirty[index]) {
+   mIsDirty[index] = true;
+   mDirtyCells[mNumOfDirtyCells++] = index;
+  }
+ }
+
+ // This method records that every cell needs to be drawn again
+ private void markAllDirty() {
+
+  for (int index = 0; index < mNumOfCards; index++) {
+   markDirty(index);
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,588 @@
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.swing.ButtonModel;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+
+/**
+ * A load generator for the Swing side of the game. It creates many boards,
+ * each played by a Player bot, and clicks their cells on the event dispatch
+ * thread: a flip is a task posted to the event queue that chooses a card,
+ * presses and releases the cell's button model, as a mouse click does, and
+ * tells the bot what it saw. On boards of the painted view the press and
+ * release are mouse events over the card. The boards are laid out but never
+ * shown, so it runs headless on a machine without a display: a
+ * RepaintManager stands in for the screen, it collects the areas that asked
+ * to be repainted and paints them into an offscreen image at a frame rate,
+ * as Swing would.
+ *
+ * It plays a step per flip rate. At a rate the flips are posted on a fixed
+ * schedule whatever the queue holds, and the latency of a flip runs from the
+ * time it was due to the end of its click, so a queue that backs up shows
+ * in the latencies. At rate 0 every bot posts its next flip once the last
+ * one is done, which finds the most flips the event dispatch thread takes.
+ * Each step prints the flips per second, the flips waiting in the queue and
+ * the percentiles of the flip latency.
+ */
+public class BoardLoadDriver {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "BoardLoadDriver: ";
+
+ private static final int DEFAULT_NUMBER_OF_BOARDS = 16;
+ private static final String DEFAULT_SIZE = "4x6";
+ private static final String DEFAULT_MODEL = "perfect";
+ private static final String DEFAULT_RATES = "1000,10000,100000,0";
+ private static final int DEFAULT_DURATION = 5;
+ private static final int DEFAULT_WARMUP = 1;
+ private static final int DEFAULT_FRAME_RATE = 30;
+ private static final long DEFAULT_SEED = 2012;
+ private static final String CELL_VIEW = "cells";
+ private static final String PAINTED_VIEW = "painted";
+
+ // Size of a cell in the offscreen frames
+ private static final int DEFAULT_CELL_SIZE = 48;
+ private static final int BOARD_BORDER_WIDTH = 20;
+
+ // Longest wait of the driver between two samples of the queue
+ private static final long SAMPLE_PERIOD = TimeUnit.MILLISECONDS.toNanos(1);
+
+ private static final double[] PERCENTILES = { 0.50, 0.90, 0.99 };
+ // A step keeps up if it plays this share of the flips it was given, and
+ // 99% of its flips are done within this many nanoseconds
+ private static final double KEEP_UP_RATIO = 0.95;
+ private static final long LATENCY_BUDGET = TimeUnit.MILLISECONDS
+   .toNanos(50);
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfRows;
+ private final int mNumOfColumns;
+ private final Bot[] mBots;
+ private final OffscreenRepaintManager mRepaintManager;
+
+ // The step being played, the flips of the bots are recorded on the event
+ // dispatch thread
+ private final LatencyHistogram mLatencies = new LatencyHistogram();
+ private final AtomicLong mNumOfDoneFlips = new AtomicLong();
+ private long mNumOfFlips = 0;
+ private long mNumOfGames = 0;
+ private long mNumOfPaints = 0;
+ private long mMeasureStart = 0;
+ private long mMeasureEnd = 0;
+ private volatile boolean mIsClosedLoop = false;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates boards and their bots, on the event dispatch thread.
+  *
+  * @param aNumOfBoards
+  *            is the number of boards
+  * @param aNumOfRows
+  *            is the number of rows of the boards
+  * @param aNumOfColumns
+  *            is the number of columns of the boards
+  * @param aView
+  *            is Board.CELL_VIEW or Board.PAINTED_VIEW
+  * @param aCellSize
+  *            is the size of a cell in pixels
+  * @param isAnimated
+  *            is true to animate the cards turning over and vanishing
+  * @param aModel
+  *            is the player model of the bots, see Player.create()
+  * @param aSeed
+  *            is the seed of the bots' choices
+  */
+ public BoardLoadDriver(final int aNumOfBoards, int aNumOfRows,
+   int aNumOfColumns, final int aView, int aCellSize,
+   final boolean isAnimated, final String aModel, long aSeed)
+   throws InterruptedException {
+
+  mNumOfRows = aNumOfRows;
+  mNumOfColumns = aNumOfColumns;
+  mBots = new Bot[aNumOfBoards];
+
+  final int width = mNumOfColumns * aCellSize + 2 * BOARD_BORDER_WIDTH;
+  final int height = mNumOfRows * aCellSize + 2 * BOARD_BORDER_WIDTH;
+  mRepaintManager = new OffscreenRepaintManager(width, height);
+
+  final SplittableRandom root = new SplittableRandom(aSeed);
+  runOnEdt(new Runnable() {
+   public void run() {
+    RepaintManager.setCurrentManager(mRepaintManager);
+    for (int i = 0; i < aNumOfBoards; i++) {
+     Player player = Player.create(aModel, root.split());
+     if (player == null) {
+      error("BoardLoadDriver() received an unknown model " + aModel, true);
+     }
+     Board board = new Board(mNumOfRows, mNumOfColumns, aView);
+     board.setAnimated(isAnimated);
+     board.setSize(width, height);
+     board.doLayout();
+     mBots[i] = new Bot(board, player);
+    }
+   }
+  });
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method plays a step of flips and prints its results.
+  *
+  * @param aRate
+  *            is the number of flips posted per second over all the boards,
+  *            or 0 to post the next flip of a bot once the last one is done
+  * @param aFrameRate
+  *            is the number of times per second the repainted components are
+  *            painted, 0 to never paint them
+  * @param aWarmup
+  *            is the time in nanoseconds played before measuring
+  * @param aDuration
+  *            is the time in nanoseconds measured
+  */
+ public void run(long aRate, int aFrameRate, long aWarmup, long aDuration)
+   throws InterruptedException {
+
+  final long start = System.nanoTime();
+  final long end = start + aWarmup + aDuration;
+  runOnEdt(new Runnable() {
+   public void run() {
+    mLatencies.reset();
+    mNumOfFlips = 0;
+    mNumOfGames = 0;
+    mNumOfPaints = 0;
+    mMeasureStart = start + aWarmup;
+    mMeasureEnd = end;
+   }
+  });
+  mIsClosedLoop = aRate == 0;
+
+  // A flip or a frame that never comes is due at the end
+  long flipPeriod = aRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / aRate;
+  long framePeriod = aFrameRate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1)
+    / aFrameRate;
+  long nextFlip = start;
+  long nextFrame = aFrameRate == 0 ? end : start;
+  long numOfPosted = 0;
+  long depthSum = 0;
+  long maxDepth = 0;
+  long numOfSamples = 0;
+  int next = 0;
+
+  mNumOfDoneFlips.set(0);
+  if (mIsClosedLoop) {
+   // Every bot keeps one flip in the queue
+   for (Bot bot : mBots) {
+    bot.post(start);
+   }
+   numOfPosted = mBots.length;
+   nextFlip = end;
+  }
+
+  while (true) {
+   long now = System.nanoTime();
+   if (now - end >= 0) {
+    break;
+   }
+
+   if (now - nextFlip >= 0) {
+    // Behind schedule, the flips due are posted at once
+    mBots[next].post(nextFlip);
+    next = (next + 1) % mBots.length;
+    nextFlip += flipPeriod;
+    numOfPosted++;
+   } else if (now - nextFrame >= 0) {
+    EventQueue.invokeLater(mPaintTask);
+    nextFrame += framePeriod;
+   } else {
+    // Waiting for the next flip or frame, or sampling the queue
+    long depth = mIsClosedLoop ? mBots.length : numOfPosted
+      - mNumOfDoneFlips.get();
+    if (now - start - aWarmup >= 0) {
+     depthSum += depth;
+     maxDepth = Math.max(maxDepth, depth);
+     numOfSamples++;
+    }
+    LockSupport.parkNanos(Math.min(Math.min(nextFlip, nextFrame),
+      Math.min(end, now + SAMPLE_PERIOD)) - now);
+   }
+  }
+
+  // The flips still in the queue are played, those due in the step are
+  // measured
+  mIsClosedLoop = false;
+  runOnEdt(new Runnable() {
+   public void run() {
+   }
+  });
+
+  print(aRate, depthSum / Math.max(1, numOfSamples), maxDepth,
+    aDuration / 1e9);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Bots
+ ////////////////////////////////////////////////////////////////////////////
+
+ // A board and the bot playing it, only used on the event dispatch thread
+ private final class Bot {
+
+  final Board mBoard;
+  final Game mGame;
+  final Player mPlayer;
+  int mFirst = Game.NO_CARD;
+
+  // The buttons of the cells, or the canvas and the center of each card
+  ButtonModel[] mButtons = null;
+  BoardCanvas mCanvas = null;
+  int[] mCenterX = null;
+  int[] mCenterY = null;
+
+  Bot(Board aBoard, Player aPlayer) {
+   mBoard = aBoard;
+   mGame = aBoard.getGame();
+   mPlayer = aPlayer;
+
+   int numOfCards = mGame.getNumOfCards();
+   if (aBoard.getComponent(0) instanceof BoardCanvas) {
+    mCanvas = (BoardCanvas) aBoard.getComponent(0);
+    mCenterX = new int[numOfCards];
+    mCenterY = new int[numOfCards];
+    Rectangle bounds = new Rectangle();
+    for (int index = 0; index < numOfCards; index++) {
+     mCanvas.getCellBounds(index, bounds);
+     mCenterX[index] = (int) bounds.getCenterX();
+     mCenterY[index] = (int) bounds.getCenterY();
+    }
+   } else {
+    mButtons = new ButtonModel[numOfCards];
+    for (int index = 0; index < numOfCards; index++) {
+     mButtons[index] = ((Cell) aBoard.getComponent(index)).getModel();
+    }
+   }
+   aPlayer.reset(numOfCards);
+  }
+
+  // This method clicks a card, as the mouse does
+  void click(int card) {
+
+   if (mCanvas != null) {
+    press(mCanvas, MouseEvent.MOUSE_PRESSED, mCenterX[card], mCenterY[card]);
+    press(mCanvas, MouseEvent.MOUSE_RELEASED, mCenterX[card], mCenterY[card]);
+   } else {
+    BoardLoadDriver.click(mButtons[card]);
+   }
+  }
+
+  // This method posts the next flip, due at a time
+  void post(final long due) {
+   EventQueue.invokeLater(new Runnable() {
+    public void run() {
+     flip(due);
+    }
+   });
+  }
+
+  // This method plays the next flip of the bot
+  void flip(long due) {
+
+   if (mGame.isSolved()) {
+    mBoard.init();
+    mPlayer.reset(mGame.getNumOfCards());
+    mFirst = Game.NO_CARD;
+   }
+
+   int card = mFirst == Game.NO_CARD ? mPlayer.chooseFirst() : mPlayer
+     .chooseSecond(mFirst);
+   click(card);
+   mPlayer.seen(card, mGame.getType(card));
+
+   if (mFirst == Game.NO_CARD) {
+    mFirst = card;
+   } else {
+    if (mGame.isMatched(card)) {
+     mPlayer.pairMatched(mFirst, card);
+     if (mGame.isSolved()) {
+      mNumOfGames++;
+     }
+    }
+    mFirst = Game.NO_CARD;
+   }
+
+   long done = System.nanoTime();
+   mNumOfDoneFlips.incrementAndGet();
+   if (due - mMeasureStart >= 0 && due - mMeasureEnd < 0) {
+    mLatencies.record(done - due);
+   }
+   if (done - mMeasureStart >= 0 && done - mMeasureEnd < 0) {
+    mNumOfFlips++;
+   }
+
+   if (mIsClosedLoop) {
+    post(System.nanoTime());
+   }
+  }
+ }
+
+ // Paints the components repainted since the last frame
+ private final Runnable mPaintTask = new Runnable() {
+  public void run() {
+   int numOfPaints = mRepaintManager.paintDirtyComponents();
+   long now = System.nanoTime();
+   if (now - mMeasureStart >= 0 && now - mMeasureEnd < 0) {
+    mNumOfPaints += numOfPaints;
+   }
+  }
+ };
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Offscreen painting
+ ////////////////////////////////////////////////////////////////////////////
+
+ // A RepaintManager for components that are never shown: a repaint adds its
+ // area to the dirty region of the component, and a frame paints the dirty
+ // regions into an image. The default manager drops the repaints of hidden
+ // components.
+ private static final class OffscreenRepaintManager extends RepaintManager {
+
+  private final BufferedImage mFrame;
+  private Map<JComponent, Rectangle> mDirty = new IdentityHashMap<JComponent, Rectangle>();
+  private Map<JComponent, Rectangle> mPainting = new IdentityHashMap<JComponent, Rectangle>();
+
+  OffscreenRepaintManager(int aWidth, int aHeight) {
+   mFrame = new BufferedImage(aWidth, aHeight, BufferedImage.TYPE_INT_RGB);
+  }
+
+  public synchronized void addDirtyRegion(JComponent aComponent, int x,
+    int y, int w, int h) {
+   Rectangle region = mDirty.get(aComponent);
+   if (region == null) {
+    mDirty.put(aComponent, new Rectangle(x, y, w, h));
+   } else {
+    region.add(new Rectangle(x, y, w, h));
+   }
+  }
+
+  // This method paints the dirty components, it returns how many
+  int paintDirtyComponents() {
+
+   Map<JComponent, Rectangle> painting;
+   synchronized (this) {
+    painting = mDirty;
+    mDirty = mPainting;
+    mPainting = painting;
+   }
+
+   Graphics g = mFrame.getGraphics();
+   try {
+    for (Map.Entry<JComponent, Rectangle> dirty : painting.entrySet()) {
+     JComponent component = dirty.getKey();
+     Rectangle region = dirty.getValue();
+     Graphics componentGraphics = g.create(0, 0, component.getWidth(),
+       component.getHeight());
+     componentGraphics.clipRect(region.x, region.y, region.width,
+       region.height);
+     component.paint(componentGraphics);
+     componentGraphics.dispose();
+    }
+   } finally {
+    g.dispose();
+   }
+
+   int numOfPaints = painting.size();
+   painting.clear();
+   return numOfPaints;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method prints the results of a step, once its flips are played
+ private void print(long rate, long depth, long maxDepth, double seconds) {
+
+  double flipsPerSecond = mNumOfFlips / seconds;
+  boolean keepsUp = (rate == 0 || flipsPerSecond >= KEEP_UP_RATIO * rate)
+    && mLatencies.getValueAtPercentile(PERCENTILES[2]) <= LATENCY_BUDGET;
+
+  StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+    "%10s %12d %12.0f %10.1f %10.0f %9d %9d", rate == 0 ? "max" : Long
+      .toString(rate), mNumOfFlips, flipsPerSecond, mNumOfGames / seconds,
+    mNumOfPaints / seconds, depth, maxDepth));
+  for (double percentile : PERCENTILES) {
+   line.append(String.format(Locale.ROOT, " %9.1f",
+     mLatencies.getValueAtPercentile(percentile) / 1e3));
+  }
+  line.append(String.format(Locale.ROOT, " %9.1f %5s",
+    mLatencies.getMax() / 1e3, keepsUp ? "yes" : "no"));
+
+  System.out.println(line);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Runs the steps and prints the results of each.
+  *
+  * @param args
+  *            - Optional -boards n, -size 4x6, -view cells or painted, -cell
+  *            pixels, -animate, -model perfect, -rates
+  *            1000,10000,100000,0 (flips per second, 0 for as many as the
+  *            event dispatch thread takes), -duration seconds, -warmup
+  *            seconds, -fps frames (0 to never paint) and -seed s.
+  */
+ public static void main(String[] args) throws InterruptedException {
+
+  // The boards are never shown
+  System.setProperty("java.awt.headless", "true");
+
+  int numOfBoards = DEFAULT_NUMBER_OF_BOARDS;
+  String size = DEFAULT_SIZE;
+  String view = CELL_VIEW;
+  int cellSize = DEFAULT_CELL_SIZE;
+  boolean isAnimated = false;
+  String model = DEFAULT_MODEL;
+  String rates = DEFAULT_RATES;
+  int duration = DEFAULT_DURATION;
+  int warmup = DEFAULT_WARMUP;
+  int frameRate = DEFAULT_FRAME_RATE;
+  long seed = DEFAULT_SEED;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-boards".equals(args[i]) && i + 1 < args.length) {
+    numOfBoards = Integer.parseInt(args[++i]);
+   } else if ("-size".equals(args[i]) && i + 1 < args.length) {
+    size = args[++i];
+   } else if ("-view".equals(args[i]) && i + 1 < args.length) {
+    view = args[++i];
+   } else if ("-cell".equals(args[i]) && i + 1 < args.length) {
+    cellSize = Integer.parseInt(args[++i]);
+   } else if ("-animate".equals(args[i])) {
+    isAnimated = true;
+   } else if ("-model".equals(args[i]) && i + 1 < args.length) {
+    model = args[++i];
+   } else if ("-rates".equals(args[i]) && i + 1 < args.length) {
+    rates = args[++i];
+   } else if ("-duration".equals(args[i]) && i + 1 < args.length) {
+    duration = Integer.parseInt(args[++i]);
+   } else if ("-warmup".equals(args[i]) && i + 1 < args.length) {
+    warmup = Integer.parseInt(args[++i]);
+   } else if ("-fps".equals(args[i]) && i + 1 < args.length) {
+    frameRate = Integer.parseInt(args[++i]);
+   } else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+    seed = Long.parseLong(args[++i]);
+   } else {
+    error("main(String[]) received an unknown argument " + args[i], true);
+   }
+  }
+
+  if (numOfBoards < 1 || frameRate < 0 || cellSize < 1) {
+   error("main(String[]) received an invalid number of boards or frames",
+     true);
+  }
+  if (!CELL_VIEW.equals(view) && !PAINTED_VIEW.equals(view)) {
+   error("main(String[]) received an unknown view " + view, true);
+  }
+
+  String[] dimensions = size.split("x");
+  BoardLoadDriver driver = new BoardLoadDriver(numOfBoards,
+    Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+    PAINTED_VIEW.equals(view) ? Board.PAINTED_VIEW : Board.CELL_VIEW,
+    cellSize, isAnimated, model, seed);
+
+  System.out.println(String.format(Locale.ROOT,
+    "%d boards of %s, %s view, %s bots, %d frames/s", numOfBoards, size,
+    view, model, frameRate));
+  System.out.println(String.format(Locale.ROOT,
+    "%10s %12s %12s %10s %10s %9s %9s %9s %9s %9s %9s %5s", "rate",
+    "flips", "flips/s", "games/s", "paints/s", "queue", "max queue",
+    "p50 us", "p90 us", "p99 us", "max us", "ok"));
+
+  for (String rate : rates.split(",")) {
+   driver.run(Long.parseLong(rate.trim()), frameRate,
+     TimeUnit.SECONDS.toNanos(warmup), TimeUnit.SECONDS.toNanos(duration));
+  }
+
+  if (isAnimated) {
+   runOnEdt(new Runnable() {
+    public void run() {
+     System.out.println(String.format(Locale.ROOT,
+       "animation frames %d, dropped %d, over budget %d, mean %.1f us,"
+         + " max %.1f us", FlipTimeline.getNumOfFrames(),
+       FlipTimeline.getNumOfDroppedFrames(),
+       FlipTimeline.getNumOfFramesOverBudget(),
+       FlipTimeline.getMeanFrameTime() / 1e3,
+       FlipTimeline.getMaxFrameTime() / 1e3));
+    }
+   });
+  }
+
+  System.exit(0);
+ }
+
+ // This method presses and releases a button, its model fires the action
+ // as a mouse release over it does
+ private static void click(ButtonModel button) {
+
+  button.setArmed(true);
+  button.setPressed(true);
+  button.setPressed(false);
+  button.setArmed(false);
+ }
+
+ // This method sends a mouse event of the first button over a component
+ private static void press(JComponent component, int id, int x, int y) {
+
+  component.dispatchEvent(new MouseEvent(component, id, System
+    .currentTimeMillis(), id == MouseEvent.MOUSE_PRESSED
+    ? InputEvent.BUTTON1_DOWN_MASK : 0, x, y, 1, false, MouseEvent.BUTTON1));
+ }
+
+ // This method runs a task on the event dispatch thread and waits for it
+ private static void runOnEdt(Runnable task) throws InterruptedException {
+
+  try {
+   EventQueue.invokeAndWait(task);
+  } catch (InvocationTargetException e) {
+   error("runOnEdt(Runnable) reported " + e.getCause(), true);
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
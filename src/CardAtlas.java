@@ -0,0 +1,202 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The card images decoded ahead of time, see AtlasPacker. The atlas is one
+ * file of raw pixels: a header, then the images stacked in a single picture.
+ *
+ * <pre>
+ * int magic, int version, int width, int height, int number of images
+ * per image: int type, int x, int y, int width, int height
+ * width x height int pixels, 0xRRGGBB, row by row
+ * </pre>
+ *
+ * The numbers are big-endian. The file is memory-mapped and its pixels copied
+ * in one pass into a picture that every card image is a sub-image of, so no
+ * image is decoded at runtime. An atlas packed in a jar can't be mapped, it
+ * is read in one pass instead.
+ */
+public final class CardAtlas {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "CardAtlas: ";
+
+ // Header, shared with AtlasPacker
+ static final int MAGIC = 0x4D454D41;
+ static final int VERSION = 2;
+ static final int HEADER_SIZE = 20;
+ static final int ENTRY_SIZE = 20;
+
+ // Where the build puts the atlas, next to the images
+ static final String ATLAS_PATH = "/images/cards.atlas";
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final BufferedImage mAtlas;
+ // Images by type, the faces of the game and the reserved types
+ private final Map<Integer, BufferedImage> mImages = new HashMap<Integer, BufferedImage>();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Reads an atlas from a buffer positioned at its start
+ private CardAtlas(ByteBuffer aBuffer) throws IOException {
+
+  if (aBuffer.remaining() < HEADER_SIZE || aBuffer.getInt(0) != MAGIC
+    || aBuffer.getInt(4) != VERSION) {
+   throw new IOException("Invalid atlas");
+  }
+
+  int width = aBuffer.getInt(8);
+  int height = aBuffer.getInt(12);
+  int numOfImages = aBuffer.getInt(16);
+  int pixels = HEADER_SIZE + numOfImages * ENTRY_SIZE;
+
+  if (width < 1 || height < 1 || numOfImages < 0
+    || (long) width * height * 4 != aBuffer.limit() - (long) pixels) {
+   throw new IOException("Invalid atlas size");
+  }
+
+  mAtlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+  int[] data = ((DataBufferInt) mAtlas.getRaster().getDataBuffer())
+    .getData();
+
+  aBuffer.position(pixels);
+  IntBuffer source = aBuffer.asIntBuffer();
+  source.get(data);
+
+  for (int i = 0; i < numOfImages; i++) {
+   int entry = HEADER_SIZE + i * ENTRY_SIZE;
+   int type = aBuffer.getInt(entry);
+   int x = aBuffer.getInt(entry + 4);
+   int y = aBuffer.getInt(entry + 8);
+   int imageWidth = aBuffer.getInt(entry + 12);
+   int imageHeight = aBuffer.getInt(entry + 16);
+
+   if (type < CardImages.HIDDEN_CARD_TYPE || type > CardImages.MAX_FACE
+     || x < 0 || y < 0 || imageWidth < 1
+     || imageHeight < 1 || x + imageWidth > width
+     || y + imageHeight > height) {
+    throw new IOException("Invalid atlas entry " + i);
+   }
+   mImages.put(type, mAtlas.getSubimage(x, y, imageWidth, imageHeight));
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method opens the atlas built with the game.
+  *
+  * @return the atlas, or null if there is none or it can't be read, the
+  *         images are then decoded one by one
+  */
+ public static CardAtlas open() {
+
+  URL resource = CardAtlas.class.getResource(ATLAS_PATH);
+  if (resource == null) {
+   return null;
+  }
+
+  try {
+   if ("file".equals(resource.getProtocol())) {
+    return new CardAtlas(map(new File(resource.toURI())));
+   }
+   return new CardAtlas(read(resource));
+  } catch (IOException | URISyntaxException | RuntimeException e) {
+   error("open() reported " + e, false);
+   return null;
+  }
+ }
+
+ /**
+  * This method gets the image of a card type.
+  *
+  * @param aType
+  *            is the card type
+  * @return the image, a sub-image of the atlas, or null if the atlas doesn't
+  *         hold that type
+  */
+ public BufferedImage get(int aType) {
+
+  return mImages.get(aType);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method maps an atlas file
+ private static ByteBuffer map(File file) throws IOException {
+
+  FileChannel channel = FileChannel.open(file.toPath(),
+    StandardOpenOption.READ);
+  try {
+   // The mapping stays valid once the file is closed
+   return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+  } finally {
+   channel.close();
+  }
+ }
+
+ // This method reads an atlas that isn't a file, e.g. in a jar
+ private static ByteBuffer read(URL resource) throws IOException {
+
+  URLConnection connection = resource.openConnection();
+  InputStream in = connection.getInputStream();
+  try {
+   ReadableByteChannel channel = Channels.newChannel(in);
+   // A byte more than the length, so that a complete read ends at once
+   ByteBuffer buffer = ByteBuffer.allocate(Math.max(HEADER_SIZE,
+     connection.getContentLength() + 1));
+
+   while (channel.read(buffer) >= 0) {
+    if (!buffer.hasRemaining()) {
+     // The length wasn't known, make room
+     ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+     buffer.flip();
+     larger.put(buffer);
+     buffer = larger;
+    }
+   }
+
+   buffer.flip();
+   return buffer;
+  } finally {
+   in.close();
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,546 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.swing.ImageIcon;
+
+/**
+ * A process-wide cache of the decoded card images. Each card type is resolved
+ * and decoded once, the resulting icon is then shared by every Board.
+ *
+ * Images can be decoded in the background, in parallel on a pool of their
+ * own, so the event dispatch thread shows a placeholder instead of waiting.
+ *
+ * The faces are card types from 0 to 32767, the empty slot and the hidden
+ * card are the negative types EMPTY_CARD_TYPE and HIDDEN_CARD_TYPE. The
+ * faces come with the game, 1 to 24, or from a DeckPack. The faces of a
+ * pack are only kept while a deal holds them, see acquire(int[]), so a deck
+ * of thousands of faces takes the memory of the cards in play.
+ */
+public final class CardImages {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "CardImages: ";
+
+ /**
+  * The card type of an empty slot, where a matched card was.
+  */
+ public static final int EMPTY_CARD_TYPE = -1;
+ /**
+  * The card type of a card face down.
+  */
+ public static final int HIDDEN_CARD_TYPE = -2;
+ /**
+  * The largest face, faces are shorts.
+  */
+ public static final int MAX_FACE = Short.MAX_VALUE;
+
+ // Card types, a slot per type from the hidden card to the largest face
+ private static final int MIN_TYPE = HIDDEN_CARD_TYPE;
+ private static final int NUMBER_OF_SLOTS = MAX_FACE - MIN_TYPE + 1;
+
+ // The faces that come with the game, and the images of the empty slot and
+ // the hidden card after them
+ private static final int DEFAULT_FIRST_FACE = 1;
+ private static final int DEFAULT_NUMBER_OF_FACES = 24;
+ private static final int EMPTY_CARD_IMAGE = 25;
+ private static final int HIDDEN_CARD_IMAGE = 26;
+
+ // Card image file properties
+ private static final String DEFAULT_IMAGE_FILENAME_SUFFIX = ".jpg";
+ private static final String DEFAULT_IMAGE_FILENAME_PREFIX = "img-";
+ private static final String DEFAULT_IMAGE_FOLDER = "/images/";
+ // Size of the card images, and of the placeholder shown while they load
+ private static final int IMAGE_SIZE = 150;
+ private static final Color PLACEHOLDER_COLOR = new Color(0xE8E8E8);
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final AtomicReferenceArray<ImageIcon> sIcons = new AtomicReferenceArray<ImageIcon>(
+   NUMBER_OF_SLOTS);
+ // The decoding of each type, started once by the first request
+ private static final AtomicReferenceArray<CompletableFuture<ImageIcon>> sLoads = new AtomicReferenceArray<CompletableFuture<ImageIcon>>(
+   NUMBER_OF_SLOTS);
+ // The number of dealt cards of each type, see acquire(int[])
+ private static final AtomicIntegerArray sRefs = new AtomicIntegerArray(
+   NUMBER_OF_SLOTS);
+ // The faces, null for the ones of the game
+ private static volatile DeckPack sDeck = null;
+ private static final ForkJoinPool sLoader = new ForkJoinPool(Math.max(1,
+   Runtime.getRuntime().availableProcessors()));
+ private static volatile ImageIcon sPlaceholder = null;
+ // The images decoded at build time, opened by the first decoding
+ private static CardAtlas sAtlas = null;
+ private static boolean sIsAtlasOpened = false;
+ private static final AtomicLong sHits = new AtomicLong();
+ private static final AtomicLong sMisses = new AtomicLong();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Static access only
+ private CardImages() {
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the image of a card type, decoding it the first time
+  * the type is requested.
+  *
+  * @param aType
+  *            is the card type, a face or a reserved type
+  * @return the shared icon of that card type
+  */
+ public static ImageIcon get(int aType) {
+
+  if (!isType(aType)) {
+   error("get(int) reported \"Invalid type code\"", true);
+  }
+
+  ImageIcon anImage = sIcons.get(aType - MIN_TYPE);
+  if (anImage != null) {
+   sHits.incrementAndGet();
+   return anImage;
+  }
+
+  return load(aType, false).join();
+ }
+
+ /**
+  * This method gets the image of a card type if it is decoded already,
+  * without waiting.
+  *
+  * @param aType
+  *            is the card type, a face or a reserved type
+  * @return the shared icon of that card type, or null if it isn't decoded
+  *         yet
+  */
+ public static ImageIcon getIfLoaded(int aType) {
+
+  if (!isType(aType)) {
+   error("getIfLoaded(int) reported \"Invalid type code\"", true);
+  }
+
+  ImageIcon anImage = sIcons.get(aType - MIN_TYPE);
+  if (anImage != null) {
+   sHits.incrementAndGet();
+  }
+  return anImage;
+ }
+
+ /**
+  * This method gets the image of a card type, decoding it in the background
+  * the first time the type is requested.
+  *
+  * @param aType
+  *            is the card type, a face or a reserved type
+  * @return the shared icon of that card type, once it is decoded
+  */
+ public static CompletableFuture<ImageIcon> getAsync(int aType) {
+
+  if (!isType(aType)) {
+   error("getAsync(int) reported \"Invalid type code\"", true);
+  }
+
+  ImageIcon anImage = sIcons.get(aType - MIN_TYPE);
+  if (anImage != null) {
+   sHits.incrementAndGet();
+   return CompletableFuture.completedFuture(anImage);
+  }
+
+  return load(aType, true);
+ }
+
+ /**
+  * This method decodes the images of card types in the background, e.g.
+  * the faces of the next deal.
+  *
+  * @param someTypes
+  *            are the card types, a type can be repeated
+  * @return a future completed once every image is decoded
+  */
+ public static CompletableFuture<Void> preload(int[] someTypes) {
+
+  CompletableFuture<?>[] loads = new CompletableFuture<?>[someTypes.length];
+  int numOfLoads = 0;
+
+  for (int i = 0; i < someTypes.length; i++) {
+   // A deal holds its types in pairs, a repeated type joins its decoding
+   if (isType(someTypes[i])) {
+    loads[numOfLoads++] = getAsync(someTypes[i]);
+   }
+  }
+
+  return CompletableFuture.allOf(numOfLoads == loads.length ? loads
+    : Arrays.copyOf(loads, numOfLoads));
+ }
+
+ /**
+  * This method holds the images of a deal in play, and decodes them in the
+  * background. Each acquire(int[]) is followed by a release(int[]) of the
+  * same types once the deal is over.
+  *
+  * @param someTypes
+  *            are the card types of the deal
+  * @return a future completed once every image is decoded
+  */
+ public static CompletableFuture<Void> acquire(int[] someTypes) {
+
+  for (int aType : someTypes) {
+   if (isType(aType)) {
+    sRefs.incrementAndGet(aType - MIN_TYPE);
+   }
+  }
+  return preload(someTypes);
+ }
+
+ /**
+  * This method lets go of the images of a deal that is over. The faces of
+  * a pack that no deal holds anymore are dropped, with their scaled
+  * images.
+  *
+  * @param someTypes
+  *            are the card types given to acquire(int[])
+  */
+ public static void release(int[] someTypes) {
+
+  DeckPack aDeck = sDeck;
+
+  for (int aType : someTypes) {
+   if (isType(aType) && sRefs.decrementAndGet(aType - MIN_TYPE) == 0
+     && aDeck != null && aDeck.isFace(aType)) {
+    // A deal acquiring it meanwhile decodes it again if it must
+    sLoads.set(aType - MIN_TYPE, null);
+    sIcons.set(aType - MIN_TYPE, null);
+    ScaledCardImages.forget(aType);
+   }
+  }
+ }
+
+ /**
+  * This method deals the faces of a pack from now on, in place of the ones
+  * of the game. It is called before the boards are created.
+  *
+  * @param aDeck
+  *            is the pack, or null for the faces of the game
+  */
+ public static void setDeckPack(DeckPack aDeck) {
+
+  sDeck = aDeck;
+
+  // The faces decoded so far belong to the other deck
+  for (int aType = 0; aType <= MAX_FACE; aType++) {
+   if (sLoads.get(aType - MIN_TYPE) != null) {
+    sLoads.set(aType - MIN_TYPE, null);
+    sIcons.set(aType - MIN_TYPE, null);
+    ScaledCardImages.forget(aType);
+   }
+  }
+ }
+
+ /**
+  * This method gets the pack the faces come from.
+  *
+  * @return the pack, or null if the faces are the ones of the game
+  */
+ public static DeckPack getDeckPack() {
+
+  return sDeck;
+ }
+
+ /**
+  * This method gets the card type of the first face of the deck.
+  */
+ public static int getFirstFace() {
+
+  DeckPack aDeck = sDeck;
+  return aDeck != null ? aDeck.getFirstFace() : DEFAULT_FIRST_FACE;
+ }
+
+ /**
+  * This method gets the number of faces of the deck.
+  */
+ public static int getNumOfFaces() {
+
+  DeckPack aDeck = sDeck;
+  return aDeck != null ? aDeck.getNumOfFaces() : DEFAULT_NUMBER_OF_FACES;
+ }
+
+ /**
+  * This method checks if a card type is a face of the deck.
+  */
+ public static boolean isFace(int aType) {
+
+  DeckPack aDeck = sDeck;
+  return aDeck != null ? aDeck.isFace(aType) : aType >= DEFAULT_FIRST_FACE
+    && aType < DEFAULT_FIRST_FACE + DEFAULT_NUMBER_OF_FACES;
+ }
+
+ /**
+  * This method counts the images decoded and kept.
+  *
+  * @return the number of card types whose image is in memory
+  */
+ public static int getNumOfLoadedImages() {
+
+  int count = 0;
+  for (int slot = 0; slot < NUMBER_OF_SLOTS; slot++) {
+   if (sIcons.get(slot) != null) {
+    count++;
+   }
+  }
+  return count;
+ }
+
+ /**
+  * This method gets the image shown in place of a card whose image isn't
+  * decoded yet. It has the size of the card images, so the board doesn't
+  * change size when they arrive.
+  *
+  * @return the shared placeholder icon
+  */
+ public static ImageIcon getPlaceholder() {
+
+  ImageIcon aPlaceholder = sPlaceholder;
+  if (aPlaceholder == null) {
+   BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE,
+     BufferedImage.TYPE_INT_RGB);
+   Graphics2D graphics = image.createGraphics();
+   graphics.setColor(PLACEHOLDER_COLOR);
+   graphics.fillRect(0, 0, IMAGE_SIZE, IMAGE_SIZE);
+   graphics.dispose();
+
+   // Two threads may both draw it, either one is kept
+   aPlaceholder = new ImageIcon(image);
+   sPlaceholder = aPlaceholder;
+  }
+  return aPlaceholder;
+ }
+
+ /**
+  * This method gets the number of requests served without decoding.
+  *
+  * @return the number of cache hits since startup or the last reset
+  */
+ public static long getHitCount() {
+
+  return sHits.get();
+ }
+
+ /**
+  * This method gets the number of requests that had to decode an image.
+  *
+  * @return the number of cache misses since startup or the last reset
+  */
+ public static long getMissCount() {
+
+  return sMisses.get();
+ }
+
+ /**
+  * This method resets the hit and miss counters, the cached images are kept.
+  */
+ public static void resetCounters() {
+
+  sHits.set(0);
+  sMisses.set(0);
+ }
+
+ /**
+  * This method builds the resource path of the image of a card type.
+  *
+  * @param aType
+  *            is the card type, a face of the game or a reserved type
+  * @return the path of the image, e.g. "/images/img-07.jpg"
+  */
+ public static String getImagePath(int aType) {
+
+  int number = aType;
+  if (aType == EMPTY_CARD_TYPE) {
+   number = EMPTY_CARD_IMAGE;
+  } else if (aType == HIDDEN_CARD_TYPE) {
+   number = HIDDEN_CARD_IMAGE;
+  }
+
+  return DEFAULT_IMAGE_FOLDER + DEFAULT_IMAGE_FILENAME_PREFIX
+    + (number < 10 ? "0" + number : Integer.toString(number))
+    + DEFAULT_IMAGE_FILENAME_SUFFIX;
+ }
+
+ /**
+  * This method gets the card types whose images come with the game: the
+  * faces 1 to 24, the empty slot and the hidden card.
+  *
+  * @return the card types, see getImagePath(int)
+  */
+ public static int[] getBuiltInTypes() {
+
+  int[] types = new int[DEFAULT_NUMBER_OF_FACES + 2];
+  for (int i = 0; i < DEFAULT_NUMBER_OF_FACES; i++) {
+   types[i] = DEFAULT_FIRST_FACE + i;
+  }
+  types[DEFAULT_NUMBER_OF_FACES] = EMPTY_CARD_TYPE;
+  types[DEFAULT_NUMBER_OF_FACES + 1] = HIDDEN_CARD_TYPE;
+  return types;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method starts the decoding of a card type, or joins the one already
+ // started. Only one thread decodes a given type: the caller, or the loader
+ // pool if the decoding is asynchronous.
+ private static CompletableFuture<ImageIcon> load(final int aType,
+   boolean isAsync) {
+
+  CompletableFuture<ImageIcon> loading = sLoads.get(aType - MIN_TYPE);
+  if (loading != null) {
+   return loading;
+  }
+
+  final CompletableFuture<ImageIcon> created = new CompletableFuture<ImageIcon>();
+  if (!sLoads.compareAndSet(aType - MIN_TYPE, null, created)) {
+   // Another caller started it first, or it was dropped meanwhile
+   loading = sLoads.get(aType - MIN_TYPE);
+   return loading != null ? loading : load(aType, isAsync);
+  }
+
+  if (isAsync) {
+   sLoader.execute(new Runnable() {
+    public void run() {
+     complete(aType, created);
+    }
+   });
+  } else {
+   complete(aType, created);
+  }
+  return created;
+ }
+
+ // This method decodes a card type into its future. A decoding that fails
+ // gives the placeholder, like an unreadable face of a pack: the future
+ // never stays pending, so the deal waiting for it is still shown.
+ private static void complete(int aType, CompletableFuture<ImageIcon> aLoad) {
+
+  ImageIcon anImage;
+  try {
+   anImage = decode(aType);
+  } catch (RuntimeException | OutOfMemoryError e) {
+   error("complete(int, CompletableFuture) reported " + e, false);
+   anImage = getPlaceholder();
+   sIcons.set(aType - MIN_TYPE, anImage);
+  }
+  aLoad.complete(anImage);
+  dropIfReleased(aType, aLoad);
+ }
+
+ // This method drops a face of the pack decoded while no deal holds it, e.g.
+ // its deal was over before the decoding finished
+ private static void dropIfReleased(int aType,
+   CompletableFuture<ImageIcon> aLoad) {
+
+  if (!isHeld(aType)) {
+   // A newer decoding of the face is left alone
+   sLoads.compareAndSet(aType - MIN_TYPE, aLoad, null);
+   sIcons.compareAndSet(aType - MIN_TYPE, aLoad.getNow(null), null);
+  }
+ }
+
+ /**
+  * This method checks if the image of a card type is kept, i.e. it is not a
+  * face of the pack or a deal holds it.
+  */
+ static boolean isHeld(int aType) {
+
+  DeckPack aDeck = sDeck;
+  return aDeck == null || !aDeck.isFace(aType)
+    || sRefs.get(aType - MIN_TYPE) > 0;
+ }
+
+ // This method checks that a card type is a face of the deck or a reserved
+ // type
+ private static boolean isType(int aType) {
+
+  return aType == EMPTY_CARD_TYPE || aType == HIDDEN_CARD_TYPE
+    || isFace(aType);
+ }
+
+ // This method decodes the image of a card type. A face of a pack is read
+ // from the pack, the other images are taken from the atlas if the build
+ // made one.
+ private static ImageIcon decode(int aType) {
+
+  DeckPack aDeck = sDeck;
+  if (aDeck != null && aDeck.isFace(aType)) {
+   ImageIcon anImage;
+   try {
+    anImage = new ImageIcon(aDeck.read(aType));
+   } catch (IOException e) {
+    error("decode(int) reported " + e, false);
+    anImage = getPlaceholder();
+   }
+   sMisses.incrementAndGet();
+   sIcons.set(aType - MIN_TYPE, anImage);
+   return anImage;
+  }
+
+  CardAtlas anAtlas = getAtlas();
+  if (anAtlas != null && anAtlas.get(aType) != null) {
+   sMisses.incrementAndGet();
+   ImageIcon anImage = new ImageIcon(anAtlas.get(aType));
+   sIcons.set(aType - MIN_TYPE, anImage);
+   return anImage;
+  }
+
+  URL file = CardImages.class.getResource(getImagePath(aType));
+
+  if (file == null) {
+   error("decode(int) reported error \"File not found\".", true);
+  }
+
+  sMisses.incrementAndGet();
+  ImageIcon anImage = new ImageIcon(file);
+  sIcons.set(aType - MIN_TYPE, anImage);
+
+  return anImage;
+ }
+
+ // This method opens the atlas once
+ private static synchronized CardAtlas getAtlas() {
+
+  if (!sIsAtlasOpened) {
+   sAtlas = CardAtlas.open();
+   sIsAtlasOpened = true;
+  }
+  return sAtlas;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -1,10 +1,17 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Insets;
+
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
 import javax.swing.JButton;
 
 /**
  * A Cell on the Board, which holds the abstracted representation of it's identity in 
  * its getType() / setType() logic.  The identity can either be a hidden card, a card
  * that has an image, or a cell that has been matched and therefore that is considered
- * cleared from the board.
+ * cleared from the board.  The state of the card itself is kept by the Game.
  * @author Yasser Ghamlouch <a href="mailto:yasman8@gmail.com">yasman8@gmail.com</a>
  */
 public class Cell extends JButton {
@@ -19,17 +26,20 @@ public class Cell extends JButton {
  // Serial
  private static final long serialVersionUID = 1L;
  
- // Cell types
- private static final int MAX_TYPE_RANGE = 26;
- private static final int MIN_TYPE_RANGE = 0;
- private static final int EMPTY_CELL_TYPE = 25;
+ // Cell types, from the board's cell not dealt yet to the largest face
+ private static final int MAX_TYPE_RANGE = CardImages.MAX_FACE;
+ private static final int MIN_TYPE_RANGE = CardImages.HIDDEN_CARD_TYPE - 1;
+ private static final int EMPTY_CELL_TYPE = CardImages.EMPTY_CARD_TYPE;
  
  ////////////////////////////////////////////////////////////////////////////
  // Instance variables
  ////////////////////////////////////////////////////////////////////////////
- private boolean mIsSelected = false;
- private boolean mIsMatched = false;
  private int mType = EMPTY_CELL_TYPE;
+ private int mIndex = -1;
+ // The animations of the board, if animated, and the image of the card
+ // before the last change of type
+ private FlipTimeline mTimeline = null;
+ private Icon mFromIcon = null;
 
  ////////////////////////////////////////////////////////////////////////////
  // Constructor
@@ -43,6 +53,14 @@ public class Cell extends JButton {
   mType = aType;
  }
 
+ /**
+  * Creates a cell of the specified type at a given index on its board.
+  */
+ public Cell(int aType, int anIndex) {
+  this(aType);
+  mIndex = anIndex;
+ }
+
  ////////////////////////////////////////////////////////////////////////////
  // Public Interface
  ////////////////////////////////////////////////////////////////////////////
@@ -58,6 +76,16 @@ public class Cell extends JButton {
   return mType;
  }
 
+ /**
+  * This method gets the index of the cell on its board
+  * 
+  * @return the index given at creation, or -1 if the cell isn't on a board
+  */
+ public int getIndex() {
+
+  return mIndex;
+ }
+
  /**
   * Sets the type of this cell. The range is between MIN_TYPE_RANGE
   * and MAX_TYPE_RANGE
@@ -73,24 +101,27 @@ public class Cell extends JButton {
  }
 
  /**
-  * This method checks if 2 cells are of the same type
-  * 
-  * @param other is the second Cell we want to be compared to
-  * @return true if the given Cell shares the same image,
-  * false if the Cells are not related.
+  * Shows a card in this cell. The image it had is kept for the animation
+  * of the change, if any.
+  * @param aType is the card type, see setType(int)
+  * @param anIcon is its image
   */
- public boolean sameType(Cell other) {
-
-  if (other == null) {
-   error("sameType(Cell) received null", false);
-   return false;
+ public void setCard(int aType, Icon anIcon) {
+  if (aType != mType) {
+   mFromIcon = getIcon();
   }
+  setIcon(anIcon);
+  setType(aType);
+ }
 
-  if (this.getType() == other.getType()) {
-   return true;
-  } else {
-   return false;
-  }
+ /**
+  * This method draws the card from the animations of its board, or stops
+  * it.
+  * @param aTimeline is the timeline of the board, or null
+  */
+ public void setTimeline(FlipTimeline aTimeline) {
+  mTimeline = aTimeline;
+  repaint();
  }
 
  /**
@@ -106,61 +137,47 @@ public class Cell extends JButton {
   return true;
  }
 
- /**
-  * This method set the cell to selected
-  * @param selected tells this cell that it is currently under selection
-  * by a player
-  */
- public void setSelected(boolean selected) {
-
-  mIsSelected = selected;
- }
-
- /**
-  * This method sets the cell to matched
-  * 
-  * @param matched tells this cell that it has been matched with its
-  * sister cell by the player.
-  */
- public void setMatched(boolean matched) {
-
-  mIsMatched = matched;
- }
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
 
- /**
-  * This method checks if a cell is selected
-  * 
-  * @return true if the user is currently selecting this cell,
-  * false if the cell has not been selected
-  */
- public boolean isSelected() {
+ // This method paints the button, or while the card is animated its
+ // background and the card turning over or vanishing
+ protected void paintComponent(Graphics g) {
 
-  if (mIsSelected == true) {
-   return true;
+  int kind = mTimeline != null && mIndex >= 0 ? mTimeline.getKind(mIndex)
+    : FlipTimeline.NONE;
+  if (kind == FlipTimeline.NONE) {
+   super.paintComponent(g);
+   return;
   }
 
-  return false;
- }
-
- /**
-  * This method checks if a cell is matched
-  * 
-  * @return true if the cell was previously paired with its sister cell,
-  * false if it has yet to be paired by the player
-  */
- public boolean isMatched() {
+  g.setColor(getBackground());
+  g.fillRect(0, 0, getWidth(), getHeight());
 
-  if (mIsMatched == true) {
-   return true;
-  } else {
-   return false;
+  Icon icon = getIcon();
+  if (icon == null) {
+   return;
   }
+  Insets insets = getInsets();
+  int x = insets.left + (getWidth() - insets.left - insets.right
+    - icon.getIconWidth()) / 2;
+  int y = insets.top + (getHeight() - insets.top - insets.bottom
+    - icon.getIconHeight()) / 2;
+  FlipTimeline.paint((Graphics2D) g, getImage(mFromIcon), getImage(icon),
+    kind, mTimeline.getProgress(mIndex), x, y, icon.getIconWidth(),
+    icon.getIconHeight());
  }
- 
+
  ////////////////////////////////////////////////////////////////////////////
  // Static methods
  ////////////////////////////////////////////////////////////////////////////
 
+ // This method gets the image of an icon, if it has one
+ private static Image getImage(Icon anIcon) {
+  return anIcon instanceof ImageIcon ? ((ImageIcon) anIcon).getImage() : null;
+ }
+
  /**
   * Error reporting.
   */
@@ -0,0 +1,508 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The rules of Game for a game played by several input sources at once, the
+ * mouse, a network peer and a bot say, each flipping cards from its own
+ * thread. Flips and settles take no lock: the selection and the resolution
+ * of a pair are transitions of one state word, made with a compare and set,
+ * and every flip and every accessor is linearizable.
+ *
+ * Only two cards are ever face up, either the selected card or the pair
+ * waiting to be settled, so the state word packs them with the score:
+ *
+ * <pre>
+ * bits  0-15: first card + 1, 0 if none
+ * bits 16-31: second card + 1, 0 if none; without it, the first card is the
+ *             selected card, with it, the two cards are the pending pair
+ * bits 32-46: number of matched pairs
+ * bits 47-63: number of failed attempts, modulo 2^17
+ * </pre>
+ *
+ * The face up and removed cards follow from the word and the matched cards.
+ * A card is marked matched in a bitset before the word leaves its pair, by
+ * whichever thread moves it on, so the number of matched pairs in the word
+ * also stamps the bitset: a word seen again holds the same matched cards.
+ * The exact number of failed attempts is kept next to the word, at most one
+ * behind it, and brought up to date by any thread that sees it behind
+ * before it changes the word; a failed attempt is then counted once, by the
+ * thread that catches the count up.
+ *
+ * A deal is dealt, or restarted, before the game is shared: deal() and
+ * restart() must not run while cards are flipped. MemoryServer plays the
+ * boards its sessions share on it, see SharedBoards.
+ */
+public final class ConcurrentGame {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "ConcurrentGame: ";
+
+ /**
+  * The largest number of cards of a game, the cards + 1 fit in 16 bits.
+  */
+ public static final int MAX_NUMBER_OF_CARDS = 65534;
+
+ // Logic constants
+ private static final int MIN_NUMBER_OF_CARDS = 2;
+ private static final int MIN_TYPE = 0;
+ private static final int MAX_TYPE = Short.MAX_VALUE;
+
+ // Bitsets, 64 cards per word
+ private static final int ADDRESS_BITS_PER_WORD = 6;
+
+ // State word
+ private static final int CARD_BITS = 16;
+ private static final long CARD_MASK = (1L << CARD_BITS) - 1;
+ private static final int SECOND_SHIFT = CARD_BITS;
+ private static final int MATCHED_SHIFT = 2 * CARD_BITS;
+ private static final long MATCHED_MASK = (1L << 15) - 1;
+ private static final int FAILED_SHIFT = 47;
+ private static final int FAILED_MASK = (1 << 17) - 1;
+ private static final long CARDS_MASK = (1L << MATCHED_SHIFT) - 1;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfCards;
+ private final int mNumOfPairs;
+
+ private final short[] mTypes;
+ private final AtomicLongArray mMatched;
+
+ private final AtomicLong mState = new AtomicLong();
+ // The exact number of failed attempts, at most one behind the state word
+ private final AtomicInteger mNumOfFailedAttempts = new AtomicInteger();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a game of the specified number of cards.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of every deal, an even number from 2
+  *            to 65534
+  */
+ public ConcurrentGame(int aNumOfCards) {
+
+  if (aNumOfCards < MIN_NUMBER_OF_CARDS
+    || aNumOfCards > MAX_NUMBER_OF_CARDS || aNumOfCards % 2 != 0) {
+   error("ConcurrentGame(int) reported \"Invalid number of cards\"", true);
+  }
+
+  mNumOfCards = aNumOfCards;
+  mNumOfPairs = aNumOfCards / 2;
+
+  mTypes = new short[aNumOfCards];
+  mMatched = new AtomicLongArray(
+    ((aNumOfCards - 1) >>> ADDRESS_BITS_PER_WORD) + 1);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method lays a new deal of cards face down and resets the score, no
+  * card may be flipped meanwhile.
+  *
+  * @param aTypes
+  *            holds the type of each card, between 0 and 32767, every type
+  *            appearing in pairs
+  */
+ public void deal(int[] aTypes) {
+
+  if (aTypes == null || aTypes.length != mNumOfCards) {
+   error("deal(int[]) reported \"Invalid deal\"", true);
+   return;
+  }
+
+  for (int i = 0; i < mNumOfCards; i++) {
+   if (aTypes[i] < MIN_TYPE || aTypes[i] > MAX_TYPE) {
+    error("deal(int[]) reported \"Invalid type code\"", true);
+   }
+   mTypes[i] = (short) aTypes[i];
+  }
+
+  restart();
+ }
+
+ /**
+  * This method lays the current deal face down again and resets the score,
+  * no card may be flipped meanwhile.
+  */
+ public void restart() {
+
+  for (int i = 0; i < mMatched.length(); i++) {
+   mMatched.set(i, 0L);
+  }
+  mNumOfFailedAttempts.set(0);
+  // Written last, it publishes the deal to the threads reading the word
+  mState.set(0L);
+ }
+
+ /**
+  * This method turns a card face up, with the rules of Game.flip(int): the
+  * first card of a pair stays selected, the second one resolves the pair,
+  * and a resolved pair stays face up until it is settled, either explicitly
+  * or by the next flip. It may be called from any thread.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return one of Game.FLIP_IGNORED, Game.FLIP_FIRST, Game.FLIP_MATCH or
+  *         Game.FLIP_MISMATCH
+  */
+ public int flip(int anIndex) {
+
+  if (anIndex < 0 || anIndex >= mNumOfCards) {
+   error("flip(int) received an invalid index", false);
+   return Game.FLIP_IGNORED;
+  }
+
+  for (;;) {
+   long state = mState.get();
+   if (catchUp(state) < 0) {
+    continue;
+   }
+   int first = getFirst(state);
+   int second = getSecond(state);
+   boolean isPending = second != Game.NO_CARD;
+   markMatched(state);
+
+   // The player isn't allowed to select matched cards or the same card
+   // twice
+   if (isSet(anIndex) || (!isPending && anIndex == first)) {
+    return Game.FLIP_IGNORED;
+   }
+
+   // A pending pair is settled by the flip, the card is then selected
+   long next;
+   int result;
+   if (isPending || first == Game.NO_CARD) {
+    next = (state & ~CARDS_MASK) | (anIndex + 1);
+    result = Game.FLIP_FIRST;
+   } else if (mTypes[first] == mTypes[anIndex]) {
+    next = ((state & ~CARDS_MASK) | (first + 1)
+      | ((long) (anIndex + 1) << SECOND_SHIFT)) + (1L << MATCHED_SHIFT);
+    result = Game.FLIP_MATCH;
+   } else {
+    // The failed attempts are the top bits, they wrap around
+    next = ((state & ~CARDS_MASK) | (first + 1)
+      | ((long) (anIndex + 1) << SECOND_SHIFT)) + (1L << FAILED_SHIFT);
+    result = Game.FLIP_MISMATCH;
+   }
+
+   if (mState.compareAndSet(state, next)) {
+    if (result == Game.FLIP_MISMATCH) {
+     catchUp(next);
+    }
+    return result;
+   }
+  }
+ }
+
+ /**
+  * This method turns the last resolved pair face down, matched cards are
+  * then removed from the board. It may be called from any thread.
+  *
+  * @return true if a pair was face up, false if there was nothing to settle
+  */
+ public boolean settle() {
+
+  for (;;) {
+   long state = mState.get();
+   if (catchUp(state) < 0) {
+    continue;
+   }
+   if (getSecond(state) == Game.NO_CARD) {
+    return false;
+   }
+   markMatched(state);
+
+   if (mState.compareAndSet(state, state & ~CARDS_MASK)) {
+    return true;
+   }
+  }
+ }
+
+ /**
+  * This method gets the type of a card.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return the type of the card, whether it is visible or not
+  */
+ public int getType(int anIndex) {
+
+  return mTypes[anIndex];
+ }
+
+ /**
+  * This method checks if a card is face up.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card is selected or belongs to the pair that was just
+  *         resolved
+  */
+ public boolean isFaceUp(int anIndex) {
+
+  long state = mState.get();
+  return anIndex == getFirst(state) || anIndex == getSecond(state);
+ }
+
+ /**
+  * This method checks if a card is matched.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card was paired with its sister card
+  */
+ public boolean isMatched(int anIndex) {
+
+  // The word first: a pair that left it was marked before
+  long state = mState.get();
+  if (isPendingMatch(state)
+    && (anIndex == getFirst(state) || anIndex == getSecond(state))) {
+   return true;
+  }
+  return isSet(anIndex);
+ }
+
+ /**
+  * This method checks if a card has been removed from the board.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card is matched and was settled
+  */
+ public boolean isRemoved(int anIndex) {
+
+  // The mark first: a marked card that isn't face up anymore was settled
+  if (!isSet(anIndex)) {
+   return false;
+  }
+  long state = mState.get();
+  return anIndex != getFirst(state) && anIndex != getSecond(state);
+ }
+
+ /**
+  * This method gets the card waiting for its partner.
+  *
+  * @return the index of the selected card, or Game.NO_CARD
+  */
+ public int getSelectedCard() {
+
+  long state = mState.get();
+  return getSecond(state) == Game.NO_CARD ? getFirst(state) : Game.NO_CARD;
+ }
+
+ /**
+  * This method gets the first card of the pair that is still face up.
+  *
+  * @return the index of the card, or Game.NO_CARD if there is nothing to
+  *         settle
+  */
+ public int getPendingFirst() {
+
+  long state = mState.get();
+  return getSecond(state) == Game.NO_CARD ? Game.NO_CARD : getFirst(state);
+ }
+
+ /**
+  * This method gets the second card of the pair that is still face up.
+  *
+  * @return the index of the card, or Game.NO_CARD if there is nothing to
+  *         settle
+  */
+ public int getPendingSecond() {
+
+  return getSecond(mState.get());
+ }
+
+ /**
+  * This method gets the number of cards of the deal.
+  *
+  * @return the number of cards
+  */
+ public int getNumOfCards() {
+
+  return mNumOfCards;
+ }
+
+ /**
+  * This method gets the number of pairs of the deal.
+  *
+  * @return the number of pairs
+  */
+ public int getNumOfPairs() {
+
+  return mNumOfPairs;
+ }
+
+ /**
+  * This method gets the number of pairs still on the board.
+  *
+  * @return the number of pairs left to match
+  */
+ public int getNumOfRemainingPairs() {
+
+  return mNumOfPairs - getMatchedPairs(mState.get());
+ }
+
+ /**
+  * This method gets the number of cards still on the board, the cards of
+  * a matched pair stay on the board until the pair is settled.
+  *
+  * @return the number of cards that weren't removed
+  */
+ public int getNumOfRemainingCards() {
+
+  long state = mState.get();
+  return mNumOfCards - 2 * getMatchedPairs(state)
+    + (isPendingMatch(state) ? 2 : 0);
+ }
+
+ /**
+  * This method gets the number of pairs matched so far.
+  *
+  * @return the number of matched pairs
+  */
+ public int getNumOfMatchedPairs() {
+
+  return getMatchedPairs(mState.get());
+ }
+
+ /**
+  * This method gets the number of pairs of different types selected so far.
+  *
+  * @return the number of failed attempts
+  */
+ public int getNumOfFailedAttempts() {
+
+  for (;;) {
+   int numOfFailedAttempts = catchUp(mState.get());
+   if (numOfFailedAttempts >= 0) {
+    return numOfFailedAttempts;
+   }
+  }
+ }
+
+ /**
+  * This method gets the score of the game.
+  *
+  * @return the number of failed attempts as a percentage of the number of
+  *         cards
+  */
+ public float getErrorPercentage() {
+
+  return (((float) getNumOfFailedAttempts()) / ((float) mNumOfCards)) * 100;
+ }
+
+ /**
+  * This method checks if the game is solved or not.
+  *
+  * @return true if every pair has been matched, false if there remains
+  *         cards that have to be matched
+  */
+ public boolean isSolved() {
+
+  return getMatchedPairs(mState.get()) == mNumOfPairs;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method brings the exact number of failed attempts up to a state
+ // word, it returns the number, or -1 if the word is stale and has to be
+ // read again
+ private int catchUp(long state) {
+
+  int stamp = (int) (state >>> FAILED_SHIFT) & FAILED_MASK;
+  for (;;) {
+   int numOfFailedAttempts = mNumOfFailedAttempts.get();
+   if ((numOfFailedAttempts & FAILED_MASK) == stamp) {
+    return numOfFailedAttempts;
+   }
+   if (((numOfFailedAttempts + 1) & FAILED_MASK) != stamp) {
+    return -1;
+   }
+   // Whoever wins counts the attempt, the others see it counted
+   mNumOfFailedAttempts.compareAndSet(numOfFailedAttempts,
+     numOfFailedAttempts + 1);
+  }
+ }
+
+ // This method marks the cards of a pending match, before the word leaves
+ // them
+ private void markMatched(long state) {
+
+  if (isPendingMatch(state)) {
+   mark(getFirst(state));
+   mark(getSecond(state));
+  }
+ }
+
+ // This method checks if the pending pair of a state word is a match
+ private boolean isPendingMatch(long state) {
+
+  int second = getSecond(state);
+  return second != Game.NO_CARD
+    && mTypes[getFirst(state)] == mTypes[second];
+ }
+
+ // This method checks the matched bit of a card
+ private boolean isSet(int index) {
+
+  return (mMatched.get(index >>> ADDRESS_BITS_PER_WORD) & (1L << index)) != 0;
+ }
+
+ // This method sets the matched bit of a card, other cards of the same
+ // word may be marked at the same time
+ private void mark(int index) {
+
+  int word = index >>> ADDRESS_BITS_PER_WORD;
+  long bit = 1L << index;
+  long bits = mMatched.get(word);
+  while ((bits & bit) == 0
+    && !mMatched.compareAndSet(word, bits, bits | bit)) {
+   bits = mMatched.get(word);
+  }
+ }
+
+ // This method gets the first card of a state word, or NO_CARD
+ private static int getFirst(long state) {
+
+  return (int) (state & CARD_MASK) - 1;
+ }
+
+ // This method gets the second card of a state word, or NO_CARD
+ private static int getSecond(long state) {
+
+  return (int) ((state >>> SECOND_SHIFT) & CARD_MASK) - 1;
+ }
+
+ // This method gets the number of matched pairs of a state word
+ private static int getMatchedPairs(long state) {
+
+  return (int) ((state >>> MATCHED_SHIFT) & MATCHED_MASK);
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,295 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Plays every deal of a ConcurrentGame with several threads flipping random
+ * cards at once, like the mouse, a network peer and a bot sharing a board,
+ * and checks that no flip was lost or counted twice: the failed attempts
+ * and matched pairs of the game must be the MISMATCH and MATCH results the
+ * threads got, every pair must have been resolved by one selection, and
+ * each thread must read a score that never goes back and includes the
+ * flips it was told about.
+ *
+ * The threads also settle the pending pair now and then. Each deal starts
+ * and ends on a barrier, the totals are checked between deals.
+ */
+public class ConcurrentGameStress {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "ConcurrentGameStress: ";
+
+ private static final int DEFAULT_NUMBER_OF_THREADS = 3;
+ private static final int DEFAULT_NUMBER_OF_GAMES = 10000;
+ private static final String DEFAULT_SIZE = "4x6";
+ private static final long DEFAULT_SEED = 2012;
+
+ // A thread settles about one flip in this many
+ private static final int SETTLE_PERIOD = 8;
+ // A thread gives a deal up after this many flips per card squared, far
+ // more than random flips take, so that a broken game fails the check
+ // instead of playing forever
+ private static final int FLIPS_PER_CARD_SQUARED = 100;
+
+ // Results counted by each thread, by Game flip result
+ private static final int FIRSTS = Game.FLIP_FIRST;
+ private static final int MATCHES = Game.FLIP_MATCH;
+ private static final int MISMATCHES = Game.FLIP_MISMATCH;
+ private static final int IGNORED = Game.FLIP_IGNORED;
+ private static final int STALE_READS = 4;
+ private static final int NUMBER_OF_COUNTS = 5;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final ConcurrentGame mGame;
+ private final CyclicBarrier mBarrier;
+ private final int mNumOfGames;
+
+ // The counts of each thread for the current deal, read between deals
+ private final long[][] mCounts;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a stress run.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aNumOfThreads
+  *            is the number of threads flipping cards
+  * @param aNumOfGames
+  *            is the number of deals to play
+  */
+ public ConcurrentGameStress(int aNumOfCards, int aNumOfThreads,
+   int aNumOfGames) {
+
+  mGame = new ConcurrentGame(aNumOfCards);
+  mBarrier = new CyclicBarrier(aNumOfThreads + 1);
+  mNumOfGames = aNumOfGames;
+  mCounts = new long[aNumOfThreads][NUMBER_OF_COUNTS];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Runs the stress check and prints the flips and the errors found.
+  *
+  * @param args
+  *            - Optional -threads n, -size 4x6, -games n and -seed s.
+  */
+ public static void main(String[] args) {
+
+  int numOfThreads = DEFAULT_NUMBER_OF_THREADS;
+  int numOfGames = DEFAULT_NUMBER_OF_GAMES;
+  String size = DEFAULT_SIZE;
+  long seed = DEFAULT_SEED;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-threads".equals(args[i]) && i + 1 < args.length) {
+    numOfThreads = Integer.parseInt(args[++i]);
+   } else if ("-games".equals(args[i]) && i + 1 < args.length) {
+    numOfGames = Integer.parseInt(args[++i]);
+   } else if ("-size".equals(args[i]) && i + 1 < args.length) {
+    size = args[++i];
+   } else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+    seed = Long.parseLong(args[++i]);
+   } else {
+    error("main(String[]) received an unknown argument " + args[i], true);
+   }
+  }
+
+  String[] dimensions = size.split("x");
+  int numOfCards = Integer.parseInt(dimensions[0])
+    * Integer.parseInt(dimensions[1]);
+  if (numOfThreads < 1 || numOfGames < 1) {
+   error("main(String[]) reported \"Invalid run\"", true);
+  }
+
+  new ConcurrentGameStress(numOfCards, numOfThreads, numOfGames).run(seed);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method plays the deals, the threads flip and this one checks
+ private void run(long seed) {
+
+  SplittableRandom root = new SplittableRandom(seed);
+  Dealer dealer = new Dealer(root.nextLong());
+  int[] deal = new int[mGame.getNumOfCards()];
+
+  Thread[] threads = new Thread[mCounts.length];
+  for (int i = 0; i < threads.length; i++) {
+   final int thread = i;
+   final SplittableRandom random = root.split();
+   threads[i] = new Thread(new Runnable() {
+    public void run() {
+     flip(thread, random);
+    }
+   }, "flipper-" + i);
+   threads[i].setDaemon(true);
+   threads[i].start();
+  }
+
+  long[] totals = new long[NUMBER_OF_COUNTS];
+  long numOfLost = 0;
+  long numOfDoubleCounted = 0;
+  long numOfErrors = 0;
+  long start = System.nanoTime();
+
+  for (int game = 0; game < mNumOfGames; game++) {
+   dealer.deal(deal);
+   mGame.deal(deal);
+
+   await();
+   await();
+
+   long[] counts = new long[NUMBER_OF_COUNTS];
+   for (long[] threadCounts : mCounts) {
+    for (int j = 0; j < NUMBER_OF_COUNTS; j++) {
+     counts[j] += threadCounts[j];
+     totals[j] += threadCounts[j];
+    }
+   }
+
+   long failed = mGame.getNumOfFailedAttempts();
+   if (counts[MISMATCHES] > failed) {
+    numOfLost += counts[MISMATCHES] - failed;
+   } else {
+    numOfDoubleCounted += failed - counts[MISMATCHES];
+   }
+   numOfErrors += check(counts);
+  }
+
+  double seconds = (System.nanoTime() - start) / 1e9;
+  long numOfFlips = totals[FIRSTS] + totals[MATCHES] + totals[MISMATCHES]
+    + totals[IGNORED];
+  boolean isOk = numOfLost == 0 && numOfDoubleCounted == 0
+    && totals[STALE_READS] == 0 && numOfErrors == 0;
+
+  System.out.println(String.format(Locale.ROOT,
+    "%d threads, %d games of %d cards, %d flips, %.0f flips/s",
+    mCounts.length, mNumOfGames, mGame.getNumOfCards(), numOfFlips,
+    numOfFlips / seconds));
+  System.out.println(String.format(Locale.ROOT,
+    "first %d, match %d, mismatch %d, ignored %d", totals[FIRSTS],
+    totals[MATCHES], totals[MISMATCHES], totals[IGNORED]));
+  System.out.println(String.format(Locale.ROOT,
+    "failed attempts lost %d, double counted %d, stale reads %d, "
+      + "errors %d, %s", numOfLost, numOfDoubleCounted,
+    totals[STALE_READS], numOfErrors, isOk ? "ok" : "FAILED"));
+
+  if (!isOk) {
+   System.exit(1);
+  }
+ }
+
+ // This method checks a solved deal against the results the threads got,
+ // it returns the number of errors
+ private long check(long[] counts) {
+
+  long numOfErrors = 0;
+  if (!mGame.isSolved() || counts[MATCHES] != mGame.getNumOfPairs()
+    || mGame.getNumOfMatchedPairs() != counts[MATCHES]) {
+   error("check() reported " + counts[MATCHES] + " matches of "
+     + mGame.getNumOfMatchedPairs() + " pairs", false);
+   numOfErrors++;
+  }
+
+  // Each pair resolved one selection, the last one may still be waiting
+  int selected = mGame.getSelectedCard() == Game.NO_CARD ? 0 : 1;
+  if (counts[FIRSTS] != counts[MATCHES] + counts[MISMATCHES] + selected) {
+   error("check() reported " + counts[FIRSTS] + " selections for "
+     + (counts[MATCHES] + counts[MISMATCHES]) + " pairs", false);
+   numOfErrors++;
+  }
+
+  mGame.settle();
+  if (mGame.getNumOfRemainingCards() != 0) {
+   error("check() reported " + mGame.getNumOfRemainingCards()
+     + " cards left", false);
+   numOfErrors++;
+  }
+  for (int i = 0; i < mGame.getNumOfCards(); i++) {
+   if (!mGame.isRemoved(i) || mGame.isFaceUp(i)) {
+    error("check() reported card " + i + " still on the board", false);
+    numOfErrors++;
+   }
+  }
+  return numOfErrors;
+ }
+
+ // This method flips random cards of each deal until it is solved
+ private void flip(int thread, SplittableRandom random) {
+
+  long[] counts = mCounts[thread];
+  int numOfCards = mGame.getNumOfCards();
+  long maxNumOfFlips = (long) FLIPS_PER_CARD_SQUARED * numOfCards
+    * numOfCards;
+
+  for (;;) {
+   await();
+   Arrays.fill(counts, 0L);
+
+   // The score read by a thread never goes back
+   int failed = 0;
+   int matched = 0;
+   for (long i = 0; i < maxNumOfFlips && !mGame.isSolved(); i++) {
+    if (random.nextInt(SETTLE_PERIOD) == 0) {
+     mGame.settle();
+    }
+
+    int result = mGame.flip(random.nextInt(numOfCards));
+    counts[result]++;
+
+    // A result is in the score read after it
+    int nowFailed = mGame.getNumOfFailedAttempts();
+    int nowMatched = mGame.getNumOfMatchedPairs();
+    if (nowFailed < failed + (result == Game.FLIP_MISMATCH ? 1 : 0)
+      || nowMatched < matched + (result == Game.FLIP_MATCH ? 1 : 0)) {
+     counts[STALE_READS]++;
+    }
+    failed = nowFailed;
+    matched = nowMatched;
+   }
+
+   await();
+  }
+ }
+
+ // This method waits for the other threads at a deal's start or end
+ private void await() {
+
+  try {
+   mBarrier.await();
+  } catch (InterruptedException e) {
+   Thread.currentThread().interrupt();
+   error("await() was interrupted", true);
+  } catch (BrokenBarrierException e) {
+   error("await() reported " + e, true);
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,162 @@
+import java.util.SplittableRandom;
+
+/**
+ * A Dealer lays out the cards of a game: it picks the faces of the deal with
+ * a partial Fisher-Yates shuffle of the available faces, lays every face
+ * twice, then shuffles the cards. The same seed always gives the same deals.
+ *
+ * A Dealer is not thread safe, each thread uses its own Dealer obtained with
+ * split().
+ */
+public final class Dealer {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Dealer: ";
+
+ // Card images, faces are numbered from 1 to 24
+ private static final int DEFAULT_FIRST_FACE = 1;
+ private static final int DEFAULT_NUMBER_OF_FACES = 24;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final SplittableRandom mRandom;
+ private final int mFirstFace;
+ // The faces, the ones picked for a deal are moved to the front
+ private final int[] mFaces;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a dealer of the 24 card images.
+  *
+  * @param aSeed
+  *            is the seed of the deals
+  */
+ public Dealer(long aSeed) {
+  this(aSeed, DEFAULT_FIRST_FACE, DEFAULT_NUMBER_OF_FACES);
+ }
+
+ /**
+  * Creates a dealer of a range of faces.
+  *
+  * @param aSeed
+  *            is the seed of the deals
+  * @param aFirstFace
+  *            is the type of the first face
+  * @param aNumOfFaces
+  *            is the number of faces, at least 1
+  */
+ public Dealer(long aSeed, int aFirstFace, int aNumOfFaces) {
+  this(new SplittableRandom(aSeed), aFirstFace, aNumOfFaces);
+ }
+
+ // Creates a dealer drawing from the given generator
+ private Dealer(SplittableRandom aRandom, int aFirstFace, int aNumOfFaces) {
+
+  if (aNumOfFaces < 1) {
+   error("Dealer(long, int, int) reported \"Invalid number of faces\"",
+     true);
+  }
+
+  mRandom = aRandom;
+  mFirstFace = aFirstFace;
+  mFaces = new int[aNumOfFaces];
+
+  for (int i = 0; i < aNumOfFaces; i++) {
+   mFaces[i] = aFirstFace + i;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method creates a dealer of the same faces with its own independent
+  * stream of deals, to be used by another thread.
+  *
+  * @return a new dealer
+  */
+ public Dealer split() {
+
+  return new Dealer(mRandom.split(), mFirstFace, mFaces.length);
+ }
+
+ /**
+  * This method deals a new set of cards.
+  *
+  * @param aNumOfCards
+  *            is the number of cards, an even number
+  * @return the type of each card, every type appearing in pairs
+  */
+ public int[] deal(int aNumOfCards) {
+
+  int[] cards = new int[aNumOfCards];
+  deal(cards);
+  return cards;
+ }
+
+ /**
+  * This method deals a new set of cards into an existing array. When there
+  * are more pairs than faces, the faces are used more than once.
+  *
+  * @param aCards
+  *            receives the type of each card, its length must be even
+  */
+ public void deal(int[] aCards) {
+
+  if (aCards == null || aCards.length % 2 != 0) {
+   error("deal(int[]) reported \"Invalid number of cards\"", true);
+   return;
+  }
+
+  int numOfPairs = aCards.length / 2;
+  int numOfFaces = Math.min(numOfPairs, mFaces.length);
+
+  // Partial Fisher-Yates, the picked faces end up in mFaces[0..numOfFaces)
+  for (int i = 0; i < numOfFaces; i++) {
+   int j = i + mRandom.nextInt(mFaces.length - i);
+   int face = mFaces[j];
+   mFaces[j] = mFaces[i];
+   mFaces[i] = face;
+  }
+
+  for (int pair = 0, face = 0; pair < numOfPairs; pair++) {
+   aCards[2 * pair] = mFaces[face];
+   aCards[2 * pair + 1] = mFaces[face];
+   if (++face == numOfFaces) {
+    face = 0;
+   }
+  }
+
+  // Fisher-Yates over the cards
+  for (int i = aCards.length - 1; i > 0; i--) {
+   int j = mRandom.nextInt(i + 1);
+   int card = aCards[j];
+   aCards[j] = aCards[i];
+   aCards[i] = card;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,204 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A deck of card faces shipped as one zip or jar file, see DeckPacker. The
+ * pack starts with an index entry that lists its faces, the face images are
+ * the other entries:
+ *
+ * <pre>
+ * deck.index: int magic, int version, int first face, int number of faces,
+ *             per face: the name of its entry (modified UTF-8)
+ * </pre>
+ *
+ * The faces are card types first face, first face + 1, ... up to 32767, so
+ * the types stay compact short ids and a Dealer deals them as a range.
+ * Opening a pack only reads its index; a face is read from the pack and
+ * decoded when it is asked for, i.e. when it is dealt, and nothing of it is
+ * kept here.
+ */
+public final class DeckPack {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "DeckPack: ";
+
+ // Index entry, shared with DeckPacker
+ static final String INDEX_ENTRY = "deck.index";
+ static final int MAGIC = 0x4D454D44;
+ static final int VERSION = 1;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final File mFile;
+ private final ZipFile mZip;
+ private final int mFirstFace;
+ // The entry name of each face, by face - first face
+ private final String[] mNames;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Reads the index of an opened pack
+ private DeckPack(File aFile, ZipFile aZip) throws IOException {
+
+  mFile = aFile;
+  mZip = aZip;
+
+  ZipEntry index = aZip.getEntry(INDEX_ENTRY);
+  if (index == null) {
+   throw new IOException("No " + INDEX_ENTRY + " in " + aFile);
+  }
+
+  DataInputStream in = new DataInputStream(new BufferedInputStream(
+    aZip.getInputStream(index)));
+  try {
+   if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+    throw new IOException("Invalid deck index in " + aFile);
+   }
+
+   mFirstFace = in.readInt();
+   int numOfFaces = in.readInt();
+   if (mFirstFace < 0 || numOfFaces < 1
+     || (long) mFirstFace + numOfFaces - 1 > CardImages.MAX_FACE) {
+    throw new IOException("Invalid faces in " + aFile);
+   }
+
+   mNames = new String[numOfFaces];
+   for (int i = 0; i < numOfFaces; i++) {
+    mNames[i] = in.readUTF();
+   }
+  } finally {
+   in.close();
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method opens a pack and reads its index.
+  *
+  * @param aFile
+  *            is the zip or jar file of the pack
+  * @return the pack, its faces are read when they are asked for
+  * @throws IOException
+  *             if the file isn't a pack
+  */
+ public static DeckPack open(File aFile) throws IOException {
+
+  ZipFile zip = new ZipFile(aFile);
+  try {
+   return new DeckPack(aFile, zip);
+  } catch (IOException | RuntimeException e) {
+   zip.close();
+   throw e;
+  }
+ }
+
+ /**
+  * This method gets the card type of the first face.
+  */
+ public int getFirstFace() {
+
+  return mFirstFace;
+ }
+
+ /**
+  * This method gets the number of faces of the pack.
+  */
+ public int getNumOfFaces() {
+
+  return mNames.length;
+ }
+
+ /**
+  * This method checks if a card type is a face of the pack.
+  */
+ public boolean isFace(int aType) {
+
+  return aType >= mFirstFace && aType - mFirstFace < mNames.length;
+ }
+
+ /**
+  * This method reads and decodes the image of a face.
+  *
+  * @param aType
+  *            is the card type of the face
+  * @return the decoded image
+  * @throws IOException
+  *             if the type isn't a face of the pack or its image can't be
+  *             decoded
+  */
+ public BufferedImage read(int aType) throws IOException {
+
+  if (!isFace(aType)) {
+   throw new IOException("No face " + aType + " in " + mFile);
+  }
+
+  ZipEntry entry = mZip.getEntry(mNames[aType - mFirstFace]);
+  if (entry == null) {
+   throw new IOException("Missing face " + aType + " in " + mFile);
+  }
+
+  InputStream in = mZip.getInputStream(entry);
+  try {
+   BufferedImage image = ImageIO.read(in);
+   if (image == null) {
+    throw new IOException("Unknown image format of face " + aType);
+   }
+   return image;
+  } finally {
+   in.close();
+  }
+ }
+
+ /**
+  * This method closes the pack, its faces can't be read anymore.
+  */
+ public void close() {
+
+  try {
+   mZip.close();
+  } catch (IOException e) {
+   error("close() reported " + e, false);
+  }
+ }
+
+ /**
+  * This method describes the pack.
+  */
+ public String toString() {
+
+  return mFile + ", " + mNames.length + " faces from " + mFirstFace;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
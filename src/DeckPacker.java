@@ -0,0 +1,235 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs card faces into a deck pack read by DeckPack: the index entry, then
+ * one entry per face. The images are stored as they are, a JPEG or a PNG
+ * doesn't compress any further, so reading a face is a plain copy out of
+ * the pack.
+ *
+ * It packs the images of a folder, in the order of their names, or draws a
+ * synthetic deck of numbered faces to try large decks.
+ */
+public class DeckPacker {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "DeckPacker: ";
+
+ private static final int DEFAULT_FIRST_FACE = 1;
+ private static final String FACE_FOLDER = "faces/";
+
+ // Synthetic faces, the size of the card images
+ private static final int SYNTHETIC_SIZE = 150;
+ private static final String SYNTHETIC_FORMAT = "png";
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Static access only
+ private DeckPacker() {
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Writes a deck pack.
+  *
+  * @param args
+  *            - The pack file to write, then a folder of images or
+  *            -synthetic n to draw n numbered faces, and optionally
+  *            -first type, the card type of the first face (1 by default).
+  */
+ public static void main(String[] args) throws IOException {
+
+  if (args.length < 2) {
+   error("main(String[]) expects the pack file and a folder or -synthetic n",
+     true);
+  }
+
+  File file = new File(args[0]);
+  File folder = null;
+  int numOfSynthetic = 0;
+  int firstFace = DEFAULT_FIRST_FACE;
+
+  for (int i = 1; i < args.length; i++) {
+   if ("-synthetic".equals(args[i]) && i + 1 < args.length) {
+    numOfSynthetic = Integer.parseInt(args[++i]);
+   } else if ("-first".equals(args[i]) && i + 1 < args.length) {
+    firstFace = Integer.parseInt(args[++i]);
+   } else {
+    folder = new File(args[i]);
+   }
+  }
+
+  long start = System.nanoTime();
+  int numOfFaces;
+  if (folder != null) {
+   numOfFaces = pack(file, firstFace, folder);
+  } else {
+   numOfFaces = packSynthetic(file, firstFace, numOfSynthetic);
+  }
+
+  System.out.println(TAG + "packed " + numOfFaces + " faces, "
+    + file.length() / 1024 + " KB, in " + (System.nanoTime() - start)
+    / 1000000 + " ms to " + file);
+ }
+
+ // This method packs the images of a folder, it returns the number of faces
+ private static int pack(File file, int firstFace, File folder)
+   throws IOException {
+
+  File[] images = folder.listFiles();
+  if (images == null) {
+   throw new IOException("Can't list " + folder);
+  }
+  Arrays.sort(images);
+
+  String[] names = new String[images.length];
+  int numOfFaces = 0;
+  for (File image : images) {
+   if (image.isFile()) {
+    names[numOfFaces++] = FACE_FOLDER + image.getName();
+   }
+  }
+  names = Arrays.copyOf(names, numOfFaces);
+
+  ZipOutputStream out = open(file, firstFace, names);
+  try {
+   for (int i = 0, face = 0; i < images.length; i++) {
+    if (images[i].isFile()) {
+     putStored(out, names[face++], Files.readAllBytes(images[i].toPath()));
+    }
+   }
+  } finally {
+   out.close();
+  }
+  return numOfFaces;
+ }
+
+ // This method packs numbered faces, it returns the number of faces
+ private static int packSynthetic(File file, int firstFace, int numOfFaces)
+   throws IOException {
+
+  String[] names = new String[numOfFaces];
+  for (int i = 0; i < numOfFaces; i++) {
+   names[i] = String.format(Locale.ROOT, "%s%05d.%s", FACE_FOLDER,
+     firstFace + i, SYNTHETIC_FORMAT);
+  }
+
+  BufferedImage image = new BufferedImage(SYNTHETIC_SIZE, SYNTHETIC_SIZE,
+    BufferedImage.TYPE_INT_RGB);
+  Graphics2D graphics = image.createGraphics();
+  graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+    RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+  graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, SYNTHETIC_SIZE / 4));
+  FontMetrics metrics = graphics.getFontMetrics();
+  ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+  ZipOutputStream out = open(file, firstFace, names);
+  try {
+   for (int i = 0; i < numOfFaces; i++) {
+    // A hue per face, and its number
+    graphics.setColor(Color.getHSBColor((i * 0.618034f) % 1, 0.35f, 1));
+    graphics.fillRect(0, 0, SYNTHETIC_SIZE, SYNTHETIC_SIZE);
+    graphics.setColor(Color.DARK_GRAY);
+    String label = Integer.toString(firstFace + i);
+    graphics.drawString(label,
+      (SYNTHETIC_SIZE - metrics.stringWidth(label)) / 2,
+      (SYNTHETIC_SIZE + metrics.getAscent()) / 2);
+
+    encoded.reset();
+    ImageIO.write(image, SYNTHETIC_FORMAT, encoded);
+    putStored(out, names[i], encoded.toByteArray());
+   }
+  } finally {
+   out.close();
+   graphics.dispose();
+  }
+  return numOfFaces;
+ }
+
+ // This method starts a pack with its index
+ private static ZipOutputStream open(File file, int firstFace,
+   String[] names) throws IOException {
+
+  if (firstFace < 0 || names.length < 1
+    || (long) firstFace + names.length - 1 > CardImages.MAX_FACE) {
+   throw new IOException("Invalid faces, from " + firstFace + ", "
+     + names.length + " faces");
+  }
+
+  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+  DataOutputStream index = new DataOutputStream(bytes);
+  index.writeInt(DeckPack.MAGIC);
+  index.writeInt(DeckPack.VERSION);
+  index.writeInt(firstFace);
+  index.writeInt(names.length);
+  for (String name : names) {
+   index.writeUTF(name);
+  }
+  index.close();
+
+  ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(
+    new FileOutputStream(file)));
+  try {
+   putStored(out, DeckPack.INDEX_ENTRY, bytes.toByteArray());
+  } catch (IOException e) {
+   out.close();
+   throw e;
+  }
+  return out;
+ }
+
+ // This method writes an entry without compressing it
+ private static void putStored(ZipOutputStream out, String name, byte[] data)
+   throws IOException {
+
+  CRC32 crc = new CRC32();
+  crc.update(data, 0, data.length);
+
+  ZipEntry entry = new ZipEntry(name);
+  entry.setMethod(ZipEntry.STORED);
+  entry.setSize(data.length);
+  entry.setCompressedSize(data.length);
+  entry.setCrc(crc.getValue());
+
+  out.putNextEntry(entry);
+  out.write(data);
+  out.closeEntry();
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
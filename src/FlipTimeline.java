@@ -0,0 +1,439 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Timer;
+
+/**
+ * The flip and vanish animations of the cards of a board. A card turning
+ * over shrinks to its edge and opens on its other side; a matched card
+ * shrinks away to its centre. The views draw a card from its animation, see
+ * paint(), and the game itself never waits for them.
+ *
+ * The state of the animations is kept in arrays by card, allocated once:
+ * the kind and start of each animation and its progress, and the cards
+ * animated in a list from which a finished one is removed by swapping it
+ * with the last one. One frame clock ticks every board with animations
+ * running, it stops when none is left. A frame only reads the clock and
+ * these arrays, it allocates nothing, and it keeps the time taken by each
+ * frame and the frames dropped against a 60 frames per second budget.
+ *
+ * A timeline is only used on the event dispatch thread.
+ */
+public final class FlipTimeline {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "FlipTimeline: ";
+
+ /**
+  * The kinds of animation: none, a card turning over, a card vanishing.
+  */
+ public static final int NONE = 0;
+ public static final int FLIP = 1;
+ public static final int VANISH = 2;
+
+ // Durations of the animations, in nanoseconds
+ private static final long FLIP_DURATION = TimeUnit.MILLISECONDS.toNanos(240);
+ private static final long VANISH_DURATION = TimeUnit.MILLISECONDS
+   .toNanos(320);
+
+ // Frame clock, about 60 frames per second
+ private static final int FRAME_PERIOD = 16;
+ private static final long FRAME_BUDGET = TimeUnit.SECONDS.toNanos(1) / 60;
+
+ private static final int INITIAL_NUMBER_OF_TIMELINES = 8;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ // The timelines with animations running, ticked by the clock
+ private static FlipTimeline[] sTicking = new FlipTimeline[INITIAL_NUMBER_OF_TIMELINES];
+ private static int sNumOfTicking = 0;
+
+ private static final Timer sClock = new Timer(FRAME_PERIOD,
+   new ActionListener() {
+    public void actionPerformed(ActionEvent e) {
+     tick(System.nanoTime());
+    }
+   });
+
+ // Frame statistics
+ private static long sLastFrame = 0;
+ private static long sNumOfFrames = 0;
+ private static long sNumOfDroppedFrames = 0;
+ private static long sNumOfFramesOverBudget = 0;
+ private static long sTotalFrameTime = 0;
+ private static long sMaxFrameTime = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final Listener mListener;
+
+ // By card: the kind of its animation, its start and its progress
+ private final int[] mKinds;
+ private final long[] mStarts;
+ private final float[] mProgress;
+
+ // The cards animated, and the place of each card in that list
+ private final int[] mAnimated;
+ private final int[] mSlots;
+ private int mNumOfAnimated = 0;
+
+ // Its place in the timelines ticked by the clock, or -1
+ private int mTickingSlot = -1;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates the timeline of the cards of a board.
+  *
+  * @param aNumOfCards
+  *            is the number of cards
+  * @param aListener
+  *            is told on every frame which cards moved
+  */
+ public FlipTimeline(int aNumOfCards, Listener aListener) {
+
+  if (aNumOfCards < 1 || aListener == null) {
+   error("FlipTimeline(int, Listener) reported \"Invalid timeline\"", true);
+  }
+
+  mListener = aListener;
+  mKinds = new int[aNumOfCards];
+  mStarts = new long[aNumOfCards];
+  mProgress = new float[aNumOfCards];
+  mAnimated = new int[aNumOfCards];
+  mSlots = new int[aNumOfCards];
+  Arrays.fill(mProgress, 1);
+  Arrays.fill(mSlots, -1);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Told by a timeline which cards to draw again.
+  */
+ public interface Listener {
+
+  /**
+   * This method is called on every frame for each card animated, and once
+   * more when its animation is over or cancelled.
+   *
+   * @param anIndex
+   *            is the card
+   */
+  void animate(int anIndex);
+ }
+
+ /**
+  * This method starts the animation of a card, in place of the one it had.
+  *
+  * @param anIndex
+  *            is the card
+  * @param aKind
+  *            is FLIP or VANISH
+  */
+ public void start(int anIndex, int aKind) {
+
+  if (aKind != FLIP && aKind != VANISH) {
+   error("start(int, int) received an invalid kind", true);
+  }
+
+  if (mSlots[anIndex] < 0) {
+   mSlots[anIndex] = mNumOfAnimated;
+   mAnimated[mNumOfAnimated++] = anIndex;
+  }
+  mKinds[anIndex] = aKind;
+  mStarts[anIndex] = System.nanoTime();
+  mProgress[anIndex] = 0;
+
+  if (mTickingSlot < 0) {
+   startTicking(this);
+  }
+ }
+
+ /**
+  * This method ends every animation at once, e.g. when new cards are dealt.
+  */
+ public void cancelAll() {
+
+  while (mNumOfAnimated > 0) {
+   int index = mAnimated[mNumOfAnimated - 1];
+   remove(index);
+   mListener.animate(index);
+  }
+  if (mTickingSlot >= 0) {
+   stopTicking(this);
+  }
+ }
+
+ /**
+  * This method gets the animation of a card.
+  *
+  * @return FLIP, VANISH or NONE if it isn't animated
+  */
+ public int getKind(int anIndex) {
+
+  return mKinds[anIndex];
+ }
+
+ /**
+  * This method gets how far the animation of a card went.
+  *
+  * @return from 0 at its start to 1 at its end, eased
+  */
+ public float getProgress(int anIndex) {
+
+  return mProgress[anIndex];
+ }
+
+ /**
+  * This method gets the number of cards animated.
+  */
+ public int getNumOfAnimations() {
+
+  return mNumOfAnimated;
+ }
+
+ /**
+  * This method draws a card animated. A card turning over shows the image
+  * it had, shrinking to its vertical axis, then opens on its new image; a
+  * card vanishing shrinks to its centre over its new image.
+  *
+  * @param g2
+  *            is where the card is drawn
+  * @param aFrom
+  *            is the image the card had, or null
+  * @param aTo
+  *            is its new image, or null
+  * @param aKind
+  *            is the kind of the animation
+  * @param aProgress
+  *            is its progress, from 0 to 1
+  * @param x
+  *            is the left of the image
+  * @param y
+  *            is the top of the image
+  * @param aWidth
+  *            is the width of the image
+  * @param aHeight
+  *            is the height of the image
+  */
+ public static void paint(Graphics2D g2, Image aFrom, Image aTo, int aKind,
+   float aProgress, int x, int y, int aWidth, int aHeight) {
+
+  // A frame shows for a 60th of a second, the cheapest scaling does
+  Object interpolation = g2.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+  g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+    RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+  paintFrame(g2, aFrom, aTo, aKind, aProgress, x, y, aWidth, aHeight);
+  if (interpolation != null) {
+   g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+  }
+ }
+
+ /**
+  * This method gets the number of frames ticked by the clock.
+  */
+ public static long getNumOfFrames() {
+
+  return sNumOfFrames;
+ }
+
+ /**
+  * This method gets the number of frames the clock missed, because a frame
+  * or the painting after it took too long.
+  */
+ public static long getNumOfDroppedFrames() {
+
+  return sNumOfDroppedFrames;
+ }
+
+ /**
+  * This method gets the number of frames whose animations took more than a
+  * 60th of a second.
+  */
+ public static long getNumOfFramesOverBudget() {
+
+  return sNumOfFramesOverBudget;
+ }
+
+ /**
+  * This method gets the mean time taken by a frame.
+  *
+  * @return the time in nanoseconds
+  */
+ public static long getMeanFrameTime() {
+
+  return sNumOfFrames == 0 ? 0 : sTotalFrameTime / sNumOfFrames;
+ }
+
+ /**
+  * This method gets the longest time taken by a frame.
+  *
+  * @return the time in nanoseconds
+  */
+ public static long getMaxFrameTime() {
+
+  return sMaxFrameTime;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method moves every animation to a time, and keeps the statistics of
+ // the frame
+ private static void tick(long now) {
+
+  if (sLastFrame != 0) {
+   // A late frame stands for the ones the clock missed
+   long late = (now - sLastFrame) / TimeUnit.MILLISECONDS.toNanos(FRAME_PERIOD);
+   if (late > 1) {
+    sNumOfDroppedFrames += late - 1;
+   }
+  }
+  sLastFrame = now;
+
+  for (int i = sNumOfTicking - 1; i >= 0; i--) {
+   FlipTimeline timeline = sTicking[i];
+   timeline.advance(now);
+   if (timeline.mNumOfAnimated == 0) {
+    stopTicking(timeline);
+   }
+  }
+
+  long frameTime = System.nanoTime() - now;
+  sNumOfFrames++;
+  sTotalFrameTime += frameTime;
+  sMaxFrameTime = Math.max(sMaxFrameTime, frameTime);
+  if (frameTime > FRAME_BUDGET) {
+   sNumOfFramesOverBudget++;
+  }
+ }
+
+ // This method adds a timeline to the ones ticked, and starts the clock
+ private static void startTicking(FlipTimeline aTimeline) {
+
+  if (sNumOfTicking == sTicking.length) {
+   sTicking = Arrays.copyOf(sTicking, 2 * sTicking.length);
+  }
+  aTimeline.mTickingSlot = sNumOfTicking;
+  sTicking[sNumOfTicking++] = aTimeline;
+
+  if (!sClock.isRunning()) {
+   sLastFrame = 0;
+   sClock.start();
+  }
+ }
+
+ // This method removes a timeline from the ones ticked, the clock stops with
+ // the last one
+ private static void stopTicking(FlipTimeline aTimeline) {
+
+  int slot = aTimeline.mTickingSlot;
+  FlipTimeline last = sTicking[--sNumOfTicking];
+  sTicking[slot] = last;
+  last.mTickingSlot = slot;
+  sTicking[sNumOfTicking] = null;
+  aTimeline.mTickingSlot = -1;
+
+  if (sNumOfTicking == 0) {
+   sClock.stop();
+  }
+ }
+
+ // This method draws a frame of an animation, see paint()
+ private static void paintFrame(Graphics2D g2, Image aFrom, Image aTo,
+   int aKind, float aProgress, int x, int y, int aWidth, int aHeight) {
+
+  if (aKind == VANISH) {
+   if (aTo != null) {
+    g2.drawImage(aTo, x, y, aWidth, aHeight, null);
+   }
+   if (aFrom != null && aProgress < 1) {
+    int width = Math.max(1, Math.round(aWidth * (1 - aProgress)));
+    int height = Math.max(1, Math.round(aHeight * (1 - aProgress)));
+    // Shrunk, not faded: a translucent scaled draw looks its loop up again
+    // at every call and costs thrice an opaque one
+    g2.drawImage(aFrom, x + (aWidth - width) / 2, y + (aHeight - height) / 2,
+      width, height, null);
+   }
+   return;
+  }
+
+  // The old side up to the half, then the new one
+  float scale = aProgress < 0.5f ? 1 - 2 * aProgress : 2 * aProgress - 1;
+  Image image = aProgress < 0.5f ? aFrom : aTo;
+  int width = Math.round(aWidth * scale);
+  if (image != null && width > 0) {
+   g2.drawImage(image, x + (aWidth - width) / 2, y, width, aHeight, null);
+  }
+ }
+
+ // An animation eases in and out
+ private static float ease(float t) {
+
+  return t * t * (3 - 2 * t);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method moves the animations of the board to a time, the cards are
+ // visited from the last so that a finished one is swapped with one visited
+ private void advance(long now) {
+
+  for (int i = mNumOfAnimated - 1; i >= 0; i--) {
+   int index = mAnimated[i];
+   long duration = mKinds[index] == VANISH ? VANISH_DURATION
+     : FLIP_DURATION;
+   long elapsed = now - mStarts[index];
+
+   if (elapsed >= duration) {
+    remove(index);
+   } else {
+    mProgress[index] = ease(Math.max(0, elapsed) / (float) duration);
+   }
+   mListener.animate(index);
+  }
+ }
+
+ // This method ends the animation of a card
+ private void remove(int index) {
+
+  int slot = mSlots[index];
+  int last = mAnimated[--mNumOfAnimated];
+  mAnimated[slot] = last;
+  mSlots[last] = slot;
+  mSlots[index] = -1;
+  mKinds[index] = NONE;
+  mProgress[index] = 1;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,632 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The rules of a Memory game, free of any user interface. A Game holds a deal
+ * of cards grouped in pairs, the cards the player turned face up and the
+ * pairs that have been matched, so that many games can be played without a
+ * display. The types are kept in a short[] and the state of the cards in
+ * three bitsets (face up, matched and removed), one bit per card, which keeps
+ * even large boards small and cheap to copy.
+ *
+ * A card is addressed by its index on the board, i.e. column + (number of
+ * columns * row).
+ *
+ * The whole state of a game can be saved to a ByteBuffer and restored from
+ * it, see save(ByteBuffer), in a compact binary snapshot of about 2 bytes
+ * per card.
+ */
+public class Game {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Game: ";
+
+ // Logic constants
+ private static final int DEFAULT_NUMBER_OF_CARDS = 24;
+ private static final int MIN_NUMBER_OF_CARDS = 2;
+ private static final int MIN_TYPE = 0;
+ private static final int MAX_TYPE = Short.MAX_VALUE;
+
+ // Bitsets, 64 cards per word
+ private static final int ADDRESS_BITS_PER_WORD = 6;
+
+ // Snapshot header: number of cards, selected card, pending pair, matched
+ // pairs, failed attempts and removed cards
+ private static final int SNAPSHOT_HEADER_SIZE = 7 * 4;
+
+ /**
+  * Index used when no card is selected.
+  */
+ public static final int NO_CARD = -1;
+
+ // Flip results
+ /**
+  * The flip was refused, the card is matched or already selected.
+  */
+ public static final int FLIP_IGNORED = 0;
+ /**
+  * The card is the first one of a pair of selected cards.
+  */
+ public static final int FLIP_FIRST = 1;
+ /**
+  * The card completed a pair of cards of the same type.
+  */
+ public static final int FLIP_MATCH = 2;
+ /**
+  * The card completed a pair of cards of different types.
+  */
+ public static final int FLIP_MISMATCH = 3;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfCards;
+ private final int mNumOfPairs;
+
+ private short[] mTypes;
+ private long[] mFaceUp;
+ private long[] mMatched;
+ private long[] mRemoved;
+
+ // The card waiting for its partner
+ private int mSelectedCard = NO_CARD;
+ // The last resolved pair, face up until settled
+ private int mPendingFirst = NO_CARD;
+ private int mPendingSecond = NO_CARD;
+
+ private int mNumOfMatchedPairs = 0;
+ private int mNumOfFailedAttempts = 0;
+ private int mNumOfRemovedCards = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a game of 24 cards.
+  */
+ public Game() {
+  this(DEFAULT_NUMBER_OF_CARDS);
+ }
+
+ /**
+  * Creates a game of the specified number of cards.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of every deal, an even number of at
+  *            least 2
+  */
+ public Game(int aNumOfCards) {
+
+  if (aNumOfCards < MIN_NUMBER_OF_CARDS || aNumOfCards % 2 != 0) {
+   error("Game(int) reported \"Invalid number of cards\"", true);
+  }
+
+  mNumOfCards = aNumOfCards;
+  mNumOfPairs = aNumOfCards / 2;
+  int numOfWords = ((aNumOfCards - 1) >>> ADDRESS_BITS_PER_WORD) + 1;
+
+  mTypes = new short[aNumOfCards];
+  mFaceUp = new long[numOfWords];
+  mMatched = new long[numOfWords];
+  mRemoved = new long[numOfWords];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method lays a new deal of cards face down and resets the score.
+  *
+  * @param aTypes
+  *            holds the type of each card, between 0 and 32767, every type
+  *            appearing in pairs
+  */
+ public void deal(int[] aTypes) {
+
+  if (aTypes == null || aTypes.length != mNumOfCards) {
+   error("deal(int[]) reported \"Invalid deal\"", true);
+   return;
+  }
+
+  for (int i = 0; i < mNumOfCards; i++) {
+   if (aTypes[i] < MIN_TYPE || aTypes[i] > MAX_TYPE) {
+    error("deal(int[]) reported \"Invalid type code\"", true);
+   }
+   mTypes[i] = (short) aTypes[i];
+  }
+
+  restart();
+ }
+
+ /**
+  * This method lays the current deal face down again and resets the score,
+  * i.e. replay
+  */
+ public void restart() {
+
+  Arrays.fill(mFaceUp, 0L);
+  Arrays.fill(mMatched, 0L);
+  Arrays.fill(mRemoved, 0L);
+
+  mSelectedCard = NO_CARD;
+  mPendingFirst = NO_CARD;
+  mPendingSecond = NO_CARD;
+  mNumOfMatchedPairs = 0;
+  mNumOfFailedAttempts = 0;
+  mNumOfRemovedCards = 0;
+ }
+
+ /**
+  * This method turns a card face up. The first card of a pair stays
+  * selected, the second one resolves the pair: same types are matched,
+  * different types count as a failed attempt. A resolved pair stays face
+  * up until it is settled, either explicitly or by the next flip.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return one of FLIP_IGNORED, FLIP_FIRST, FLIP_MATCH or FLIP_MISMATCH
+  */
+ public int flip(int anIndex) {
+
+  if (anIndex < 0 || anIndex >= mNumOfCards) {
+   error("flip(int) received an invalid index", false);
+   return FLIP_IGNORED;
+  }
+
+  // The player isn't allowed to select matched cards or the same card
+  // twice
+  if (isSet(mMatched, anIndex) || anIndex == mSelectedCard) {
+   return FLIP_IGNORED;
+  }
+
+  settle();
+  set(mFaceUp, anIndex);
+
+  if (mSelectedCard == NO_CARD) {
+   mSelectedCard = anIndex;
+   return FLIP_FIRST;
+  }
+
+  int first = mSelectedCard;
+  mSelectedCard = NO_CARD;
+  mPendingFirst = first;
+  mPendingSecond = anIndex;
+
+  if (mTypes[first] == mTypes[anIndex]) {
+   set(mMatched, first);
+   set(mMatched, anIndex);
+   mNumOfMatchedPairs++;
+   return FLIP_MATCH;
+  }
+
+  mNumOfFailedAttempts++;
+  return FLIP_MISMATCH;
+ }
+
+ /**
+  * This method turns the last resolved pair face down, matched cards are
+  * then removed from the board.
+  *
+  * @return true if a pair was face up, false if there was nothing to settle
+  */
+ public boolean settle() {
+
+  if (mPendingFirst == NO_CARD) {
+   return false;
+  }
+
+  clear(mFaceUp, mPendingFirst);
+  clear(mFaceUp, mPendingSecond);
+
+  if (isSet(mMatched, mPendingFirst)) {
+   set(mRemoved, mPendingFirst);
+   set(mRemoved, mPendingSecond);
+   mNumOfRemovedCards += 2;
+  }
+
+  mPendingFirst = NO_CARD;
+  mPendingSecond = NO_CARD;
+
+  return true;
+ }
+
+ /**
+  * This method gets the type of a card.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return the type of the card, whether it is visible or not
+  */
+ public int getType(int anIndex) {
+
+  return mTypes[anIndex];
+ }
+
+ /**
+  * This method checks if a card is face up.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card is selected or belongs to the pair that was just
+  *         resolved
+  */
+ public boolean isFaceUp(int anIndex) {
+
+  return isSet(mFaceUp, anIndex);
+ }
+
+ /**
+  * This method checks if a card is matched.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card was paired with its sister card
+  */
+ public boolean isMatched(int anIndex) {
+
+  return isSet(mMatched, anIndex);
+ }
+
+ /**
+  * This method checks if a card has been removed from the board.
+  *
+  * @param anIndex
+  *            is the index of the card on the board
+  * @return true if the card is matched and was settled
+  */
+ public boolean isRemoved(int anIndex) {
+
+  return isSet(mRemoved, anIndex);
+ }
+
+ /**
+  * This method gets the card waiting for its partner.
+  *
+  * @return the index of the selected card, or NO_CARD
+  */
+ public int getSelectedCard() {
+
+  return mSelectedCard;
+ }
+
+ /**
+  * This method gets the first card of the pair that is still face up.
+  *
+  * @return the index of the card, or NO_CARD if there is nothing to settle
+  */
+ public int getPendingFirst() {
+
+  return mPendingFirst;
+ }
+
+ /**
+  * This method gets the second card of the pair that is still face up.
+  *
+  * @return the index of the card, or NO_CARD if there is nothing to settle
+  */
+ public int getPendingSecond() {
+
+  return mPendingSecond;
+ }
+
+ /**
+  * This method gets the number of cards of the deal.
+  *
+  * @return the number of cards
+  */
+ public int getNumOfCards() {
+
+  return mNumOfCards;
+ }
+
+ /**
+  * This method gets the number of pairs of the deal.
+  *
+  * @return the number of pairs
+  */
+ public int getNumOfPairs() {
+
+  return mNumOfPairs;
+ }
+
+ /**
+  * This method gets the number of pairs still on the board.
+  *
+  * @return the number of pairs left to match
+  */
+ public int getNumOfRemainingPairs() {
+
+  return mNumOfPairs - mNumOfMatchedPairs;
+ }
+
+ /**
+  * This method gets the number of cards still on the board, the cards of
+  * a matched pair stay on the board until the pair is settled.
+  *
+  * @return the number of cards that weren't removed
+  */
+ public int getNumOfRemainingCards() {
+
+  return mNumOfCards - mNumOfRemovedCards;
+ }
+
+ /**
+  * This method gets the number of pairs matched so far.
+  *
+  * @return the number of matched pairs
+  */
+ public int getNumOfMatchedPairs() {
+
+  return mNumOfMatchedPairs;
+ }
+
+ /**
+  * This method gets the number of pairs of different types selected so far.
+  *
+  * @return the number of failed attempts
+  */
+ public int getNumOfFailedAttempts() {
+
+  return mNumOfFailedAttempts;
+ }
+
+ /**
+  * This method gets the score of the game.
+  *
+  * @return the number of failed attempts as a percentage of the number of
+  *         cards
+  */
+ public float getErrorPercentage() {
+
+  return (((float) mNumOfFailedAttempts) / ((float) mNumOfCards)) * 100;
+ }
+
+ /**
+  * This method checks if the game is solved or not.
+  *
+  * @return true if every pair has been matched, false if there remains
+  *         cards that have to be matched
+  */
+ public boolean isSolved() {
+
+  return mNumOfMatchedPairs == mNumOfPairs;
+ }
+
+ /**
+  * This method writes the state of the game at the position of a buffer:
+  * the deal, the face up, matched and removed cards, the selected card, the
+  * pair waiting to be settled and the score. The buffer's position is moved
+  * past the snapshot.
+  *
+  * @param aBuffer
+  *            receives the snapshot, it must have getSnapshotSize() bytes
+  *            left
+  */
+ public void save(ByteBuffer aBuffer) {
+
+  aBuffer.putInt(mNumOfCards);
+  aBuffer.putInt(mSelectedCard);
+  aBuffer.putInt(mPendingFirst);
+  aBuffer.putInt(mPendingSecond);
+  aBuffer.putInt(mNumOfMatchedPairs);
+  aBuffer.putInt(mNumOfFailedAttempts);
+  aBuffer.putInt(mNumOfRemovedCards);
+
+  // A bulk copy through a view, the buffer is then moved past it
+  aBuffer.asShortBuffer().put(mTypes);
+  aBuffer.position(aBuffer.position() + 2 * mNumOfCards);
+  putBits(aBuffer, mFaceUp);
+  putBits(aBuffer, mMatched);
+  putBits(aBuffer, mRemoved);
+ }
+
+ /**
+  * This method replaces the state of the game by a snapshot written by
+  * save(ByteBuffer). The buffer's position is moved past the snapshot.
+  *
+  * @param aBuffer
+  *            holds the snapshot at its position
+  * @return false if the snapshot is of a game of another size or is
+  *         corrupted, the game is then restarted
+  */
+ public boolean restore(ByteBuffer aBuffer) {
+
+  if (aBuffer.remaining() < getSnapshotSize()
+    || aBuffer.getInt() != mNumOfCards) {
+   restart();
+   return false;
+  }
+
+  mSelectedCard = aBuffer.getInt();
+  mPendingFirst = aBuffer.getInt();
+  mPendingSecond = aBuffer.getInt();
+  mNumOfMatchedPairs = aBuffer.getInt();
+  mNumOfFailedAttempts = aBuffer.getInt();
+  mNumOfRemovedCards = aBuffer.getInt();
+
+  boolean isValid = isCard(mSelectedCard) && isCard(mPendingFirst)
+    && isCard(mPendingSecond) && mNumOfMatchedPairs >= 0
+    && mNumOfMatchedPairs <= mNumOfPairs && mNumOfFailedAttempts >= 0
+    && mNumOfRemovedCards >= 0
+    && mNumOfRemovedCards <= 2 * mNumOfMatchedPairs;
+
+  aBuffer.asShortBuffer().get(mTypes);
+  aBuffer.position(aBuffer.position() + 2 * mNumOfCards);
+  for (int i = 0; i < mNumOfCards; i++) {
+   isValid &= mTypes[i] >= MIN_TYPE;
+  }
+  getBits(aBuffer, mFaceUp);
+  getBits(aBuffer, mMatched);
+  getBits(aBuffer, mRemoved);
+
+  // Each field may be in range and the snapshot still torn, the fields
+  // have to agree with each other
+  isValid = isValid && isConsistent();
+  if (!isValid) {
+   restart();
+  }
+  return isValid;
+ }
+
+ /**
+  * This method gets the size of a snapshot of this game.
+  *
+  * @return the number of bytes written by save(ByteBuffer)
+  */
+ public int getSnapshotSize() {
+
+  return getSnapshotSize(mNumOfCards);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the size of a snapshot of a game.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the game
+  * @return the number of bytes written by save(ByteBuffer)
+  */
+ public static int getSnapshotSize(int aNumOfCards) {
+
+  int numOfWords = ((aNumOfCards - 1) >>> ADDRESS_BITS_PER_WORD) + 1;
+  return SNAPSHOT_HEADER_SIZE + 2 * aNumOfCards + 3 * 8 * numOfWords;
+ }
+
+ // This method checks that an index is a card or NO_CARD
+ private boolean isCard(int index) {
+  return index >= NO_CARD && index < mNumOfCards;
+ }
+
+ // This method checks that a restored state is one that flips can reach:
+ // the types pair up, the selected card or the pending pair are the cards
+ // face up, and the bitsets agree with the score
+ private boolean isConsistent() {
+
+  if (!isPaired(mTypes, mNumOfCards)) {
+   return false;
+  }
+
+  // No bit past the last card
+  int lastBits = mNumOfCards & ((1 << ADDRESS_BITS_PER_WORD) - 1);
+  long outside = lastBits == 0 ? 0L : -1L << lastBits;
+  int last = mFaceUp.length - 1;
+  if (((mFaceUp[last] | mMatched[last] | mRemoved[last]) & outside) != 0) {
+   return false;
+  }
+
+  // A selected card and a pending pair are never face up together
+  boolean isPending = mPendingFirst != NO_CARD;
+  if (isPending != (mPendingSecond != NO_CARD)
+    || (isPending && (mPendingFirst == mPendingSecond
+      || mSelectedCard != NO_CARD || !isSet(mFaceUp, mPendingFirst)
+      || !isSet(mFaceUp, mPendingSecond)))) {
+   return false;
+  }
+  if (mSelectedCard != NO_CARD
+    && (!isSet(mFaceUp, mSelectedCard) || isSet(mMatched, mSelectedCard))) {
+   return false;
+  }
+
+  // Only the cards of a pending match are matched and not yet removed
+  int numOfPending = 0;
+  if (isPending && mTypes[mPendingFirst] == mTypes[mPendingSecond]) {
+   if (!isSet(mMatched, mPendingFirst) || !isSet(mMatched, mPendingSecond)) {
+    return false;
+   }
+   numOfPending = 2;
+  } else if (isPending
+    && (isSet(mMatched, mPendingFirst) || isSet(mMatched, mPendingSecond))) {
+   return false;
+  }
+
+  int numOfFaceUp = 0;
+  int numOfMatched = 0;
+  int numOfRemoved = 0;
+  for (int i = 0; i < mFaceUp.length; i++) {
+   if ((mRemoved[i] & ~mMatched[i]) != 0 || (mRemoved[i] & mFaceUp[i]) != 0) {
+    return false;
+   }
+   numOfFaceUp += Long.bitCount(mFaceUp[i]);
+   numOfMatched += Long.bitCount(mMatched[i]);
+   numOfRemoved += Long.bitCount(mRemoved[i]);
+  }
+  if (numOfFaceUp != (isPending ? 2 : mSelectedCard != NO_CARD ? 1 : 0)
+    || numOfMatched != 2 * mNumOfMatchedPairs
+    || numOfRemoved != mNumOfRemovedCards
+    || numOfRemoved != numOfMatched - numOfPending) {
+   return false;
+  }
+
+  // The matched cards pair up by type too
+  short[] matched = new short[numOfMatched];
+  for (int i = 0, j = 0; i < mNumOfCards; i++) {
+   if (isSet(mMatched, i)) {
+    matched[j++] = mTypes[i];
+   }
+  }
+  return isPaired(matched, matched.length);
+ }
+
+ // This method checks that every type of a list appears an even number of
+ // times
+ private static boolean isPaired(short[] types, int length) {
+
+  short[] sorted = Arrays.copyOf(types, length);
+  Arrays.sort(sorted);
+  for (int i = 0; i < length; i += 2) {
+   if (sorted[i] != sorted[i + 1]) {
+    return false;
+   }
+  }
+  return true;
+ }
+
+ // This method writes a bitset to a snapshot
+ private static void putBits(ByteBuffer buffer, long[] bits) {
+  for (int i = 0; i < bits.length; i++) {
+   buffer.putLong(bits[i]);
+  }
+ }
+
+ // This method reads a bitset from a snapshot
+ private static void getBits(ByteBuffer buffer, long[] bits) {
+  for (int i = 0; i < bits.length; i++) {
+   bits[i] = buffer.getLong();
+  }
+ }
+
+ // This method checks the bit of a card in a bitset
+ private static boolean isSet(long[] bits, int index) {
+  return (bits[index >>> ADDRESS_BITS_PER_WORD] & (1L << index)) != 0;
+ }
+
+ // This method sets the bit of a card in a bitset
+ private static void set(long[] bits, int index) {
+  bits[index >>> ADDRESS_BITS_PER_WORD] |= 1L << index;
+ }
+
+ // This method clears the bit of a card in a bitset
+ private static void clear(long[] bits, int index) {
+  bits[index >>> ADDRESS_BITS_PER_WORD] &= ~(1L << index);
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,446 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * The game of one remote player. A GameSession owns its Game, its deals and
+ * its counters, nothing is shared with the other sessions of the server,
+ * unless the player joins a table: the board of a table is played by every
+ * session that joined it at the same time, see SharedBoards. It speaks a
+ * line protocol, one ASCII command per line:
+ *
+ * <pre>
+ * NEW rows columns [seed]   deals a new game        DEALT cards seed
+ * JOIN table rows columns   plays a table's board   JOINED table cards seed
+ * FLIP index                turns a card            FIRST index type
+ *                                                   MATCH index type matched failed
+ *                                                   MISMATCH index type failed
+ *                                                   IGNORED index
+ * STATE                     gives the score         STATE cards matched failed remaining
+ * QUIT                      ends the session        BYE
+ * </pre>
+ *
+ * A malformed command is answered with "ERR reason". The lines are parsed
+ * and the replies written without creating any String. On a table, the
+ * score of the replies includes the flips of the other players, and NEW
+ * leaves the table.
+ */
+public class GameSession {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * The longest reply of the protocol, in bytes.
+  */
+ public static final int MAX_REPLY_LENGTH = 64;
+
+ private static final int MIN_SIZE = 2;
+ private static final int MAX_SIZE = 256;
+
+ // Commands
+ private static final byte[] NEW = ascii("NEW");
+ private static final byte[] JOIN = ascii("JOIN");
+ private static final byte[] FLIP = ascii("FLIP");
+ private static final byte[] STATE = ascii("STATE");
+ private static final byte[] QUIT = ascii("QUIT");
+
+ // Replies
+ private static final byte[] DEALT_REPLY = ascii("DEALT ");
+ private static final byte[] JOINED_REPLY = ascii("JOINED ");
+ private static final byte[] FIRST_REPLY = ascii("FIRST ");
+ private static final byte[] MATCH_REPLY = ascii("MATCH ");
+ private static final byte[] MISMATCH_REPLY = ascii("MISMATCH ");
+ private static final byte[] IGNORED_REPLY = ascii("IGNORED ");
+ private static final byte[] STATE_REPLY = ascii("STATE ");
+ private static final byte[] BYE_REPLY = ascii("BYE\n");
+ private static final byte[] UNKNOWN_COMMAND = ascii("ERR unknown command\n");
+ private static final byte[] INVALID_SIZE = ascii("ERR invalid size\n");
+ private static final byte[] INVALID_INDEX = ascii("ERR invalid index\n");
+ private static final byte[] NO_GAME = ascii("ERR no game\n");
+ private static final byte[] INVALID_TABLE = ascii("ERR invalid table\n");
+ private static final byte[] OTHER_SIZE = ascii("ERR table of another size\n");
+
+ private static final byte SPACE = ' ';
+ private static final byte NEW_LINE = '\n';
+ private static final long NO_NUMBER = Long.MIN_VALUE;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final SplittableRandom mSeeds;
+ private final SharedBoards mSharedBoards;
+ private Game mGame = null;
+ private int[] mDeal = null;
+ private long mSeed = 0;
+ // The game of the table joined, played in place of mGame, or null
+ private ConcurrentGame mSharedGame = null;
+ private long mLastActivity = 0;
+
+ // Cursor of the line being parsed
+ private int mCursor = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a session without a game.
+  *
+  * @param aSeeds
+  *            is the source of the seeds of the deals of this session
+  */
+ public GameSession(SplittableRandom aSeeds) {
+  this(aSeeds, null);
+ }
+
+ /**
+  * Creates a session without a game, that can join the tables of a server.
+  *
+  * @param aSeeds
+  *            is the source of the seeds of the deals of this session
+  * @param aSharedBoards
+  *            are the tables, or null if the session plays alone
+  */
+ public GameSession(SplittableRandom aSeeds, SharedBoards aSharedBoards) {
+  mSeeds = aSeeds;
+  mSharedBoards = aSharedBoards;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method handles one line of the protocol.
+  *
+  * @param aLine
+  *            holds the line, without its end of line
+  * @param anOffset
+  *            is the start of the line in aLine
+  * @param aLength
+  *            is the length of the line
+  * @param aReply
+  *            receives the reply, it must have MAX_REPLY_LENGTH bytes left
+  * @return false if the session is over
+  */
+ public boolean handle(byte[] aLine, int anOffset, int aLength,
+   ByteBuffer aReply) {
+
+  int end = anOffset + aLength;
+  // Tolerate the \r of \r\n
+  if (end > anOffset && aLine[end - 1] == '\r') {
+   end--;
+  }
+  mCursor = anOffset;
+
+  if (command(aLine, end, FLIP)) {
+   flip(aLine, end, aReply);
+  } else if (command(aLine, end, NEW)) {
+   deal(aLine, end, aReply);
+  } else if (mSharedBoards != null && command(aLine, end, JOIN)) {
+   join(aLine, end, aReply);
+  } else if (command(aLine, end, STATE)) {
+   state(aReply);
+  } else if (command(aLine, end, QUIT)) {
+   aReply.put(BYE_REPLY);
+   return false;
+  } else {
+   aReply.put(UNKNOWN_COMMAND);
+  }
+
+  return true;
+ }
+
+ /**
+  * This method gets the game of this session, when it doesn't play a
+  * table.
+  *
+  * @return the game, or null before the first NEW
+  */
+ public Game getGame() {
+
+  return mGame;
+ }
+
+ /**
+  * This method gets the time of the last command.
+  *
+  * @return the value of System.nanoTime() when the session was last used
+  */
+ public long getLastActivity() {
+
+  return mLastActivity;
+ }
+
+ /**
+  * This method records that the session was used.
+  *
+  * @param aNanoTime
+  *            is the current value of System.nanoTime()
+  */
+ public void touch(long aNanoTime) {
+
+  mLastActivity = aNanoTime;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // NEW rows columns [seed]
+ private void deal(byte[] line, int end, ByteBuffer reply) {
+
+  long rows = number(line, end);
+  long columns = number(line, end);
+  long seed = number(line, end);
+
+  if (rows < MIN_SIZE || rows > MAX_SIZE || columns < MIN_SIZE
+    || columns > MAX_SIZE || (rows * columns) % 2 != 0) {
+   reply.put(INVALID_SIZE);
+   return;
+  }
+
+  int numOfCards = (int) (rows * columns);
+  if (mGame == null || mGame.getNumOfCards() != numOfCards) {
+   mGame = new Game(numOfCards);
+   mDeal = new int[numOfCards];
+  }
+
+  mSeed = seed == NO_NUMBER ? mSeeds.nextLong() : seed;
+  new Dealer(mSeed).deal(mDeal);
+  mGame.deal(mDeal);
+  mSharedGame = null;
+
+  reply.put(DEALT_REPLY);
+  putNumber(reply, numOfCards);
+  reply.put(SPACE);
+  putNumber(reply, mSeed);
+  reply.put(NEW_LINE);
+ }
+
+ // JOIN table rows columns
+ private void join(byte[] line, int end, ByteBuffer reply) {
+
+  long table = number(line, end);
+  long rows = number(line, end);
+  long columns = number(line, end);
+
+  if (table < 0 || table >= SharedBoards.NUMBER_OF_TABLES) {
+   reply.put(INVALID_TABLE);
+   return;
+  }
+  if (rows < MIN_SIZE || rows > MAX_SIZE || columns < MIN_SIZE
+    || columns > MAX_SIZE || (rows * columns) % 2 != 0
+    || rows * columns > ConcurrentGame.MAX_NUMBER_OF_CARDS) {
+   reply.put(INVALID_SIZE);
+   return;
+  }
+
+  SharedBoards.Table joined = mSharedBoards.join((int) table,
+    (int) (rows * columns), mSeeds.nextLong());
+  if (joined == null) {
+   reply.put(OTHER_SIZE);
+   return;
+  }
+  mSharedGame = joined.getGame();
+
+  reply.put(JOINED_REPLY);
+  putNumber(reply, table);
+  reply.put(SPACE);
+  putNumber(reply, mSharedGame.getNumOfCards());
+  reply.put(SPACE);
+  putNumber(reply, joined.getSeed());
+  reply.put(NEW_LINE);
+ }
+
+ // FLIP index
+ private void flip(byte[] line, int end, ByteBuffer reply) {
+
+  if (mGame == null && mSharedGame == null) {
+   reply.put(NO_GAME);
+   return;
+  }
+
+  long index = number(line, end);
+  int numOfCards = mSharedGame != null ? mSharedGame.getNumOfCards()
+    : mGame.getNumOfCards();
+  if (index < 0 || index >= numOfCards) {
+   reply.put(INVALID_INDEX);
+   return;
+  }
+
+  // The score of a table is read after the flip, other players' flips included
+  int card = (int) index;
+  int result;
+  int type;
+  int numOfMatchedPairs;
+  int numOfFailedAttempts;
+  if (mSharedGame != null) {
+   result = mSharedGame.flip(card);
+   type = mSharedGame.getType(card);
+   numOfMatchedPairs = mSharedGame.getNumOfMatchedPairs();
+   numOfFailedAttempts = mSharedGame.getNumOfFailedAttempts();
+  } else {
+   result = mGame.flip(card);
+   type = mGame.getType(card);
+   numOfMatchedPairs = mGame.getNumOfMatchedPairs();
+   numOfFailedAttempts = mGame.getNumOfFailedAttempts();
+  }
+
+  switch (result) {
+  case Game.FLIP_FIRST:
+   reply.put(FIRST_REPLY);
+   putNumber(reply, card);
+   reply.put(SPACE);
+   putNumber(reply, type);
+   break;
+  case Game.FLIP_MATCH:
+   reply.put(MATCH_REPLY);
+   putNumber(reply, card);
+   reply.put(SPACE);
+   putNumber(reply, type);
+   reply.put(SPACE);
+   putNumber(reply, numOfMatchedPairs);
+   reply.put(SPACE);
+   putNumber(reply, numOfFailedAttempts);
+   break;
+  case Game.FLIP_MISMATCH:
+   reply.put(MISMATCH_REPLY);
+   putNumber(reply, card);
+   reply.put(SPACE);
+   putNumber(reply, type);
+   reply.put(SPACE);
+   putNumber(reply, numOfFailedAttempts);
+   break;
+  default:
+   reply.put(IGNORED_REPLY);
+   putNumber(reply, card);
+   break;
+  }
+
+  reply.put(NEW_LINE);
+ }
+
+ // STATE
+ private void state(ByteBuffer reply) {
+
+  if (mSharedGame != null) {
+   putState(reply, mSharedGame.getNumOfCards(),
+     mSharedGame.getNumOfMatchedPairs(),
+     mSharedGame.getNumOfFailedAttempts(),
+     mSharedGame.getNumOfRemainingCards());
+  } else if (mGame != null) {
+   putState(reply, mGame.getNumOfCards(), mGame.getNumOfMatchedPairs(),
+     mGame.getNumOfFailedAttempts(), mGame.getNumOfRemainingCards());
+  } else {
+   reply.put(NO_GAME);
+  }
+ }
+
+ // This method checks the command word of a line and moves past it
+ private boolean command(byte[] line, int end, byte[] word) {
+
+  int length = word.length;
+  if (end - mCursor < length) {
+   return false;
+  }
+
+  for (int i = 0; i < length; i++) {
+   if (line[mCursor + i] != word[i]) {
+    return false;
+   }
+  }
+
+  // The word must end the line or be followed by a space
+  if (mCursor + length < end && line[mCursor + length] != SPACE) {
+   return false;
+  }
+
+  mCursor += length;
+  return true;
+ }
+
+ // This method parses the next decimal number of a line, NO_NUMBER if the
+ // line has no more numbers or the number is malformed
+ private long number(byte[] line, int end) {
+
+  while (mCursor < end && line[mCursor] == SPACE) {
+   mCursor++;
+  }
+  if (mCursor == end) {
+   return NO_NUMBER;
+  }
+
+  boolean negative = line[mCursor] == '-';
+  if (negative) {
+   mCursor++;
+  }
+
+  long value = 0;
+  int digits = 0;
+  while (mCursor < end && line[mCursor] != SPACE) {
+   int digit = line[mCursor++] - '0';
+   if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+    return NO_NUMBER;
+   }
+   value = value * 10 + digit;
+   digits++;
+  }
+
+  if (digits == 0) {
+   return NO_NUMBER;
+  }
+  return negative ? -value : value;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method writes a STATE reply
+ private static void putState(ByteBuffer reply, int numOfCards,
+   int numOfMatchedPairs, int numOfFailedAttempts, int numOfRemainingCards) {
+
+  reply.put(STATE_REPLY);
+  putNumber(reply, numOfCards);
+  reply.put(SPACE);
+  putNumber(reply, numOfMatchedPairs);
+  reply.put(SPACE);
+  putNumber(reply, numOfFailedAttempts);
+  reply.put(SPACE);
+  putNumber(reply, numOfRemainingCards);
+  reply.put(NEW_LINE);
+ }
+
+ // This method writes a decimal number
+ private static void putNumber(ByteBuffer buffer, long value) {
+
+  if (value < 0) {
+   buffer.put((byte) '-');
+   if (value == Long.MIN_VALUE) {
+    // No positive counterpart, write the first digit apart
+    buffer.put((byte) '9');
+    value = -(value + 9000000000000000000L);
+   } else {
+    value = -value;
+   }
+  }
+
+  long divisor = 1;
+  while (divisor <= value / 10) {
+   divisor *= 10;
+  }
+  for (; divisor > 0; divisor /= 10) {
+   buffer.put((byte) ('0' + (value / divisor) % 10));
+  }
+ }
+
+ // This method encodes a constant of the protocol
+ private static byte[] ascii(String text) {
+  return text.getBytes(StandardCharsets.US_ASCII);
+ }
+
+}
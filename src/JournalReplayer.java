@@ -0,0 +1,418 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+
+/**
+ * Replays the games of move journals without a display, to audit the
+ * scores. Every game is dealt again from the seed of its 'G' record and its
+ * flips are played on a Game: a game is flagged when a flip doesn't give the
+ * recorded result, or when the failed attempts of its 'S' record aren't the
+ * ones of the replay. A game resumed from the middle replays from the state
+ * of its 'C' record. See MoveJournal for the format.
+ *
+ * The journals are streamed through one buffer, whatever their length, so a
+ * day of games is checked in one pass.
+ */
+public class JournalReplayer {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "JournalReplayer: ";
+
+ private static final int BUFFER_SIZE = 1024 * 1024;
+ // The largest board, 256 x 256
+ private static final int MAX_NUMBER_OF_CARDS = 256 * 256;
+ // The largest face of a deal
+ private static final int MAX_FACE = Short.MAX_VALUE;
+ // The largest state of a 'C' record, it fits the buffer
+ private static final int MAX_SNAPSHOT_SIZE = Game
+   .getSnapshotSize(MAX_NUMBER_OF_CARDS);
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+ private final boolean mIsVerbose;
+ // Where the recall of the cards is analysed, if anywhere
+ private RecallStats mRecallStats = null;
+
+ // The game being replayed, null between games
+ private Game mGame = null;
+ private int[] mDeal = null;
+ private long mSeed = 0;
+ private boolean mIsFlagged = false;
+
+ // Totals
+ private long mNumOfGames = 0;
+ private long mNumOfMoves = 0;
+ private long mNumOfVerifiedGames = 0;
+ private long mNumOfFlaggedGames = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a replayer.
+  *
+  * @param isVerbose
+  *            is true to print the reason of every flagged game
+  */
+ public JournalReplayer(boolean isVerbose) {
+  mIsVerbose = isVerbose;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method analyses where the cards are forgotten in the games that
+  * follow.
+  *
+  * @param aRecallStats
+  *            are the statistics, fed the games of their size, or null
+  */
+ public void setRecallStats(RecallStats aRecallStats) {
+
+  mRecallStats = aRecallStats;
+ }
+
+ /**
+  * This method replays every record of a journal.
+  *
+  * @param aJournal
+  *            is the journal, read until its end
+  * @return false if the journal isn't a move journal or ends in the middle
+  *         of a record
+  */
+ public boolean replay(ReadableByteChannel aJournal) throws IOException {
+
+  mBuffer.clear();
+
+  while (aJournal.read(mBuffer) >= 0) {
+   mBuffer.flip();
+   if (!replayRecords()) {
+    return false;
+   }
+   mBuffer.compact();
+  }
+
+  return mBuffer.position() == 0;
+ }
+
+ /**
+  * This method gets the number of games replayed, a deal played again
+  * counts as a new game.
+  */
+ public long getNumOfGames() {
+
+  return mNumOfGames;
+ }
+
+ /**
+  * This method gets the number of flips replayed.
+  */
+ public long getNumOfMoves() {
+
+  return mNumOfMoves;
+ }
+
+ /**
+  * This method gets the number of solved games whose score was checked.
+  */
+ public long getNumOfVerifiedGames() {
+
+  return mNumOfVerifiedGames;
+ }
+
+ /**
+  * This method gets the number of games that don't replay as recorded.
+  */
+ public long getNumOfFlaggedGames() {
+
+  return mNumOfFlaggedGames;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method replays the complete records of the buffer
+ private boolean replayRecords() {
+
+  while (mBuffer.hasRemaining()) {
+
+   int position = mBuffer.position();
+   byte tag = mBuffer.get(position);
+   int size = tag == MoveJournal.GAME_RECORD ? MoveJournal.GAME_RECORD_SIZE
+     : tag == MoveJournal.JOURNAL_RECORD ? MoveJournal.JOURNAL_RECORD_SIZE
+       : tag == MoveJournal.RESUMED_RECORD
+         ? MoveJournal.RESUMED_RECORD_HEADER_SIZE
+         : MoveJournal.MOVE_RECORD_SIZE;
+
+   // A 'C' record is as long as its snapshot
+   int snapshotSize = 0;
+   if (tag == MoveJournal.RESUMED_RECORD && mBuffer.remaining() >= size) {
+    snapshotSize = mBuffer.getInt(position + 4);
+    if (snapshotSize < 0 || snapshotSize > MAX_SNAPSHOT_SIZE) {
+     error("replay(ReadableByteChannel) reported \"Invalid record\"",
+       false);
+     return false;
+    }
+    size += MoveJournal.align(snapshotSize);
+   }
+
+   if (mBuffer.remaining() < size) {
+    // The rest comes with the next read
+    return true;
+   }
+
+   switch (tag) {
+   case MoveJournal.FLIP_RECORD:
+    flip(mBuffer.get(position + 1), mBuffer.getInt(position + 4),
+      mBuffer.getLong(position + 8));
+    break;
+   case MoveJournal.SOLVED_RECORD:
+    solved(mBuffer.getInt(position + 4));
+    break;
+   case MoveJournal.RESTART_RECORD:
+    restart();
+    break;
+   case MoveJournal.RESUMED_RECORD:
+    resumed(position + MoveJournal.RESUMED_RECORD_HEADER_SIZE, snapshotSize);
+    break;
+   case MoveJournal.GAME_RECORD:
+    newGame(mBuffer.getInt(position + 4), mBuffer.getLong(position + 8),
+      mBuffer.getInt(position + 16), mBuffer.getInt(position + 20));
+    break;
+   case MoveJournal.JOURNAL_RECORD:
+    if (mBuffer.getInt(position + 4) != MoveJournal.MAGIC) {
+     error("replay(ReadableByteChannel) reported \"Invalid journal\"",
+       false);
+     return false;
+    }
+    break;
+   default:
+    error("replay(ReadableByteChannel) reported \"Invalid record\"", false);
+    return false;
+   }
+
+   mBuffer.position(position + size);
+  }
+
+  return true;
+ }
+
+ // This method deals the game of a 'G' record
+ private void newGame(int numOfCards, long seed, int firstFace, int numOfFaces) {
+
+  mNumOfGames++;
+  mSeed = seed;
+  mIsFlagged = false;
+
+  if (numOfCards < 2 || numOfCards > MAX_NUMBER_OF_CARDS
+    || numOfCards % 2 != 0 || firstFace < 0
+    || numOfFaces < 1 || firstFace + numOfFaces > MAX_FACE + 1) {
+   mGame = null;
+   flag("invalid deal");
+   return;
+  }
+
+  if (mGame == null || mGame.getNumOfCards() != numOfCards) {
+   mGame = new Game(numOfCards);
+   mDeal = new int[numOfCards];
+  }
+
+  new Dealer(seed, firstFace, numOfFaces).deal(mDeal);
+  mGame.deal(mDeal);
+  if (mRecallStats != null) {
+   mRecallStats.deal(mGame);
+  }
+ }
+
+ // This method replays an 'R' record, the same deal is a new game
+ private void restart() {
+
+  mNumOfGames++;
+  mIsFlagged = false;
+
+  if (mGame == null) {
+   flag("restart outside of a game");
+  } else {
+   mGame.restart();
+   if (mRecallStats != null) {
+    mRecallStats.deal(mGame);
+   }
+  }
+ }
+
+ // This method replays a 'C' record, the game goes on from its state
+ private void resumed(int position, int size) {
+
+  if (mGame == null) {
+   flag("resume outside of a game");
+   return;
+  }
+
+  ByteBuffer snapshot = mBuffer.duplicate();
+  snapshot.limit(position + size).position(position);
+  if (!mGame.restore(snapshot)) {
+   flag("resumed from an invalid state");
+   return;
+  }
+
+  for (int index = 0; index < mDeal.length; index++) {
+   if (mGame.getType(index) != mDeal[index]) {
+    flag("resumed from a state of another deal");
+    return;
+   }
+  }
+  if (mRecallStats != null) {
+   mRecallStats.deal(mGame);
+  }
+ }
+
+ // This method replays an 'F' record
+ private void flip(int result, int index, long time) {
+
+  mNumOfMoves++;
+
+  if (mGame == null) {
+   flag("flip outside of a game");
+   return;
+  } else if (index < 0 || index >= mGame.getNumOfCards()) {
+   flag("flip of an invalid card " + index);
+   return;
+  }
+
+  int replayed = mGame.flip(index);
+  if (replayed != result) {
+   flag("flip of card " + index + " doesn't give " + result);
+  }
+  if (mRecallStats != null) {
+   mRecallStats.flip(mGame, index, replayed, time);
+  }
+ }
+
+ // This method checks the score of an 'S' record
+ private void solved(int numOfFailedAttempts) {
+
+  if (mGame == null || !mGame.isSolved()) {
+   flag("solved but the replay isn't");
+  } else if (mGame.getNumOfFailedAttempts() != numOfFailedAttempts) {
+   flag(numOfFailedAttempts + " failed attempts recorded, "
+     + mGame.getNumOfFailedAttempts() + " replayed");
+  } else if (!mIsFlagged) {
+   mNumOfVerifiedGames++;
+  }
+ }
+
+ // This method flags the current game, once
+ private void flag(String reason) {
+
+  if (mIsFlagged) {
+   return;
+  }
+
+  mIsFlagged = true;
+  mNumOfFlaggedGames++;
+  if (mIsVerbose) {
+   System.out.println("game " + mNumOfGames + " (seed " + mSeed + "): "
+     + reason);
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Replays journals and prints the games that don't replay as recorded.
+  *
+  * @param args
+  *            - The journal files, the standard input if there are none,
+  *            optional -quiet not to print the flagged games, and optional
+  *            -recall rows columns to print where the cards of the boards
+  *            of that size were forgotten.
+  */
+ public static void main(String[] args) throws IOException {
+
+  boolean isVerbose = true;
+  int numOfFiles = 0;
+  int numOfRows = 0;
+  int numOfColumns = 0;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-quiet".equals(args[i])) {
+    isVerbose = false;
+    args[i] = null;
+   } else if ("-recall".equals(args[i]) && i + 2 < args.length) {
+    numOfRows = Integer.parseInt(args[i + 1]);
+    numOfColumns = Integer.parseInt(args[i + 2]);
+    args[i] = args[i + 1] = args[i + 2] = null;
+    i += 2;
+   } else {
+    numOfFiles++;
+   }
+  }
+
+  JournalReplayer replayer = new JournalReplayer(isVerbose);
+  RecallStats recallStats = null;
+  if (numOfRows > 0 && numOfColumns > 0) {
+   recallStats = new RecallStats(numOfRows * numOfColumns, MAX_FACE);
+   replayer.setRecallStats(recallStats);
+  }
+  long start = System.nanoTime();
+  boolean isValid = true;
+
+  if (numOfFiles == 0) {
+   isValid = replayer.replay(Channels.newChannel(System.in));
+  }
+  for (String arg : args) {
+   if (arg != null) {
+    FileInputStream in = new FileInputStream(arg);
+    try {
+     isValid &= replayer.replay(in.getChannel());
+    } finally {
+     in.close();
+    }
+   }
+  }
+
+  double seconds = (System.nanoTime() - start) / 1e9;
+
+  System.out.println(String.format(Locale.ROOT,
+    "%10s %10s %10s %12s %12s", "games", "verified", "flagged",
+    "moves", "moves/s"));
+  System.out.println(String.format(Locale.ROOT,
+    "%10d %10d %10d %12d %12.0f", replayer.getNumOfGames(),
+    replayer.getNumOfVerifiedGames(), replayer.getNumOfFlaggedGames(),
+    replayer.getNumOfMoves(), replayer.getNumOfMoves() / seconds));
+
+  if (recallStats != null) {
+   recallStats.print(System.out, numOfColumns);
+  }
+
+  if (!isValid || replayer.getNumOfFlaggedGames() > 0) {
+   System.exit(1);
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
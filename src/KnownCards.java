@@ -0,0 +1,408 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * What a player with a perfect memory knows of a game: the cards seen and
+ * still on the board, and the pairs whose two cards were both seen, i.e. a
+ * guaranteed match. It gives hints: the partner of the selected card when it
+ * is known, otherwise a card of a known pair.
+ *
+ * Every flip is fed after Game.flip(int) and costs the same on any board
+ * size: the seen cards of each type are kept in a list linked by card, with
+ * its last card and length in arrays by type, and the types of which two
+ * cards were seen in a list from which a type is removed by swapping it
+ * with the last one. A hint and the counts of seen and unseen cards are read in
+ * constant time.
+ *
+ * A face may be dealt more than twice on large boards, so any two seen
+ * cards of a type make a sure match, whichever cards were matched before.
+ */
+public class KnownCards {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "KnownCards: ";
+
+ private static final int NOT_LISTED = -1;
+
+ private static final long DEFAULT_CHECK_SEED = 2012;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfCards;
+
+ // By type, grown to the largest type dealt: the last card seen of the type
+ // and still on the board, the number of them, and the place of the type
+ // in the list of known types
+ private int[] mLastSeen = new int[0];
+ private int[] mNumOfSeenOfType = new int[0];
+ private int[] mTypeSlot = new int[0];
+
+ // By card: its type, seen and still on the board, and the seen cards of
+ // its type before and after it
+ private final int[] mTypes;
+ private final boolean[] mIsSeen;
+ private final int[] mPrevious;
+ private final int[] mNext;
+
+ // The types with two seen cards or more
+ private final int[] mKnownTypes;
+ private int mNumOfKnownTypes = 0;
+ private int mNumOfPairs = 0;
+
+ private int mNumOfSeen = 0;
+ private int mNumOfUnseen = 0;
+ private int mSelectedCard = Game.NO_CARD;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates the knowledge of games of a size, nothing is known until a game
+  * is dealt.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the games
+  */
+ public KnownCards(int aNumOfCards) {
+
+  if (aNumOfCards < 2) {
+   error("KnownCards(int) reported \"Invalid size\"", true);
+  }
+
+  mNumOfCards = aNumOfCards;
+  mTypes = new int[aNumOfCards];
+  mIsSeen = new boolean[aNumOfCards];
+  mPrevious = new int[aNumOfCards];
+  mNext = new int[aNumOfCards];
+  mKnownTypes = new int[aNumOfCards / 2];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method starts following a game, just dealt, restarted or restored:
+  * the cards face up are seen, the others still on the board are not.
+  *
+  * @param aGame
+  *            is the game, of the size given to the constructor
+  */
+ public void deal(Game aGame) {
+
+  if (aGame.getNumOfCards() != mNumOfCards) {
+   error("deal(Game) received a game of another size", true);
+  }
+
+  int maxType = 0;
+  for (int index = 0; index < mNumOfCards; index++) {
+   maxType = Math.max(maxType, aGame.getType(index));
+  }
+  if (maxType >= mLastSeen.length) {
+   mLastSeen = new int[maxType + 1];
+   mNumOfSeenOfType = new int[maxType + 1];
+   mTypeSlot = new int[maxType + 1];
+  }
+
+  // Only the types of the deal are ever read
+  for (int index = 0; index < mNumOfCards; index++) {
+   int type = aGame.getType(index);
+   mTypes[index] = type;
+   mLastSeen[type] = Game.NO_CARD;
+   mNumOfSeenOfType[type] = 0;
+   mTypeSlot[type] = NOT_LISTED;
+  }
+  Arrays.fill(mIsSeen, false);
+  Arrays.fill(mPrevious, Game.NO_CARD);
+  Arrays.fill(mNext, Game.NO_CARD);
+  mNumOfKnownTypes = 0;
+  mNumOfPairs = 0;
+  mNumOfSeen = 0;
+  mNumOfUnseen = 0;
+  mSelectedCard = aGame.getSelectedCard();
+
+  for (int index = 0; index < mNumOfCards; index++) {
+   if (!aGame.isMatched(index)) {
+    mNumOfUnseen++;
+    if (aGame.isFaceUp(index)) {
+     see(index, aGame.getType(index));
+    }
+   }
+  }
+ }
+
+ /**
+  * This method follows a flip of the current game.
+  *
+  * @param aGame
+  *            is the game, the flip was just played on it
+  * @param anIndex
+  *            is the card flipped
+  * @param aResult
+  *            is the result of Game.flip(int)
+  */
+ public void flip(Game aGame, int anIndex, int aResult) {
+
+  if (aResult == Game.FLIP_IGNORED) {
+   return;
+  }
+
+  see(anIndex, aGame.getType(anIndex));
+
+  if (aResult == Game.FLIP_FIRST) {
+   mSelectedCard = anIndex;
+   return;
+  }
+
+  mSelectedCard = Game.NO_CARD;
+  if (aResult == Game.FLIP_MATCH) {
+   forget(aGame.getPendingFirst(), aGame.getType(anIndex));
+   forget(anIndex, aGame.getType(anIndex));
+  }
+ }
+
+ /**
+  * This method gets the card to flip next for a sure match.
+  *
+  * @return the known partner of the selected card, a card of a known pair if
+  *         no card is selected, or Game.NO_CARD if the next flip is a guess
+  */
+ public int getHint() {
+
+  if (mSelectedCard != Game.NO_CARD) {
+   return getPartner(mSelectedCard);
+  }
+  return mNumOfKnownTypes > 0 ? mLastSeen[mKnownTypes[mNumOfKnownTypes - 1]]
+    : Game.NO_CARD;
+ }
+
+ /**
+  * This method gets the known partner of a card.
+  *
+  * @return the index of another card of its type if both were seen and
+  *         are still on the board, or Game.NO_CARD
+  */
+ public int getPartner(int anIndex) {
+
+  if (!mIsSeen[anIndex]) {
+   return Game.NO_CARD;
+  }
+  int last = mLastSeen[mTypes[anIndex]];
+  return last != anIndex ? last : mPrevious[anIndex];
+ }
+
+ /**
+  * This method checks if a card was seen, and is still on the board.
+  */
+ public boolean isSeen(int anIndex) {
+
+  return mIsSeen[anIndex];
+ }
+
+ /**
+  * This method gets the number of cards seen and still on the board.
+  */
+ public int getNumOfSeenCards() {
+
+  return mNumOfSeen;
+ }
+
+ /**
+  * This method gets the number of cards never seen.
+  */
+ public int getNumOfUnseenCards() {
+
+  return mNumOfUnseen;
+ }
+
+ /**
+  * This method gets the number of pairs whose two cards were seen, the
+  * seen cards of a type being paired two by two.
+  */
+ public int getNumOfKnownPairs() {
+
+  return mNumOfPairs;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method records that a card was seen, it is added to the seen cards
+ // of its type
+ private void see(int anIndex, int aType) {
+
+  if (mIsSeen[anIndex]) {
+   return;
+  }
+
+  mIsSeen[anIndex] = true;
+  mNumOfSeen++;
+  mNumOfUnseen--;
+
+  int last = mLastSeen[aType];
+  mPrevious[anIndex] = last;
+  mNext[anIndex] = Game.NO_CARD;
+  if (last != Game.NO_CARD) {
+   mNext[last] = anIndex;
+  }
+  mLastSeen[aType] = anIndex;
+
+  int numOfSeen = ++mNumOfSeenOfType[aType];
+  if (numOfSeen % 2 == 0) {
+   mNumOfPairs++;
+  }
+  if (numOfSeen == 2) {
+   mTypeSlot[aType] = mNumOfKnownTypes;
+   mKnownTypes[mNumOfKnownTypes++] = aType;
+  }
+ }
+
+ // This method forgets a matched card, its type isn't known anymore when
+ // less than two of its cards are left
+ private void forget(int anIndex, int aType) {
+
+  if (!mIsSeen[anIndex]) {
+   return;
+  }
+
+  int previous = mPrevious[anIndex];
+  int next = mNext[anIndex];
+  if (previous != Game.NO_CARD) {
+   mNext[previous] = next;
+  }
+  if (next != Game.NO_CARD) {
+   mPrevious[next] = previous;
+  } else {
+   mLastSeen[aType] = previous;
+  }
+  mPrevious[anIndex] = Game.NO_CARD;
+  mNext[anIndex] = Game.NO_CARD;
+
+  int numOfSeen = --mNumOfSeenOfType[aType];
+  if (numOfSeen % 2 == 1) {
+   mNumOfPairs--;
+  }
+  if (numOfSeen == 1) {
+   int slot = mTypeSlot[aType];
+   int last = mKnownTypes[--mNumOfKnownTypes];
+   mKnownTypes[slot] = last;
+   mTypeSlot[last] = slot;
+   mTypeSlot[aType] = NOT_LISTED;
+  }
+
+  mIsSeen[anIndex] = false;
+  mNumOfSeen--;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Plays random games whose faces are dealt more than twice and checks the
+  * knowledge after every flip against the cards actually seen: the counts,
+  * and that there is a hint exactly when a sure match is known and that it
+  * is one.
+  *
+  * @param args
+  *            - Optional number of games per board (100 by default).
+  */
+ public static void main(String[] args) {
+
+  int numOfGames = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+  SplittableRandom random = new SplittableRandom(DEFAULT_CHECK_SEED);
+  long numOfFlips = 0;
+  long numOfErrors = 0;
+
+  // Boards of a few faces, each dealt many times, and a regular one
+  int[][] boards = { { 8, 2 }, { 24, 3 }, { 24, 12 }, { 100, 7 },
+    { 256, 48 } };
+  for (int[] board : boards) {
+   Dealer dealer = new Dealer(random.nextLong(), 1, board[1]);
+   Game game = new Game(board[0]);
+   KnownCards known = new KnownCards(board[0]);
+   boolean[] isSeen = new boolean[board[0]];
+
+   for (int g = 0; g < numOfGames; g++) {
+    game.deal(dealer.deal(board[0]));
+    known.deal(game);
+    Arrays.fill(isSeen, false);
+
+    while (!game.isSolved()) {
+     int index = random.nextInt(board[0]);
+     int result = game.flip(index);
+     known.flip(game, index, result);
+     if (result != Game.FLIP_IGNORED) {
+      isSeen[index] = true;
+      numOfFlips++;
+      numOfErrors += check(game, known, isSeen);
+     }
+    }
+   }
+  }
+
+  System.out.println(TAG + numOfFlips + " flips checked, " + numOfErrors
+    + " errors");
+  if (numOfErrors > 0) {
+   System.exit(1);
+  }
+ }
+
+ // This method checks the knowledge of a game against the cards seen, it
+ // returns 1 if it is wrong
+ private static int check(Game game, KnownCards known, boolean[] isSeen) {
+
+  // The seen cards still on the board, and whether two share a type
+  int numOfSeen = 0;
+  boolean isPairKnown = false;
+  int selected = game.getSelectedCard();
+  boolean isPartnerKnown = false;
+  int[] seenOfType = new int[Short.MAX_VALUE + 1];
+  for (int i = 0; i < game.getNumOfCards(); i++) {
+   if (isSeen[i] && !game.isMatched(i)) {
+    numOfSeen++;
+    isPairKnown |= ++seenOfType[game.getType(i)] >= 2;
+    isPartnerKnown |= selected != Game.NO_CARD && i != selected
+      && game.getType(i) == game.getType(selected);
+   }
+  }
+
+  int hint = known.getHint();
+  boolean isSure = selected != Game.NO_CARD ? isPartnerKnown : isPairKnown;
+  boolean isValid = hint == Game.NO_CARD || (isSeen[hint]
+    && !game.isMatched(hint) && hint != selected);
+  if (isValid && hint != Game.NO_CARD) {
+   int partner = selected != Game.NO_CARD ? selected : known
+     .getPartner(hint);
+   isValid = partner != Game.NO_CARD && isSeen[partner]
+     && !game.isMatched(partner)
+     && game.getType(partner) == game.getType(hint);
+  }
+
+  if (known.getNumOfSeenCards() != numOfSeen
+    || (hint != Game.NO_CARD) != isSure || !isValid) {
+   error("check() reported seen " + known.getNumOfSeenCards() + " of "
+     + numOfSeen + ", hint " + hint + ", sure match " + isSure, false);
+   return 1;
+  }
+  return 0;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
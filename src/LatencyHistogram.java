@@ -0,0 +1,162 @@
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies in nanoseconds with a fixed number of buckets:
+ * values are grouped by powers of two, each power split in 32 buckets, so a
+ * percentile is known within 3% whatever the range of the values. Recording
+ * a value doesn't allocate.
+ *
+ * A histogram is not thread safe, each thread records in its own histogram
+ * and the histograms are added together with add().
+ */
+public class LatencyHistogram {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final int SUB_BUCKET_BITS = 5;
+ private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+ private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+ private static final int NUMBER_OF_BUCKETS = LINEAR_LIMIT
+   + (Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final long[] mCounts = new long[NUMBER_OF_BUCKETS];
+ private long mCount = 0;
+ private long mMax = 0;
+ private double mSum = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method records a latency.
+  *
+  * @param aNanos
+  *            is the latency in nanoseconds, negative values count as 0
+  */
+ public void record(long aNanos) {
+
+  long value = Math.max(0, aNanos);
+
+  mCounts[bucketOf(value)]++;
+  mCount++;
+  mSum += value;
+  if (value > mMax) {
+   mMax = value;
+  }
+ }
+
+ /**
+  * This method adds the latencies of another histogram to this one.
+  */
+ public void add(LatencyHistogram anOther) {
+
+  for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+   mCounts[i] += anOther.mCounts[i];
+  }
+  mCount += anOther.mCount;
+  mSum += anOther.mSum;
+  mMax = Math.max(mMax, anOther.mMax);
+ }
+
+ /**
+  * This method forgets every recorded latency.
+  */
+ public void reset() {
+
+  Arrays.fill(mCounts, 0);
+  mCount = 0;
+  mSum = 0;
+  mMax = 0;
+ }
+
+ /**
+  * This method gets the number of recorded latencies.
+  */
+ public long getCount() {
+
+  return mCount;
+ }
+
+ /**
+  * This method gets the largest recorded latency, in nanoseconds.
+  */
+ public long getMax() {
+
+  return mMax;
+ }
+
+ /**
+  * This method gets the mean of the recorded latencies, in nanoseconds.
+  */
+ public double getMean() {
+
+  return mCount == 0 ? 0 : mSum / mCount;
+ }
+
+ /**
+  * This method gets the latency under which a fraction of the recorded
+  * latencies fall.
+  *
+  * @param aFraction
+  *            is the fraction, e.g. 0.99 for the 99th percentile
+  * @return the upper bound of the bucket holding that percentile, in
+  *         nanoseconds
+  */
+ public long getValueAtPercentile(double aFraction) {
+
+  if (mCount == 0) {
+   return 0;
+  }
+
+  long rank = Math.max(1, (long) Math.ceil(aFraction * mCount));
+  long seen = 0;
+
+  for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+   seen += mCounts[i];
+   if (seen >= rank) {
+    return Math.min(mMax, upperBoundOf(i));
+   }
+  }
+
+  return mMax;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method gets the bucket of a value
+ private static int bucketOf(long value) {
+
+  if (value < LINEAR_LIMIT) {
+   return (int) value;
+  }
+
+  int exponent = 63 - Long.numberOfLeadingZeros(value);
+  int shift = exponent - SUB_BUCKET_BITS;
+  int mantissa = (int) (value >>> shift) - SUB_BUCKETS;
+
+  return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + mantissa;
+ }
+
+ // This method gets the largest value of a bucket
+ private static long upperBoundOf(int bucket) {
+
+  if (bucket < LINEAR_LIMIT) {
+   return bucket;
+  }
+
+  int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+  long mantissa = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+
+  return ((mantissa + 1) << shift) - 1;
+ }
+
+}
@@ -0,0 +1,556 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The results of every finished game, kept in a file mapped in memory. A
+ * result is a fixed size record, so the n-th game is at a known offset:
+ *
+ * <pre>
+ * header   int magic, int version, int record size, int 0          16 bytes
+ * record   int cards, int failed attempts, long duration in ms,
+ *          long seed, long time in ms since the epoch               32 bytes
+ * </pre>
+ *
+ * The numbers are big-endian. The file grows by chunks of records; the number
+ * of cards of a record is written last, a record cut short reads as the end
+ * of the file.
+ *
+ * Games finishing on many threads append at the same time: each one takes
+ * the next record with an atomic counter and writes it in place. The file
+ * itself is locked by one process, a second game gets no leaderboard
+ * rather than writing over the same records. The
+ * rankings, one per board size, are kept in memory and rebuilt when the file
+ * is opened: the number of games for each number of failed attempts is a
+ * Fenwick tree, so the rank and percentile of a score take a few steps
+ * whatever the number of games, and the best games are kept sorted.
+ */
+public class Leaderboard {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Leaderboard: ";
+
+ private static final int MAGIC = 0x4D454D4C;
+ private static final int VERSION = 1;
+ private static final int HEADER_SIZE = 16;
+ private static final int RECORD_SIZE = 32;
+
+ // Valid records, anything else is taken as the end of the file; the
+ // failed attempts are bounded to keep a ranking's tree small
+ private static final int MIN_NUMBER_OF_CARDS = 2;
+ private static final int MAX_NUMBER_OF_CARDS = 256 * 256;
+ private static final int MAX_FAILED_ATTEMPTS = 1 << 20;
+
+ // Records mapped at once, 2 MB
+ private static final int CHUNK_RECORDS = 64 * 1024;
+ private static final long CHUNK_SIZE = (long) CHUNK_RECORDS * RECORD_SIZE;
+
+ /**
+  * The number of best games kept for each board size.
+  */
+ public static final int MAX_TOP = 100;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final FileChannel mChannel;
+ private final FileLock mLock;
+
+ // Chunks of records, replaced by a larger array when the file grows
+ private volatile MappedByteBuffer[] mChunks = new MappedByteBuffer[0];
+ // Records taken, the next game takes the next one
+ private final AtomicLong mNumOfRecords = new AtomicLong();
+
+ // Rankings by number of cards
+ private final ConcurrentHashMap<Integer, Ranking> mRankings = new ConcurrentHashMap<Integer, Ranking>();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Opens a leaderboard, it is created if it doesn't exist. The results it
+  * holds are ranked again.
+  *
+  * @param aFile
+  *            is the file
+  * @throws IOException
+  *             if the file can't be opened, or another game holds it
+  */
+ public Leaderboard(File aFile) throws IOException {
+
+  mChannel = FileChannel.open(aFile.toPath(), StandardOpenOption.CREATE,
+    StandardOpenOption.READ, StandardOpenOption.WRITE);
+  try {
+   mLock = mChannel.tryLock();
+  } catch (IOException | OverlappingFileLockException e) {
+   mChannel.close();
+   throw new IOException("Can't lock " + aFile, e);
+  }
+  if (mLock == null) {
+   mChannel.close();
+   throw new IOException(aFile + " is used by another game");
+  }
+
+  MappedByteBuffer header = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+    HEADER_SIZE);
+
+  if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+    || header.getInt(8) != RECORD_SIZE) {
+   // A new file, or not a leaderboard: start over
+   mChannel.truncate(HEADER_SIZE);
+   header.putInt(0, MAGIC);
+   header.putInt(4, VERSION);
+   header.putInt(8, RECORD_SIZE);
+   header.putInt(12, 0);
+  }
+
+  load();
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method records a finished game. It can be called from many threads
+  * at once.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aNumOfFailedAttempts
+  *            is the score, the fewer the better
+  * @param aDuration
+  *            is the time the game took, in milliseconds
+  * @param aSeed
+  *            is the seed of the deal
+  * @return the recorded game
+  */
+ public Entry record(int aNumOfCards, int aNumOfFailedAttempts,
+   long aDuration, long aSeed) {
+
+  if (!isValid(aNumOfCards, aNumOfFailedAttempts)) {
+   error("record(int, int, long, long) received an invalid score", false);
+   return null;
+  }
+
+  Entry entry = new Entry(aNumOfCards, aNumOfFailedAttempts, Math.max(0,
+    aDuration), aSeed, System.currentTimeMillis());
+
+  long index = mNumOfRecords.getAndIncrement();
+  MappedByteBuffer chunk = getChunk((int) (index / CHUNK_RECORDS));
+  int offset = (int) (index % CHUNK_RECORDS) * RECORD_SIZE;
+
+  chunk.putInt(offset + 4, entry.mNumOfFailedAttempts);
+  chunk.putLong(offset + 8, entry.mDuration);
+  chunk.putLong(offset + 16, entry.mSeed);
+  chunk.putLong(offset + 24, entry.mTime);
+  // Last, the record is complete
+  chunk.putInt(offset, entry.mNumOfCards);
+
+  getRanking(aNumOfCards).add(entry);
+  return entry;
+ }
+
+ /**
+  * This method gets the rank of a score among the games of a board size:
+  * one more than the number of games with fewer failed attempts.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aNumOfFailedAttempts
+  *            is the score
+  * @return the rank, 1 for the best score
+  */
+ public long getRank(int aNumOfCards, int aNumOfFailedAttempts) {
+
+  Ranking ranking = mRankings.get(aNumOfCards);
+  return ranking == null ? 1 : ranking.getRank(aNumOfFailedAttempts);
+ }
+
+ /**
+  * This method gets the percentage of the games of a board size that a
+  * score beats, i.e. that had more failed attempts.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aNumOfFailedAttempts
+  *            is the score
+  * @return the percentage, between 0 and 100
+  */
+ public float getPercentile(int aNumOfCards, int aNumOfFailedAttempts) {
+
+  Ranking ranking = mRankings.get(aNumOfCards);
+  return ranking == null ? 0 : ranking.getPercentile(aNumOfFailedAttempts);
+ }
+
+ /**
+  * This method gets the best games of a board size, by failed attempts then
+  * duration.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aNumOfGames
+  *            is the number of games wanted, at most MAX_TOP
+  * @return the games, best first
+  */
+ public Entry[] getTop(int aNumOfCards, int aNumOfGames) {
+
+  Ranking ranking = mRankings.get(aNumOfCards);
+  return ranking == null ? new Entry[0] : ranking.getTop(aNumOfGames);
+ }
+
+ /**
+  * This method gets the number of games of a board size.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  */
+ public long getNumOfGames(int aNumOfCards) {
+
+  Ranking ranking = mRankings.get(aNumOfCards);
+  return ranking == null ? 0 : ranking.getNumOfGames();
+ }
+
+ /**
+  * This method gets the number of games of every size.
+  */
+ public long getNumOfGames() {
+
+  return mNumOfRecords.get();
+ }
+
+ /**
+  * This method writes the recorded games to the disk.
+  */
+ public void force() {
+
+  for (MappedByteBuffer chunk : mChunks) {
+   chunk.force();
+  }
+ }
+
+ /**
+  * This method writes the recorded games to the disk and closes the file.
+  */
+ public void close() {
+
+  force();
+  try {
+   // Closing the channel releases the lock
+   mChannel.close();
+  } catch (IOException e) {
+   error("close() reported " + e, false);
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Entry
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * A recorded game.
+  */
+ public static final class Entry {
+
+  private final int mNumOfCards;
+  private final int mNumOfFailedAttempts;
+  private final long mDuration;
+  private final long mSeed;
+  private final long mTime;
+
+  private Entry(int aNumOfCards, int aNumOfFailedAttempts, long aDuration,
+    long aSeed, long aTime) {
+   mNumOfCards = aNumOfCards;
+   mNumOfFailedAttempts = aNumOfFailedAttempts;
+   mDuration = aDuration;
+   mSeed = aSeed;
+   mTime = aTime;
+  }
+
+  /**
+   * This method gets the number of cards of the board.
+   */
+  public int getNumOfCards() {
+   return mNumOfCards;
+  }
+
+  /**
+   * This method gets the score, the fewer failed attempts the better.
+   */
+  public int getNumOfFailedAttempts() {
+   return mNumOfFailedAttempts;
+  }
+
+  /**
+   * This method gets the time the game took, in milliseconds.
+   */
+  public long getDuration() {
+   return mDuration;
+  }
+
+  /**
+   * This method gets the seed of the deal.
+   */
+  public long getSeed() {
+   return mSeed;
+  }
+
+  /**
+   * This method gets when the game finished, in milliseconds since the
+   * epoch.
+   */
+  public long getTime() {
+   return mTime;
+  }
+
+  // This method checks if this game ranks before another one
+  private boolean isBetterThan(Entry another) {
+   return mNumOfFailedAttempts < another.mNumOfFailedAttempts
+     || (mNumOfFailedAttempts == another.mNumOfFailedAttempts
+     && mDuration < another.mDuration);
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Ranking
+ ////////////////////////////////////////////////////////////////////////////
+
+ // The games of one board size
+ private static final class Ranking {
+
+  // Fenwick tree of the number of games by failed attempts, 1-based: the
+  // games with n failed attempts are counted at n + 1
+  private long[] mTree = new long[64];
+  private long mNumOfGames = 0;
+
+  // The best games, sorted
+  private final Entry[] mTop = new Entry[MAX_TOP];
+  private int mNumOfTop = 0;
+
+  synchronized void add(Entry anEntry) {
+
+   int position = anEntry.mNumOfFailedAttempts + 1;
+   if (position >= mTree.length) {
+    grow(position);
+   }
+   for (int i = position; i < mTree.length; i += i & -i) {
+    mTree[i]++;
+   }
+   mNumOfGames++;
+
+   // Insertion in the best games, if it is one
+   if (mNumOfTop == MAX_TOP && !anEntry.isBetterThan(mTop[MAX_TOP - 1])) {
+    return;
+   }
+   int i = Math.min(mNumOfTop, MAX_TOP - 1);
+   while (i > 0 && anEntry.isBetterThan(mTop[i - 1])) {
+    mTop[i] = mTop[i - 1];
+    i--;
+   }
+   mTop[i] = anEntry;
+   mNumOfTop = Math.min(mNumOfTop + 1, MAX_TOP);
+  }
+
+  synchronized long getRank(int aNumOfFailedAttempts) {
+
+   return countBelow(aNumOfFailedAttempts) + 1;
+  }
+
+  synchronized float getPercentile(int aNumOfFailedAttempts) {
+
+   if (mNumOfGames == 0) {
+    return 0;
+   }
+   long worse = mNumOfGames - countBelow(aNumOfFailedAttempts + 1);
+   return 100f * worse / mNumOfGames;
+  }
+
+  synchronized Entry[] getTop(int aNumOfGames) {
+
+   return Arrays.copyOf(mTop, Math.max(0, Math.min(aNumOfGames, mNumOfTop)));
+  }
+
+  synchronized long getNumOfGames() {
+
+   return mNumOfGames;
+  }
+
+  // This method counts the games with fewer failed attempts
+  private long countBelow(int aNumOfFailedAttempts) {
+
+   long count = 0;
+   for (int i = Math.min(aNumOfFailedAttempts, mTree.length - 1); i > 0; i -= i
+     & -i) {
+    count += mTree[i];
+   }
+   return count;
+  }
+
+  // This method makes room for a number of failed attempts, the tree is
+  // built again from the counts
+  private void grow(int position) {
+
+   int length = mTree.length;
+   while (length <= position) {
+    length *= 2;
+   }
+
+   // Back to the count of every position, then the larger tree
+   long[] counts = new long[length];
+   for (int i = 1; i < mTree.length; i++) {
+    counts[i] = countBelow(i) - countBelow(i - 1);
+   }
+   for (int i = 1; i < length; i++) {
+    int parent = i + (i & -i);
+    if (parent < length) {
+     counts[parent] += counts[i];
+    }
+   }
+   mTree = counts;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method ranks the records of the file, the first record that isn't
+ // complete ends it
+ private void load() throws IOException {
+
+  long size = mChannel.size() - HEADER_SIZE;
+  int numOfChunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+  long index = 0;
+
+  for (int c = 0; c < numOfChunks; c++) {
+   MappedByteBuffer chunk = getChunk(c);
+
+   for (int r = 0; r < CHUNK_RECORDS; r++, index++) {
+    int offset = r * RECORD_SIZE;
+    int numOfCards = chunk.getInt(offset);
+    int numOfFailedAttempts = chunk.getInt(offset + 4);
+    if (!isValid(numOfCards, numOfFailedAttempts)) {
+     // The next game writes over a corrupt record
+     mNumOfRecords.set(index);
+     return;
+    }
+
+    getRanking(numOfCards).add(
+      new Entry(numOfCards, numOfFailedAttempts, chunk.getLong(offset + 8),
+        chunk.getLong(offset + 16), chunk.getLong(offset + 24)));
+   }
+  }
+
+  mNumOfRecords.set(index);
+ }
+
+ // This method gets a chunk of records, the file grows if needed
+ private MappedByteBuffer getChunk(int aChunk) {
+
+  MappedByteBuffer[] chunks = mChunks;
+  if (aChunk < chunks.length) {
+   return chunks[aChunk];
+  }
+
+  synchronized (this) {
+   chunks = mChunks;
+   if (aChunk < chunks.length) {
+    return chunks[aChunk];
+   }
+
+   MappedByteBuffer[] larger = Arrays.copyOf(chunks, aChunk + 1);
+   try {
+    for (int c = chunks.length; c <= aChunk; c++) {
+     larger[c] = mChannel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE
+       + c * CHUNK_SIZE, CHUNK_SIZE);
+    }
+   } catch (IOException e) {
+    error("getChunk(int) reported " + e, true);
+   }
+   mChunks = larger;
+   return larger[aChunk];
+  }
+ }
+
+ // This method gets the ranking of a board size
+ private Ranking getRanking(int aNumOfCards) {
+
+  Ranking ranking = mRankings.get(aNumOfCards);
+  if (ranking == null) {
+   Ranking created = new Ranking();
+   ranking = mRankings.putIfAbsent(aNumOfCards, created);
+   if (ranking == null) {
+    ranking = created;
+   }
+  }
+  return ranking;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method checks the score of a game, as recorded or read back
+ private static boolean isValid(int numOfCards, int numOfFailedAttempts) {
+  return numOfCards >= MIN_NUMBER_OF_CARDS
+    && numOfCards <= MAX_NUMBER_OF_CARDS && numOfCards % 2 == 0
+    && numOfFailedAttempts >= 0
+    && numOfFailedAttempts <= MAX_FAILED_ATTEMPTS;
+ }
+
+ /**
+  * Prints the best games of a board size.
+  *
+  * @param args
+  *            - The leaderboard file, and optional number of rows and
+  *            columns of the board (4 x 6 by default).
+  */
+ public static void main(String[] args) throws IOException {
+
+  if (args.length < 1) {
+   error("main(String[]) expects the leaderboard file", true);
+  }
+
+  int numOfCards = args.length >= 3 ? Integer.parseInt(args[1])
+    * Integer.parseInt(args[2]) : 4 * 6;
+
+  Leaderboard leaderboard = new Leaderboard(new File(args[0]));
+
+  System.out.println(leaderboard.getNumOfGames(numOfCards) + " games of "
+    + numOfCards + " cards");
+  System.out.println(String.format(Locale.ROOT, "%6s %8s %10s %20s",
+    "rank", "failed", "seconds", "seed"));
+  for (Entry entry : leaderboard.getTop(numOfCards, 10)) {
+   System.out.println(String.format(Locale.ROOT, "%6d %8d %10.1f %20d",
+     leaderboard.getRank(numOfCards, entry.getNumOfFailedAttempts()),
+     entry.getNumOfFailedAttempts(), entry.getDuration() / 1000.0,
+     entry.getSeed()));
+  }
+
+  leaderboard.close();
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,187 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A Player that only remembers the cards of its last k flips. It plays like
+ * the perfect memory player with what it still remembers, and prefers cards
+ * it doesn't remember when it has to guess.
+ */
+public class LimitedMemoryPlayer extends Player {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final int NUMBER_OF_TYPES = Short.MAX_VALUE + 1;
+ private static final int NONE = -1;
+ // Draws of a forgotten card before settling for any card
+ private static final int MAX_GUESSES = 8;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mMemory;
+
+ // The last k flips, oldest first from mWindowStart
+ private final int[] mWindowCards;
+ private final int[] mWindowTypes;
+ private int mWindowStart = 0;
+ private int mWindowSize = 0;
+
+ // Number of times each card appears in the window
+ private int[] mRemembered = new int[0];
+
+ // Type lookups during a scan of the window
+ private final int[] mTypeStamp = new int[NUMBER_OF_TYPES];
+ private final int[] mTypeCard = new int[NUMBER_OF_TYPES];
+ private int mStamp = 0;
+
+ private int mPlannedSecond = NONE;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a player that remembers its last flips.
+  *
+  * @param aRandom
+  *            is the random source of the player's choices
+  * @param aMemory
+  *            is the number of flips remembered, at least 1
+  */
+ public LimitedMemoryPlayer(SplittableRandom aRandom, int aMemory) {
+  super(aRandom);
+  mMemory = aMemory;
+  mWindowCards = new int[aMemory];
+  mWindowTypes = new int[aMemory];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ @Override
+ public String getModel() {
+
+  return "memory-" + mMemory;
+ }
+
+ @Override
+ public void reset(int aNumOfCards) {
+
+  super.reset(aNumOfCards);
+
+  if (mRemembered.length != aNumOfCards) {
+   mRemembered = new int[aNumOfCards];
+  } else {
+   Arrays.fill(mRemembered, 0);
+  }
+
+  mWindowStart = 0;
+  mWindowSize = 0;
+  mPlannedSecond = NONE;
+ }
+
+ @Override
+ public int chooseFirst() {
+
+  nextStamp();
+
+  // Newest flips first, a remembered pair is a free match
+  for (int i = mWindowSize - 1; i >= 0; i--) {
+   int slot = (mWindowStart + i) % mMemory;
+   int card = mWindowCards[slot];
+   int type = mWindowTypes[slot];
+
+   if (!isUnmatched(card)) {
+    continue;
+   }
+
+   if (mTypeStamp[type] == mStamp && mTypeCard[type] != card) {
+    mPlannedSecond = mTypeCard[type];
+    return card;
+   }
+   mTypeStamp[type] = mStamp;
+   mTypeCard[type] = card;
+  }
+
+  mPlannedSecond = NONE;
+  return guess(NONE);
+ }
+
+ @Override
+ public int chooseSecond(int aFirst) {
+
+  if (mPlannedSecond != NONE) {
+   int second = mPlannedSecond;
+   mPlannedSecond = NONE;
+   return second;
+  }
+
+  // The first card is the newest flip of the window
+  int type = mWindowTypes[(mWindowStart + mWindowSize - 1) % mMemory];
+
+  for (int i = mWindowSize - 2; i >= 0; i--) {
+   int slot = (mWindowStart + i) % mMemory;
+   int card = mWindowCards[slot];
+   if (mWindowTypes[slot] == type && card != aFirst && isUnmatched(card)) {
+    return card;
+   }
+  }
+
+  return guess(aFirst);
+ }
+
+ @Override
+ public void seen(int anIndex, int aType) {
+
+  if (mWindowSize == mMemory) {
+   // Forget the oldest flip
+   mRemembered[mWindowCards[mWindowStart]]--;
+   mWindowStart = (mWindowStart + 1) % mMemory;
+   mWindowSize--;
+  }
+
+  int slot = (mWindowStart + mWindowSize) % mMemory;
+  mWindowCards[slot] = anIndex;
+  mWindowTypes[slot] = aType;
+  mWindowSize++;
+  mRemembered[anIndex]++;
+ }
+
+ @Override
+ public void matched(int aFirst, int aSecond) {
+  // Matched cards are skipped when the window is scanned
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method draws a card still on the board, preferably one that isn't
+ // remembered
+ private int guess(int anExcludedCard) {
+
+  for (int i = 0; i < MAX_GUESSES; i++) {
+   int card = randomUnmatched();
+   if (card != anExcludedCard && mRemembered[card] == 0) {
+    return card;
+   }
+  }
+
+  return anExcludedCard == NONE ? randomUnmatched()
+    : randomUnmatchedExcept(anExcludedCard);
+ }
+
+ // This method starts a new scan of the window
+ private void nextStamp() {
+
+  if (++mStamp == 0) {
+   Arrays.fill(mTypeStamp, 0);
+   mStamp = 1;
+  }
+ }
+
+}
@@ -1,12 +1,22 @@
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Graphics;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
 import javax.swing.JSplitPane;
+import javax.swing.JToggleButton;
 
 /**
  * A Memory game were the player is shown a set of card, and then has to
@@ -22,18 +32,52 @@ public class Memory extends JFrame {
  // Constants
  ///////////////////////////////////////////////////////////////////////////
 
+ private static final String TAG = "Memory: ";
+
  private static final long serialVersionUID = 1L;
 
+ // Board size
+ private static final int DEFAULT_NUMBER_OF_ROWS = 4;
+ private static final int DEFAULT_NUMBER_OF_COLUMNS = 6;
+
+ // The game in progress is saved in the user's home, one file per size
+ private static final String SNAPSHOT_FILE_FORMAT = ".memory-game-%dx%d.snapshot";
+ private static final int SNAPSHOT_SLOT = 0;
+ // Every move is recorded in the user's home, see JournalReplayer
+ private static final String JOURNAL_FILE = ".memory-game.journal";
+ // Every finished game is ranked in the user's home, see Leaderboard
+ private static final String LEADERBOARD_FILE = ".memory-game.leaderboard";
+ // Set to true to print the time from main to the first painted board
+ private static final String STARTUP_PROPERTY = "memory.startup";
+ // Set to a deck pack to deal its faces, see DeckPacker
+ private static final String DECK_PROPERTY = "memory.deck";
+ // Set to painted to paint the cards with one component, see BoardCanvas
+ private static final String VIEW_PROPERTY = "memory.view";
+ private static final String PAINTED_VIEW = "painted";
+
+ ///////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ///////////////////////////////////////////////////////////////////////////
+
+ // System.nanoTime() when main was called, 0 once the board is painted
+ private static long sMainTime = 0;
+
  ///////////////////////////////////////////////////////////////////////////
  // Instance variables
  ///////////////////////////////////////////////////////////////////////////
 
  // Logic
  private Board mBoard;
+ private SnapshotFile mSnapshots;
+ private MoveJournal mJournal;
+ private Leaderboard mLeaderboard;
  // GUI components
  private JButton mRetryButton;
  private JButton mNewButton;
  private JSplitPane mSplitPane;
+ private JToggleButton mHeatmapButton;
+ private JToggleButton mHintButton;
+ private JLabel mKnownCardsLabel;
 
  ///////////////////////////////////////////////////////////////////////////
  // Constructor
@@ -43,17 +87,41 @@ public class Memory extends JFrame {
   * Creates a Frame to start and display the game to the user.
   */
  public Memory() {
+  this(DEFAULT_NUMBER_OF_ROWS, DEFAULT_NUMBER_OF_COLUMNS);
+ }
+
+ /**
+  * Creates a Frame to start and display a game of the specified size to the
+  * user.
+  * 
+  * @param aNumOfRows
+  *            is the number of rows of the board
+  * @param aNumOfColumns
+  *            is the number of columns of the board
+  */
+ public Memory(int aNumOfRows, int aNumOfColumns) {
 
   super();
 
   setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
   setBackground(Color.WHITE);
 
-  mBoard = new Board();
+  mBoard = new Board(aNumOfRows, aNumOfColumns,
+    PAINTED_VIEW.equals(System.getProperty(VIEW_PROPERTY)) ? Board.PAINTED_VIEW
+      : Board.CELL_VIEW);
+  mBoard.setRecallStatsEnabled(true);
+  mBoard.setKnownCardsEnabled(true);
+  mBoard.setAnimated(true);
   add(mBoard, BorderLayout.CENTER);
+  resume(aNumOfRows, aNumOfColumns);
+  openJournal();
+  openLeaderboard();
+
+  JPanel controls = new JPanel(new BorderLayout());
+  add(controls, BorderLayout.SOUTH);
 
   mSplitPane = new JSplitPane();
-  add(mSplitPane, BorderLayout.SOUTH);
+  controls.add(mSplitPane, BorderLayout.CENTER);
 
   mRetryButton = new JButton("Retry");
   mRetryButton.setFocusPainted(false);
@@ -65,12 +133,54 @@ public class Memory extends JFrame {
   mNewButton.addMouseListener(btnMouseListener);
   mSplitPane.setRightComponent(mNewButton);
 
+  mHeatmapButton = new JToggleButton("Heatmap");
+  mHeatmapButton.setFocusPainted(false);
+  mHeatmapButton.setToolTipText("Where cards were forgotten");
+  mHeatmapButton.addMouseListener(btnMouseListener);
+
+  mHintButton = new JToggleButton("Hints");
+  mHintButton.setFocusPainted(false);
+  mHintButton.setToolTipText("Outline the pairs already seen");
+  mHintButton.addMouseListener(btnMouseListener);
+
+  mKnownCardsLabel = new JLabel();
+  updateKnownCards();
+  mBoard.addPropertyChangeListener(Board.KNOWN_CARDS_PROPERTY,
+    knownCardsListener);
+  controls.add(mKnownCardsLabel, BorderLayout.WEST);
+
+  JPanel toggles = new JPanel(new BorderLayout());
+  toggles.add(mHintButton, BorderLayout.WEST);
+  toggles.add(mHeatmapButton, BorderLayout.EAST);
+  controls.add(toggles, BorderLayout.EAST);
+
+  addWindowListener(windowListener);
+
   pack();
   setResizable(true);
   setVisible(true);
 
  }
 
+ ///////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ///////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method paints the window, and reports the startup time the first
+  * time if it was asked for.
+  */
+ public void paint(Graphics g) {
+
+  super.paint(g);
+
+  if (sMainTime != 0) {
+   System.out.println(TAG + "board painted "
+     + (System.nanoTime() - sMainTime) / 1000000 + " ms after main");
+   sMainTime = 0;
+  }
+ }
+
  ///////////////////////////////////////////////////////////////////////////
  // Listeners
  ///////////////////////////////////////////////////////////////////////////
@@ -81,10 +191,97 @@ public class Memory extends JFrame {
     mBoard.reInit();
    } else if (e.getClickCount() == 1 && e.getComponent() == mNewButton) {
     mBoard.init();
+   } else if (e.getComponent() == mHeatmapButton) {
+    mBoard.setHeatmapShown(mHeatmapButton.isSelected());
+   } else if (e.getComponent() == mHintButton) {
+    mBoard.setHintShown(mHintButton.isSelected());
+   }
+  }
+ };
+
+ private PropertyChangeListener knownCardsListener = new PropertyChangeListener() {
+  public void propertyChange(PropertyChangeEvent e) {
+   updateKnownCards();
+  }
+ };
+
+ private WindowAdapter windowListener = new WindowAdapter() {
+  public void windowClosing(WindowEvent e) {
+   if (mSnapshots != null) {
+    mSnapshots.force();
+   }
+   if (mJournal != null) {
+    mJournal.close();
+   }
+   if (mLeaderboard != null) {
+    mLeaderboard.close();
    }
   }
  };
 
+ ///////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ///////////////////////////////////////////////////////////////////////////
+
+ // This method shows how many cards were seen and are left to discover
+ private void updateKnownCards() {
+
+  KnownCards known = mBoard.getKnownCards();
+  if (known != null) {
+   mKnownCardsLabel.setText(" Seen " + known.getNumOfSeenCards()
+     + ", unseen " + known.getNumOfUnseenCards() + " ");
+  }
+ }
+
+ // This method resumes the game left in progress on a board of this size,
+ // and saves the game from now on
+ private void resume(int aNumOfRows, int aNumOfColumns) {
+
+  File file = new File(System.getProperty("user.home"), String.format(
+    SNAPSHOT_FILE_FORMAT, aNumOfRows, aNumOfColumns));
+
+  try {
+   mSnapshots = new SnapshotFile(file, aNumOfRows * aNumOfColumns, 1);
+  } catch (IOException e) {
+   // The game is played without saving
+   error("resume(int, int) reported " + e, false);
+   return;
+  }
+
+  mBoard.setSnapshotFile(mSnapshots, SNAPSHOT_SLOT);
+  mBoard.resume();
+ }
+
+ // This method records the moves of the games from now on
+ private void openJournal() {
+
+  try {
+   mJournal = new MoveJournal(new File(System.getProperty("user.home"),
+     JOURNAL_FILE));
+  } catch (IOException e) {
+   // The game is played without a journal
+   error("openJournal() reported " + e, false);
+   return;
+  }
+
+  mBoard.setJournal(mJournal);
+ }
+
+ // This method ranks the finished games from now on
+ private void openLeaderboard() {
+
+  try {
+   mLeaderboard = new Leaderboard(new File(System.getProperty("user.home"),
+     LEADERBOARD_FILE));
+  } catch (IOException e) {
+   // The game is played without a leaderboard
+   error("openLeaderboard() reported " + e, false);
+   return;
+  }
+
+  mBoard.setLeaderboard(mLeaderboard);
+ }
+
  ///////////////////////////////////////////////////////////////////////////
  // Static methods
  ///////////////////////////////////////////////////////////////////////////
@@ -94,9 +291,38 @@ public class Memory extends JFrame {
   * this application. It is not compatible with CLI.
   * 
   * @param args
-  *            - Parameters are ignored.
+  *            - Optional number of rows and number of columns of the board,
+  *            4 x 6 by default.
   */
  public static void main(String[] args) {
-  new Memory();
+
+  if (Boolean.getBoolean(STARTUP_PROPERTY)) {
+   sMainTime = System.nanoTime();
+  }
+
+  String deck = System.getProperty(DECK_PROPERTY);
+  if (deck != null) {
+   try {
+    CardImages.setDeckPack(DeckPack.open(new File(deck)));
+   } catch (IOException e) {
+    error("main(String[]) can't open the deck " + deck + ": " + e, false);
+   }
+  }
+
+  if (args.length >= 2) {
+   new Memory(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+  } else {
+   new Memory();
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
  }
 }
@@ -0,0 +1,479 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load generator for MemoryServer. It opens many connections, each played
+ * by a Player bot that deals a game, flips cards until the game is solved and
+ * deals again, with one command in flight per connection. The connections are
+ * shared by a few threads, each with its own NIO selector. At the end it
+ * prints the flips per second and the percentiles of the flip latency, from
+ * the FLIP command sent to its reply received.
+ */
+public class MemoryLoadClient {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "MemoryLoadClient: ";
+
+ private static final String DEFAULT_HOST = "localhost";
+ private static final int DEFAULT_PORT = 7777;
+ private static final int DEFAULT_NUMBER_OF_CONNECTIONS = 1000;
+ private static final int DEFAULT_DURATION = 10;
+ private static final int DEFAULT_WARMUP = 2;
+ private static final String DEFAULT_SIZE = "4x6";
+ private static final String DEFAULT_MODEL = "perfect";
+ private static final long DEFAULT_SEED = 2012;
+
+ private static final int BUFFER_SIZE = 256;
+ private static final long SELECT_TIMEOUT = 100;
+
+ private static final double[] PERCENTILES = { 0.50, 0.90, 0.99 };
+
+ // What a connection waits for
+ private static final int WAITING_DEAL = 0;
+ private static final int WAITING_FIRST = 1;
+ private static final int WAITING_SECOND = 2;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final InetSocketAddress mAddress;
+ private final int mNumOfRows;
+ private final int mNumOfColumns;
+ private final String mModel;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a client of a server.
+  *
+  * @param anAddress
+  *            is the address of the server
+  * @param aNumOfRows
+  *            is the number of rows of the games
+  * @param aNumOfColumns
+  *            is the number of columns of the games
+  * @param aModel
+  *            is the player model of the bots, see Player.create()
+  */
+ public MemoryLoadClient(InetSocketAddress anAddress, int aNumOfRows,
+   int aNumOfColumns, String aModel) {
+  mAddress = anAddress;
+  mNumOfRows = aNumOfRows;
+  mNumOfColumns = aNumOfColumns;
+  mModel = aModel;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method plays games on a number of connections and prints the
+  * results.
+  *
+  * @param aNumOfConnections
+  *            is the number of connections, each with its own bot
+  * @param aNumOfThreads
+  *            is the number of threads sharing the connections
+  * @param aWarmup
+  *            is the time in nanoseconds played before measuring
+  * @param aDuration
+  *            is the time in nanoseconds measured
+  * @param aSeed
+  *            is the seed of the bots' choices
+  */
+ public void run(int aNumOfConnections, int aNumOfThreads, long aWarmup,
+   long aDuration, long aSeed) throws IOException, InterruptedException {
+
+  SplittableRandom root = new SplittableRandom(aSeed);
+  Worker[] workers = new Worker[Math.max(1, aNumOfThreads)];
+  Thread[] threads = new Thread[workers.length];
+
+  long start = System.nanoTime() + aWarmup;
+  long end = start + aDuration;
+
+  for (int i = 0; i < workers.length; i++) {
+   int connections = aNumOfConnections / workers.length
+     + (i < aNumOfConnections % workers.length ? 1 : 0);
+   workers[i] = new Worker(connections, root.split(), start, end);
+  }
+  for (int i = 0; i < workers.length; i++) {
+   threads[i] = new Thread(workers[i], "memory-load-" + i);
+   threads[i].start();
+  }
+
+  LatencyHistogram latencies = new LatencyHistogram();
+  long games = 0;
+  for (int i = 0; i < workers.length; i++) {
+   threads[i].join();
+   latencies.add(workers[i].mLatencies);
+   games += workers[i].mNumOfGames;
+  }
+
+  print(aNumOfConnections, latencies, games, aDuration / 1e9);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Connections
+ ////////////////////////////////////////////////////////////////////////////
+
+ // A connection and its bot, attached to its selection key
+ private static final class Connection {
+
+  final SocketChannel mChannel;
+  final Player mPlayer;
+  final ByteBuffer mRequest = ByteBuffer.allocate(BUFFER_SIZE);
+  final ByteBuffer mReply = ByteBuffer.allocate(BUFFER_SIZE);
+  int mWaiting = WAITING_DEAL;
+  int mNumOfPairs = 0;
+  int mFirst = -1;
+  int mSecond = -1;
+  long mSent = 0;
+
+  // Cursor of the reply being parsed
+  int mCursor = 0;
+
+  Connection(SocketChannel aChannel, Player aPlayer) {
+   mChannel = aChannel;
+   mPlayer = aPlayer;
+  }
+ }
+
+ // A thread playing its connections with one selector
+ private final class Worker implements Runnable {
+
+  private final int mNumOfConnections;
+  private final SplittableRandom mRandom;
+  private final long mStart;
+  private final long mEnd;
+  private final LatencyHistogram mLatencies = new LatencyHistogram();
+  private final byte[] mNewCommand;
+  private long mNumOfGames = 0;
+
+  Worker(int aNumOfConnections, SplittableRandom aRandom, long aStart,
+    long anEnd) {
+   mNumOfConnections = aNumOfConnections;
+   mRandom = aRandom;
+   mStart = aStart;
+   mEnd = anEnd;
+   mNewCommand = ("NEW " + mNumOfRows + " " + mNumOfColumns + "\n")
+     .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  public void run() {
+
+   Selector selector = null;
+   try {
+    selector = Selector.open();
+
+    for (int i = 0; i < mNumOfConnections; i++) {
+     SocketChannel channel = SocketChannel.open(mAddress);
+     channel.socket().setTcpNoDelay(true);
+     channel.configureBlocking(false);
+
+     Player player = Player.create(mModel, mRandom.split());
+     if (player == null) {
+      error("run() received an unknown model " + mModel, true);
+     }
+     Connection connection = new Connection(channel, player);
+     channel.register(selector, SelectionKey.OP_READ, connection);
+
+     connection.mRequest.put(mNewCommand);
+     send(connection, System.nanoTime());
+    }
+
+    while (System.nanoTime() - mEnd < 0) {
+     selector.select(SELECT_TIMEOUT);
+     Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+     while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      receive((Connection) key.attachment());
+     }
+    }
+   } catch (IOException e) {
+    error("run() reported " + e, true);
+   } finally {
+    if (selector != null) {
+     for (SelectionKey key : selector.keys()) {
+      try {
+       key.channel().close();
+      } catch (IOException e) {
+       // Nothing more to do
+      }
+     }
+     try {
+      selector.close();
+     } catch (IOException e) {
+      // Nothing more to do
+     }
+    }
+   }
+  }
+
+  // This method handles every complete reply received
+  private void receive(Connection connection) throws IOException {
+
+   ByteBuffer reply = connection.mReply;
+   if (connection.mChannel.read(reply) < 0) {
+    error("receive() reported \"Connection closed by the server\"", true);
+   }
+
+   byte[] bytes = reply.array();
+   int start = 0;
+   int end = reply.position();
+   long now = System.nanoTime();
+
+   for (int i = 0; i < end; i++) {
+    if (bytes[i] == '\n') {
+     connection.mCursor = start;
+     handle(connection, bytes, i, now);
+     start = i + 1;
+    }
+   }
+
+   reply.limit(end);
+   reply.position(start);
+   reply.compact();
+
+   send(connection, now);
+  }
+
+  // This method plays the bot's next move after a reply
+  private void handle(Connection connection, byte[] line, int end, long now) {
+
+   Player player = connection.mPlayer;
+   char reply = (char) line[connection.mCursor];
+   // MATCH and MISMATCH differ by their second letter
+   boolean isMatch = reply == 'M' && connection.mCursor + 1 < end
+     && line[connection.mCursor + 1] == 'A';
+
+   if (connection.mWaiting == WAITING_DEAL && reply == 'D') {
+    skip(connection, line, end);
+    int numOfCards = number(connection, line, end);
+    connection.mNumOfPairs = numOfCards / 2;
+    player.reset(numOfCards);
+    flipFirst(connection);
+    return;
+   }
+
+   if (connection.mWaiting == WAITING_DEAL || reply == 'E' || reply == 'I') {
+    error("handle() received \""
+      + new String(line, connection.mCursor, end - connection.mCursor,
+        StandardCharsets.US_ASCII) + "\"", true);
+   }
+
+   if (now - mStart >= 0) {
+    mLatencies.record(now - connection.mSent);
+   }
+
+   skip(connection, line, end);
+   int index = number(connection, line, end);
+   int type = number(connection, line, end);
+   player.seen(index, type);
+
+   if (connection.mWaiting == WAITING_FIRST) {
+    // FIRST index type
+    connection.mSecond = player.chooseSecond(connection.mFirst);
+    flip(connection, connection.mSecond, WAITING_SECOND);
+   } else if (isMatch) {
+    // MATCH index type matched failed
+    player.pairMatched(connection.mFirst, connection.mSecond);
+    if (number(connection, line, end) == connection.mNumOfPairs) {
+     mNumOfGames++;
+     connection.mRequest.put(mNewCommand);
+     connection.mWaiting = WAITING_DEAL;
+    } else {
+     flipFirst(connection);
+    }
+   } else {
+    // MISMATCH index type failed
+    flipFirst(connection);
+   }
+  }
+
+  private void flipFirst(Connection connection) {
+   connection.mFirst = connection.mPlayer.chooseFirst();
+   flip(connection, connection.mFirst, WAITING_FIRST);
+  }
+
+  private void flip(Connection connection, int index, int waiting) {
+   ByteBuffer request = connection.mRequest;
+   request.put((byte) 'F').put((byte) 'L').put((byte) 'I')
+     .put((byte) 'P').put((byte) ' ');
+   putNumber(request, index);
+   request.put((byte) '\n');
+   connection.mWaiting = waiting;
+  }
+
+  // This method sends the pending command of a connection
+  private void send(Connection connection, long now) throws IOException {
+
+   ByteBuffer request = connection.mRequest;
+   if (request.position() == 0) {
+    return;
+   }
+
+   request.flip();
+   while (request.hasRemaining()) {
+    // A command is tiny, the socket buffer takes it at once
+    connection.mChannel.write(request);
+   }
+   request.clear();
+   connection.mSent = now;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Runs the load and prints the flip latencies.
+  *
+  * @param args
+  *            - Optional -host h, -port p, -connections n, -threads t,
+  *            -duration seconds, -warmup seconds, -size 4x6, -model perfect,
+  *            -seed s and -embedded to start a server in this process on a
+  *            free loopback port.
+  */
+ public static void main(String[] args) throws IOException,
+   InterruptedException {
+
+  String host = DEFAULT_HOST;
+  int port = DEFAULT_PORT;
+  int numOfConnections = DEFAULT_NUMBER_OF_CONNECTIONS;
+  int numOfThreads = Runtime.getRuntime().availableProcessors();
+  int duration = DEFAULT_DURATION;
+  int warmup = DEFAULT_WARMUP;
+  String size = DEFAULT_SIZE;
+  String model = DEFAULT_MODEL;
+  long seed = DEFAULT_SEED;
+  boolean embedded = false;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-host".equals(args[i]) && i + 1 < args.length) {
+    host = args[++i];
+   } else if ("-port".equals(args[i]) && i + 1 < args.length) {
+    port = Integer.parseInt(args[++i]);
+   } else if ("-connections".equals(args[i]) && i + 1 < args.length) {
+    numOfConnections = Integer.parseInt(args[++i]);
+   } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+    numOfThreads = Integer.parseInt(args[++i]);
+   } else if ("-duration".equals(args[i]) && i + 1 < args.length) {
+    duration = Integer.parseInt(args[++i]);
+   } else if ("-warmup".equals(args[i]) && i + 1 < args.length) {
+    warmup = Integer.parseInt(args[++i]);
+   } else if ("-size".equals(args[i]) && i + 1 < args.length) {
+    size = args[++i];
+   } else if ("-model".equals(args[i]) && i + 1 < args.length) {
+    model = args[++i];
+   } else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+    seed = Long.parseLong(args[++i]);
+   } else if ("-embedded".equals(args[i])) {
+    embedded = true;
+   } else {
+    error("main(String[]) received an unknown argument " + args[i], true);
+   }
+  }
+
+  MemoryServer server = null;
+  if (embedded) {
+   server = new MemoryServer(0, numOfThreads, TimeUnit.MINUTES.toNanos(5));
+   server.start();
+   host = "127.0.0.1";
+   port = server.getPort();
+  }
+
+  String[] dimensions = size.split("x");
+  MemoryLoadClient client = new MemoryLoadClient(new InetSocketAddress(host,
+    port), Integer.parseInt(dimensions[0]),
+    Integer.parseInt(dimensions[1]), model);
+  client.run(numOfConnections, numOfThreads, TimeUnit.SECONDS
+    .toNanos(warmup), TimeUnit.SECONDS.toNanos(duration), seed);
+
+  if (server != null) {
+   server.stop();
+  }
+ }
+
+ // This method prints the results of a run
+ private static void print(int numOfConnections, LatencyHistogram latencies,
+   long games, double seconds) {
+
+  System.out.println(String.format(Locale.ROOT,
+    "%11s %12s %12s %10s %9s %9s %9s %9s", "connections", "flips",
+    "flips/s", "games/s", "p50 us", "p90 us", "p99 us", "max us"));
+
+  StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+    "%11d %12d %12.0f %10.0f", numOfConnections, latencies.getCount(),
+    latencies.getCount() / seconds, games / seconds));
+  for (double percentile : PERCENTILES) {
+   line.append(String.format(Locale.ROOT, " %9.1f",
+     latencies.getValueAtPercentile(percentile) / 1e3));
+  }
+  line.append(String.format(Locale.ROOT, " %9.1f",
+    latencies.getMax() / 1e3));
+
+  System.out.println(line);
+ }
+
+ // This method moves past the word of a reply
+ private static void skip(Connection connection, byte[] line, int end) {
+  while (connection.mCursor < end && line[connection.mCursor] != ' ') {
+   connection.mCursor++;
+  }
+ }
+
+ // This method parses the next decimal number of a reply
+ private static int number(Connection connection, byte[] line, int end) {
+
+  while (connection.mCursor < end && line[connection.mCursor] == ' ') {
+   connection.mCursor++;
+  }
+
+  int value = 0;
+  while (connection.mCursor < end && line[connection.mCursor] != ' ') {
+   value = value * 10 + (line[connection.mCursor++] - '0');
+  }
+  return value;
+ }
+
+ // This method writes a decimal number
+ private static void putNumber(ByteBuffer buffer, int value) {
+
+  int divisor = 1;
+  while (divisor <= value / 10) {
+   divisor *= 10;
+  }
+  for (; divisor > 0; divisor /= 10) {
+   buffer.put((byte) ('0' + (value / divisor) % 10));
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
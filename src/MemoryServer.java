@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A server hosting Memory games for remote players. Every connection is a
+ * GameSession speaking the line protocol of GameSession. The connections are
+ * spread over a few event loops, each a single thread with its own NIO
+ * selector, so that tens of thousands of sessions need a handful of threads.
+ * A session that stays idle too long is closed. The sessions that join the
+ * same table play one board together, whatever their event loops, see
+ * SharedBoards.
+ */
+public class MemoryServer {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "MemoryServer: ";
+
+ private static final int DEFAULT_PORT = 7777;
+ private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES
+   .toNanos(5);
+ private static final long SWEEP_PERIOD = TimeUnit.SECONDS.toNanos(1);
+ // Waits after a failed accept, doubled while it keeps failing, as when the
+ // process is out of file descriptors
+ private static final long MIN_ACCEPT_DELAY = 10;
+ private static final long MAX_ACCEPT_DELAY = 1000;
+
+ // Buffers of a connection, the reply buffer grows when a client pipelines
+ private static final int REQUEST_BUFFER_SIZE = 256;
+ private static final int REPLY_BUFFER_SIZE = 4 * GameSession.MAX_REPLY_LENGTH;
+ // Over this many pending reply bytes, a connection isn't read until its
+ // client takes them; the buffer never grows past the cap
+ private static final int REPLY_HIGH_WATER = 16 * 1024;
+ private static final int MAX_REPLY_BUFFER_SIZE = 2 * REPLY_HIGH_WATER;
+
+ private static final byte[] LINE_TOO_LONG = "ERR line too long\n".getBytes();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final ServerSocketChannel mServerChannel;
+ private final EventLoop[] mLoops;
+ private final SplittableRandom mSeeds = new SplittableRandom();
+ // The boards the sessions of every event loop play together
+ private final SharedBoards mSharedBoards = new SharedBoards();
+ private final long mIdleTimeout;
+ private final AtomicInteger mNumOfSessions = new AtomicInteger();
+ private volatile boolean mIsRunning = true;
+ private Thread mAcceptor = null;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a server listening on a port.
+  *
+  * @param aPort
+  *            is the port, 0 for any free port
+  * @param aNumOfLoops
+  *            is the number of event loops
+  * @param anIdleTimeout
+  *            is the time in nanoseconds after which an idle session is
+  *            closed
+  */
+ public MemoryServer(int aPort, int aNumOfLoops, long anIdleTimeout)
+   throws IOException {
+
+  mIdleTimeout = anIdleTimeout;
+  mServerChannel = ServerSocketChannel.open();
+  mServerChannel.bind(new InetSocketAddress(aPort), 1024);
+
+  mLoops = new EventLoop[Math.max(1, aNumOfLoops)];
+  for (int i = 0; i < mLoops.length; i++) {
+   mLoops[i] = new EventLoop(mSeeds.split());
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method starts the event loops and accepts connections.
+  */
+ public void start() {
+
+  for (int i = 0; i < mLoops.length; i++) {
+   Thread thread = new Thread(mLoops[i], "memory-loop-" + i);
+   thread.setDaemon(true);
+   thread.start();
+  }
+
+  mAcceptor = new Thread(new Runnable() {
+   public void run() {
+    accept();
+   }
+  }, "memory-acceptor");
+  mAcceptor.setDaemon(true);
+  mAcceptor.start();
+ }
+
+ /**
+  * This method closes the server and every session.
+  */
+ public void stop() {
+
+  mIsRunning = false;
+  try {
+   mServerChannel.close();
+  } catch (IOException e) {
+   error("stop() reported " + e, false);
+  }
+  for (EventLoop loop : mLoops) {
+   loop.close();
+  }
+ }
+
+ /**
+  * This method gets the port the server listens on.
+  */
+ public int getPort() {
+
+  return mServerChannel.socket().getLocalPort();
+ }
+
+ /**
+  * This method gets the number of open sessions.
+  */
+ public int getNumOfSessions() {
+
+  return mNumOfSessions.get();
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method hands the accepted connections to the event loops in turn
+ private void accept() {
+
+  int next = 0;
+  long delay = MIN_ACCEPT_DELAY;
+
+  while (mIsRunning) {
+   try {
+    SocketChannel channel = mServerChannel.accept();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+
+    mLoops[next].add(channel);
+    next = (next + 1) % mLoops.length;
+    delay = MIN_ACCEPT_DELAY;
+   } catch (IOException e) {
+    if (!mIsRunning || !mServerChannel.isOpen()) {
+     return;
+    }
+    error("accept() reported " + e + ", retrying in " + delay + " ms", false);
+
+    // A lasting failure is retried less and less often
+    try {
+     Thread.sleep(delay);
+    } catch (InterruptedException interrupted) {
+     Thread.currentThread().interrupt();
+     return;
+    }
+    delay = Math.min(delay * 2, MAX_ACCEPT_DELAY);
+   }
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Event loop
+ ////////////////////////////////////////////////////////////////////////////
+
+ // A connection, attached to its selection key
+ private static final class Connection {
+
+  final SocketChannel mChannel;
+  final GameSession mSession;
+  final ByteBuffer mRequest = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+  ByteBuffer mReply = ByteBuffer.allocate(REPLY_BUFFER_SIZE);
+  boolean mIsClosing = false;
+
+  Connection(SocketChannel aChannel, GameSession aSession) {
+   mChannel = aChannel;
+   mSession = aSession;
+  }
+ }
+
+ // A thread serving its connections with one selector
+ private final class EventLoop implements Runnable {
+
+  private final Selector mSelector;
+  private final SplittableRandom mLoopSeeds;
+  private final ConcurrentLinkedQueue<SocketChannel> mNewChannels = new ConcurrentLinkedQueue<SocketChannel>();
+  private long mNextSweep = System.nanoTime() + SWEEP_PERIOD;
+
+  EventLoop(SplittableRandom aSeeds) throws IOException {
+   mSelector = Selector.open();
+   mLoopSeeds = aSeeds;
+  }
+
+  // Called by the acceptor
+  void add(SocketChannel aChannel) {
+   mNewChannels.add(aChannel);
+   mSelector.wakeup();
+  }
+
+  void close() {
+   try {
+    for (SelectionKey key : mSelector.keys()) {
+     key.channel().close();
+    }
+    mSelector.close();
+   } catch (IOException e) {
+    error("close() reported " + e, false);
+   } catch (ClosedSelectorException e) {
+    // Already closed
+   }
+  }
+
+  public void run() {
+
+   try {
+    while (mIsRunning) {
+     mSelector.select(TimeUnit.NANOSECONDS.toMillis(SWEEP_PERIOD));
+     long now = System.nanoTime();
+
+     register(now);
+
+     Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+     while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      serve(key, now);
+     }
+
+     if (now - mNextSweep >= 0) {
+      sweep(now);
+      mNextSweep = now + SWEEP_PERIOD;
+     }
+    }
+   } catch (IOException e) {
+    error("run() reported " + e, false);
+   } catch (ClosedSelectorException e) {
+    // The server was stopped
+   }
+  }
+
+  // This method registers the connections accepted since the last select
+  private void register(long now) {
+
+   SocketChannel channel;
+   while ((channel = mNewChannels.poll()) != null) {
+    try {
+     GameSession session = new GameSession(mLoopSeeds.split(),
+       mSharedBoards);
+     session.touch(now);
+     channel.register(mSelector, SelectionKey.OP_READ, new Connection(
+       channel, session));
+     mNumOfSessions.incrementAndGet();
+    } catch (IOException e) {
+     error("register() reported " + e, false);
+     closeQuietly(channel);
+    }
+   }
+  }
+
+  // This method reads the requests of a connection and writes its replies
+  private void serve(SelectionKey key, long now) {
+
+   Connection connection = (Connection) key.attachment();
+
+   try {
+    if (key.isValid() && key.isReadable()) {
+     read(connection, now);
+    }
+    if (key.isValid()) {
+     write(key, connection);
+    }
+   } catch (IOException e) {
+    close(key);
+   }
+  }
+
+  // This method reads the requests of a connection and handles them
+  private void read(Connection connection, long now) throws IOException {
+
+   if (connection.mChannel.read(connection.mRequest) < 0) {
+    connection.mIsClosing = true;
+    return;
+   }
+
+   connection.mSession.touch(now);
+   handleLines(connection);
+  }
+
+  // This method handles the complete lines received, until the pending
+  // replies reach the high-water mark; the other lines wait for the
+  // client to take its replies
+  private void handleLines(Connection connection) {
+
+   ByteBuffer request = connection.mRequest;
+   byte[] bytes = request.array();
+   int start = 0;
+   int end = request.position();
+   boolean isPaused = false;
+
+   for (int i = 0; i < end && !connection.mIsClosing; i++) {
+    if (connection.mReply.position() >= REPLY_HIGH_WATER) {
+     isPaused = true;
+     break;
+    }
+    if (bytes[i] == '\n') {
+     if (!ensureReplySpace(connection)
+       || !connection.mSession.handle(bytes, start, i - start,
+         connection.mReply)) {
+      connection.mIsClosing = true;
+     }
+     start = i + 1;
+    }
+   }
+
+   if (!isPaused && start == 0 && end == request.capacity()) {
+    // A full buffer without an end of line
+    if (ensureReplySpace(connection)) {
+     connection.mReply.put(LINE_TOO_LONG);
+    }
+    connection.mIsClosing = true;
+   }
+
+   // Keep the partial line for the next read
+   request.limit(end);
+   request.position(start);
+   request.compact();
+  }
+
+  // This method writes the pending replies, and waits for the socket to
+  // accept the rest
+  private void write(SelectionKey key, Connection connection)
+    throws IOException {
+
+   ByteBuffer reply = connection.mReply;
+   if (reply.position() > 0) {
+    reply.flip();
+    connection.mChannel.write(reply);
+    reply.compact();
+   }
+
+   // The lines left while the replies were over the mark
+   if (!connection.mIsClosing && reply.position() < REPLY_HIGH_WATER
+     && connection.mRequest.position() > 0) {
+    handleLines(connection);
+   }
+
+   if (reply.position() == 0 && connection.mIsClosing) {
+    close(key);
+    return;
+   }
+
+   // No more reading while the client doesn't take its replies
+   int ops = reply.position() > 0 ? SelectionKey.OP_WRITE : 0;
+   if (!connection.mIsClosing && reply.position() < REPLY_HIGH_WATER) {
+    ops |= SelectionKey.OP_READ;
+   }
+   key.interestOps(ops);
+  }
+
+  // This method closes the sessions that have been idle too long
+  private void sweep(long now) {
+
+   for (SelectionKey key : mSelector.keys()) {
+    Connection connection = (Connection) key.attachment();
+    if (key.isValid()
+      && now - connection.mSession.getLastActivity() > mIdleTimeout) {
+     close(key);
+    }
+   }
+  }
+
+  private void close(SelectionKey key) {
+   if (!key.isValid()) {
+    return;
+   }
+   key.cancel();
+   closeQuietly(key.channel());
+   mNumOfSessions.decrementAndGet();
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Starts a server.
+  *
+  * @param args
+  *            - Optional -port p (7777 by default), -loops n (one per
+  *            processor by default) and -idle seconds.
+  */
+ public static void main(String[] args) throws IOException {
+
+  int port = DEFAULT_PORT;
+  int numOfLoops = Runtime.getRuntime().availableProcessors();
+  long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-port".equals(args[i]) && i + 1 < args.length) {
+    port = Integer.parseInt(args[++i]);
+   } else if ("-loops".equals(args[i]) && i + 1 < args.length) {
+    numOfLoops = Integer.parseInt(args[++i]);
+   } else if ("-idle".equals(args[i]) && i + 1 < args.length) {
+    idleTimeout = TimeUnit.SECONDS.toNanos(Long.parseLong(args[++i]));
+   } else {
+    error("main(String[]) received an unknown argument " + args[i], true);
+   }
+  }
+
+  MemoryServer server = new MemoryServer(port, numOfLoops, idleTimeout);
+  server.start();
+  System.out.println(TAG + "listening on port " + server.getPort());
+
+  // The loops are daemons, keep the process alive
+  try {
+   server.mAcceptor.join();
+  } catch (InterruptedException e) {
+   server.stop();
+  }
+ }
+
+ // This method makes room for one more reply, it returns false if the
+ // buffer would grow past its cap: the connection is then closed
+ private static boolean ensureReplySpace(Connection connection) {
+
+  if (connection.mReply.remaining() < GameSession.MAX_REPLY_LENGTH) {
+   int capacity = connection.mReply.capacity() * 2;
+   if (capacity > MAX_REPLY_BUFFER_SIZE) {
+    return false;
+   }
+   ByteBuffer larger = ByteBuffer.allocate(capacity);
+   connection.mReply.flip();
+   larger.put(connection.mReply);
+   connection.mReply = larger;
+  }
+  return true;
+ }
+
+ private static void closeQuietly(Channel channel) {
+  try {
+   channel.close();
+  } catch (IOException e) {
+   // Nothing more to do
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,276 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only journal of the moves of games, in a compact binary format
+ * that JournalReplayer reads back to check the scores. Each record starts
+ * with its tag:
+ *
+ * <pre>
+ * 'J' journal      tag, 3 bytes, int magic                                    8 bytes
+ * 'G' new game     tag, 3 bytes, int cards, long seed, int first face,
+ *                  int faces, long time in milliseconds since the epoch      32 bytes
+ * 'R' restart      tag, 3 bytes, int 0, long nanoseconds since the game began 16 bytes
+ * 'F' flip         tag, byte result, 2 bytes, int index, long nanoseconds    16 bytes
+ * 'S' solved       tag, 3 bytes, int failed attempts, long nanoseconds        16 bytes
+ * 'C' resumed      tag, 3 bytes, int size, the snapshot written by
+ *                  Game.save(ByteBuffer), zeros up to a multiple of 8   8 + size bytes
+ * </pre>
+ *
+ * The numbers are big-endian. A flip records the result of Game.flip(int),
+ * flips that were ignored are not recorded. A game recorded from the middle,
+ * e.g. resumed after the program was killed, starts with a 'G' record
+ * followed by a 'C' record of its state, the flips that came before may be
+ * lost. Journals can be concatenated, a day of games is read in one pass.
+ *
+ * The records are gathered in a buffer and written when it is full, when a
+ * game is solved and when the journal is flushed. A journal is not thread
+ * safe, it is written by one thread, e.g. the event dispatch thread.
+ */
+public class MoveJournal {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "MoveJournal: ";
+
+ // Magic number of the 'J' record
+ static final int MAGIC = 0x4D454D4A;
+
+ // Record tags, shared with JournalReplayer
+ static final byte JOURNAL_RECORD = 'J';
+ static final byte GAME_RECORD = 'G';
+ static final byte RESTART_RECORD = 'R';
+ static final byte FLIP_RECORD = 'F';
+ static final byte SOLVED_RECORD = 'S';
+ static final byte RESUMED_RECORD = 'C';
+
+ // Record sizes
+ static final int JOURNAL_RECORD_SIZE = 8;
+ static final int GAME_RECORD_SIZE = 32;
+ static final int MOVE_RECORD_SIZE = 16;
+ // The 'C' record is this header then its snapshot
+ static final int RESUMED_RECORD_HEADER_SIZE = 8;
+ private static final int RECORD_ALIGNMENT = 8;
+
+ private static final int BUFFER_SIZE = 64 * 1024;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final FileChannel mChannel;
+ private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+ // System.nanoTime() when the current game began
+ private long mGameStart = System.nanoTime();
+ private boolean mIsFailed = false;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Opens a journal, the records are appended to the file.
+  *
+  * @param aFile
+  *            is the file, it is created if it doesn't exist
+  */
+ public MoveJournal(File aFile) throws IOException {
+
+  mChannel = FileChannel.open(aFile.toPath(), StandardOpenOption.CREATE,
+    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+  mBuffer.put(JOURNAL_RECORD).put((byte) 0).putShort((short) 0);
+  mBuffer.putInt(MAGIC);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method records a new deal.
+  *
+  * @param aSeed
+  *            is the seed of the deal
+  * @param aNumOfCards
+  *            is the number of cards
+  * @param aFirstFace
+  *            is the first face of the Dealer of the deal
+  * @param aNumOfFaces
+  *            is the number of faces of the Dealer of the deal
+  */
+ public void newGame(long aSeed, int aNumOfCards, int aFirstFace,
+   int aNumOfFaces) {
+
+  mGameStart = System.nanoTime();
+
+  reserve(GAME_RECORD_SIZE);
+  mBuffer.put(GAME_RECORD).put((byte) 0).putShort((short) 0);
+  mBuffer.putInt(aNumOfCards);
+  mBuffer.putLong(aSeed);
+  mBuffer.putInt(aFirstFace);
+  mBuffer.putInt(aNumOfFaces);
+  mBuffer.putLong(System.currentTimeMillis());
+ }
+
+ /**
+  * This method records that the current deal is played again.
+  */
+ public void restart() {
+
+  putMove(RESTART_RECORD, 0, 0);
+ }
+
+ /**
+  * This method records a flip.
+  *
+  * @param anIndex
+  *            is the index of the card
+  * @param aResult
+  *            is the result of Game.flip(int)
+  */
+ public void flip(int anIndex, int aResult) {
+
+  putMove(FLIP_RECORD, aResult, anIndex);
+ }
+
+ /**
+  * This method records the score of a solved game, and writes the records
+  * of the game to the file.
+  *
+  * @param aNumOfFailedAttempts
+  *            is the number of failed attempts of the game
+  */
+ public void solved(int aNumOfFailedAttempts) {
+
+  putMove(SOLVED_RECORD, 0, aNumOfFailedAttempts);
+  flush();
+ }
+
+ /**
+  * This method records the state of a game recorded from the middle, after
+  * its 'G' record, so that its flips replay from that state.
+  *
+  * @param aGame
+  *            is the game, as the following flips find it
+  */
+ public void resumed(Game aGame) {
+
+  int size = aGame.getSnapshotSize();
+  ByteBuffer record = ByteBuffer.allocate(RESUMED_RECORD_HEADER_SIZE
+    + align(size));
+  record.put(RESUMED_RECORD).put((byte) 0).putShort((short) 0);
+  record.putInt(size);
+  aGame.save(record);
+  record.clear();
+
+  // A large board's state doesn't fit the buffer, it is written on its own
+  flush();
+  write(record);
+ }
+
+ /**
+  * This method writes the pending records to the file.
+  */
+ public void flush() {
+
+  // A failed journal drops its records, the buffer must still make room
+  if (mIsFailed) {
+   mBuffer.clear();
+   return;
+  }
+
+  mBuffer.flip();
+  write(mBuffer);
+  mBuffer.clear();
+ }
+
+ /**
+  * This method writes the pending records and closes the file.
+  */
+ public void close() {
+
+  flush();
+  try {
+   mChannel.close();
+  } catch (IOException e) {
+   error("close() reported " + e, false);
+  }
+ }
+
+ /**
+  * This method checks if the journal could not be written, the records are
+  * then dropped.
+  *
+  * @return true if a write failed
+  */
+ public boolean isFailed() {
+
+  return mIsFailed;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method adds a 16 bytes record
+ private void putMove(byte tag, int result, int value) {
+
+  reserve(MOVE_RECORD_SIZE);
+  mBuffer.put(tag).put((byte) result).putShort((short) 0);
+  mBuffer.putInt(value);
+  mBuffer.putLong(System.nanoTime() - mGameStart);
+ }
+
+ // This method makes room for a record
+ private void reserve(int size) {
+
+  if (mBuffer.remaining() < size) {
+   flush();
+  }
+ }
+
+ // This method writes records to the file, unless a write failed before
+ private void write(ByteBuffer records) {
+
+  if (mIsFailed) {
+   return;
+  }
+
+  try {
+   while (records.hasRemaining()) {
+    mChannel.write(records);
+   }
+  } catch (IOException e) {
+   // The game goes on without a journal
+   mIsFailed = true;
+   error("write(ByteBuffer) reported " + e, false);
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method rounds a size up to the alignment of the records
+ static int align(int size) {
+  return (size + RECORD_ALIGNMENT - 1) & -RECORD_ALIGNMENT;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,216 @@
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The par of a board: the expected number of failed attempts of a player
+ * with a perfect memory who plays the best moves. It is solved exactly, by
+ * dynamic programming over the state of a game as the player knows it: u
+ * cards never seen and k cards seen whose partner wasn't. A seen pair is
+ * matched at once, so nothing else matters.
+ *
+ * A turn flips an unseen card first. With probability k / u it is the
+ * partner of a seen card, which is matched. Otherwise the second flip is
+ * either an unseen card, a match with probability 1 / (u - 1), or a seen
+ * card, a sure mismatch that reveals nothing new; the best of the two is
+ * played:
+ *
+ * <pre>
+ * E(u, k) = k/u E(u-1, k-1) + (u-k)/u min(
+ *            1/(u-1) E(u-2, k) + k/(u-1) (1 + E(u-2, k))
+ *              + (u-2-k)/(u-1) (1 + E(u-2, k+2)),
+ *            1 + E(u-1, k+1))
+ * </pre>
+ *
+ * A row u only needs the rows u - 1 and u - 2, so three rows of doubles are
+ * kept, and the states of a large row are solved in parallel. A board of n
+ * pairs solves about n^2 / 2 states.
+ */
+public final class ParSolver {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "ParSolver: ";
+
+ // Rows with fewer states are solved on one thread
+ private static final int PARALLEL_THRESHOLD = 8192;
+ private static final int ROWS = 3;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final ForkJoinPool sPool = new ForkJoinPool(Math.max(1,
+   Runtime.getRuntime().availableProcessors()));
+
+ // The par of every number of pairs asked for
+ private static final ConcurrentHashMap<Integer, CompletableFuture<Double>> sPars = new ConcurrentHashMap<Integer, CompletableFuture<Double>>();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Static access only
+ private ParSolver() {
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the par of a board, solved in the background the first
+  * time the size is asked for.
+  *
+  * @param aNumOfPairs
+  *            is the number of pairs of the board
+  * @return the expected number of failed attempts of the best play
+  */
+ public static CompletableFuture<Double> getPar(final int aNumOfPairs) {
+
+  CompletableFuture<Double> par = sPars.get(aNumOfPairs);
+  if (par == null) {
+   CompletableFuture<Double> created = new CompletableFuture<Double>();
+   par = sPars.putIfAbsent(aNumOfPairs, created);
+   if (par == null) {
+    par = created;
+    sPool.execute(() -> created.complete(solve(aNumOfPairs)));
+   }
+  }
+  return par;
+ }
+
+ /**
+  * This method solves the par of a board.
+  *
+  * @param aNumOfPairs
+  *            is the number of pairs of the board
+  * @return the expected number of failed attempts of the best play
+  */
+ public static double solve(int aNumOfPairs) {
+
+  if (aNumOfPairs < 0) {
+   error("solve(int) received a negative number of pairs", true);
+  }
+
+  final int numOfCards = 2 * aNumOfPairs;
+  final double[][] rows = new double[ROWS][aNumOfPairs + 2];
+
+  for (int u = 1; u <= numOfCards; u++) {
+   final int unseen = u;
+   // k has the parity of u, and there are at most as many seen cards as
+   // cards left to match them with
+   final int first = u % 2;
+   final int last = Math.min(u, numOfCards - u);
+   final int numOfStates = last < first ? 0 : (last - first) / 2 + 1;
+
+   final double[] row = rows[u % ROWS];
+   final double[] previous = rows[(u - 1) % ROWS];
+   final double[] older = rows[(u - 2 + ROWS) % ROWS];
+
+   if (numOfStates < PARALLEL_THRESHOLD) {
+    solveStates(row, previous, older, unseen, first, last);
+    continue;
+   }
+
+   // Chunks of the row on the threads of the pool
+   final int chunkSize = PARALLEL_THRESHOLD / 2;
+   final int numOfChunks = (numOfStates + chunkSize - 1) / chunkSize;
+   try {
+    sPool.submit(
+      () -> IntStream
+        .range(0, numOfChunks)
+        .parallel()
+        .forEach(
+          chunk -> solveStates(row, previous, older, unseen, first + 2
+            * chunk * chunkSize, Math.min(last, first + 2
+            * ((chunk + 1) * chunkSize - 1))))).get();
+   } catch (InterruptedException e) {
+    Thread.currentThread().interrupt();
+    error("solve(int) was interrupted", true);
+   } catch (ExecutionException e) {
+    error("solve(int) reported " + e.getCause(), true);
+   }
+  }
+
+  return rows[numOfCards % ROWS][0];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method solves the states of row u from k = first to k = last, the
+ // rows u - 1 and u - 2 are solved
+ private static void solveStates(double[] row, double[] previous,
+   double[] older, int u, int first, int last) {
+
+  for (int k = first; k <= last; k += 2) {
+   double expected = 0;
+
+   if (k > 0) {
+    // The first card is the partner of a seen card
+    expected = (double) k / u * previous[k - 1];
+   }
+
+   if (k < u) {
+    // The first card is new, and the best second flip
+    double unseen = (older[k] + k * (1 + older[k])) / (u - 1);
+    if (u - 2 - k > 0) {
+     unseen += (double) (u - 2 - k) / (u - 1) * (1 + older[k + 2]);
+    }
+
+    double best = unseen;
+    if (k > 0) {
+     best = Math.min(best, 1 + previous[k + 1]);
+    }
+
+    expected += (double) (u - k) / u * best;
+   }
+
+   row[k] = expected;
+  }
+ }
+
+ /**
+  * Prints the par of boards.
+  *
+  * @param args
+  *            - The numbers of pairs, 12 by default.
+  */
+ public static void main(String[] args) {
+
+  if (args.length == 0) {
+   args = new String[] { "12" };
+  }
+
+  System.out.println(String.format(Locale.ROOT, "%10s %14s %10s %10s",
+    "pairs", "par", "error%", "ms"));
+
+  for (String arg : args) {
+   int numOfPairs = Integer.parseInt(arg);
+   long start = System.nanoTime();
+   double par = solve(numOfPairs);
+
+   System.out.println(String.format(Locale.ROOT, "%10d %14.4f %10.2f %10d",
+     numOfPairs, par, 100 * par / (2 * numOfPairs),
+     (System.nanoTime() - start) / 1000000));
+  }
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,190 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A Player that never forgets a card: it matches a known pair whenever it
+ * has one, otherwise it turns an unknown card and completes it with its known
+ * partner, or with another unknown card.
+ *
+ * The known cards of every type are kept in a linked list, so every choice
+ * costs the same on any board size.
+ */
+public class PerfectMemoryPlayer extends Player {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final int NUMBER_OF_TYPES = Short.MAX_VALUE + 1;
+ private static final int NONE = -1;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Known cards still on the board, linked by type
+ private int[] mKnownHead = new int[NUMBER_OF_TYPES];
+ private int[] mKnownCount = new int[NUMBER_OF_TYPES];
+ private int[] mNext = new int[0];
+ private int[] mPrevious = new int[0];
+ private int[] mType = new int[0];
+
+ // Cards never turned, and the position of each card in that list
+ private int[] mUnknown = new int[0];
+ private int[] mUnknownPosition = new int[0];
+ private int mNumOfUnknown = 0;
+
+ // Types that may have two known cards
+ private int[] mReadyTypes = new int[0];
+ private int mNumOfReadyTypes = 0;
+
+ private int mPlannedSecond = NONE;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a perfect memory player drawing its choices from the given
+  * source.
+  */
+ public PerfectMemoryPlayer(SplittableRandom aRandom) {
+  super(aRandom);
+  Arrays.fill(mKnownHead, NONE);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ @Override
+ public String getModel() {
+
+  return "perfect";
+ }
+
+ @Override
+ public void reset(int aNumOfCards) {
+
+  super.reset(aNumOfCards);
+
+  // Only the types of the cards known in the last game were used
+  for (int i = 0; i < mUnknownPosition.length; i++) {
+   if (mUnknownPosition[i] < 0) {
+    mKnownHead[mType[i]] = NONE;
+    mKnownCount[mType[i]] = 0;
+   }
+  }
+
+  if (mUnknown.length != aNumOfCards) {
+   mNext = new int[aNumOfCards];
+   mPrevious = new int[aNumOfCards];
+   mType = new int[aNumOfCards];
+   mUnknown = new int[aNumOfCards];
+   mUnknownPosition = new int[aNumOfCards];
+   mReadyTypes = new int[aNumOfCards];
+  }
+
+  for (int i = 0; i < aNumOfCards; i++) {
+   mUnknown[i] = i;
+   mUnknownPosition[i] = i;
+  }
+  mNumOfUnknown = aNumOfCards;
+  mNumOfReadyTypes = 0;
+  mPlannedSecond = NONE;
+ }
+
+ @Override
+ public int chooseFirst() {
+
+  // A known pair is a free match
+  while (mNumOfReadyTypes > 0) {
+   int type = mReadyTypes[mNumOfReadyTypes - 1];
+   if (mKnownCount[type] >= 2) {
+    int first = mKnownHead[type];
+    mPlannedSecond = mNext[first];
+    return first;
+   }
+   mNumOfReadyTypes--;
+  }
+
+  mPlannedSecond = NONE;
+  return mUnknown[mRandom.nextInt(mNumOfUnknown)];
+ }
+
+ @Override
+ public int chooseSecond(int aFirst) {
+
+  if (mPlannedSecond != NONE) {
+   int second = mPlannedSecond;
+   mPlannedSecond = NONE;
+   return second;
+  }
+
+  // The first card was just turned, its partner may be known
+  for (int card = mKnownHead[mType[aFirst]]; card != NONE; card = mNext[card]) {
+   if (card != aFirst) {
+    return card;
+   }
+  }
+
+  return mUnknown[mRandom.nextInt(mNumOfUnknown)];
+ }
+
+ @Override
+ public void seen(int anIndex, int aType) {
+
+  int position = mUnknownPosition[anIndex];
+  if (position < 0) {
+   return;
+  }
+
+  // Remove from the unknown cards
+  int last = mUnknown[--mNumOfUnknown];
+  mUnknown[position] = last;
+  mUnknownPosition[last] = position;
+  mUnknownPosition[anIndex] = NONE;
+
+  // Add to the known cards of its type
+  mType[anIndex] = aType;
+  mPrevious[anIndex] = NONE;
+  mNext[anIndex] = mKnownHead[aType];
+  if (mKnownHead[aType] != NONE) {
+   mPrevious[mKnownHead[aType]] = anIndex;
+  }
+  mKnownHead[aType] = anIndex;
+
+  if (++mKnownCount[aType] == 2) {
+   mReadyTypes[mNumOfReadyTypes++] = aType;
+  }
+ }
+
+ @Override
+ public void matched(int aFirst, int aSecond) {
+
+  forget(aFirst);
+  forget(aSecond);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method removes a known card from the list of its type
+ private void forget(int anIndex) {
+
+  int type = mType[anIndex];
+
+  if (mPrevious[anIndex] != NONE) {
+   mNext[mPrevious[anIndex]] = mNext[anIndex];
+  } else {
+   mKnownHead[type] = mNext[anIndex];
+  }
+  if (mNext[anIndex] != NONE) {
+   mPrevious[mNext[anIndex]] = mPrevious[anIndex];
+  }
+
+  mKnownCount[type]--;
+ }
+
+}
@@ -0,0 +1,258 @@
+import java.util.SplittableRandom;
+
+/**
+ * A Player plays a Game without a display: it chooses two cards at a time,
+ * is told the type of every card it turns and which pairs it matched. The
+ * strategies differ in what they remember of the cards they saw.
+ *
+ * A Player keeps the cards that are still on the board in a list, so that
+ * drawing a random card costs the same on any board size. It is not thread
+ * safe, each thread uses its own Player.
+ */
+public abstract class Player {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Player: ";
+
+ // Player models
+ private static final String PERFECT_MODEL = "perfect";
+ private static final String RANDOM_MODEL = "random";
+ private static final String LIMITED_MODEL_PREFIX = "memory-";
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * The random source of the player's choices.
+  */
+ protected final SplittableRandom mRandom;
+
+ // Cards still on the board, and the position of each card in that list
+ private int[] mUnmatched = new int[0];
+ private int[] mUnmatchedPosition = new int[0];
+ private int mNumOfUnmatched = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a player drawing its choices from the given source.
+  */
+ protected Player(SplittableRandom aRandom) {
+  mRandom = aRandom;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method plays a whole game, from the current state of the game until
+  * it is solved.
+  *
+  * @param aGame
+  *            is the game to play, freshly dealt or restarted
+  * @return the number of failed attempts of the game
+  */
+ public final int play(Game aGame) {
+
+  reset(aGame.getNumOfCards());
+
+  while (!aGame.isSolved()) {
+
+   int first = chooseFirst();
+   if (aGame.flip(first) != Game.FLIP_FIRST) {
+    error("play(Game) reported \"Invalid first card\"", true);
+   }
+   seen(first, aGame.getType(first));
+
+   int second = chooseSecond(first);
+   int result = aGame.flip(second);
+   seen(second, aGame.getType(second));
+
+   if (result == Game.FLIP_MATCH) {
+    pairMatched(first, second);
+   } else if (result != Game.FLIP_MISMATCH) {
+    error("play(Game) reported \"Invalid second card\"", true);
+   }
+  }
+
+  return aGame.getNumOfFailedAttempts();
+ }
+
+ /**
+  * This method tells the player that a pair it chose was matched, when the
+  * game is played one flip at a time instead of with play(Game).
+  *
+  * @param aFirst
+  *            is the first card of the pair
+  * @param aSecond
+  *            is the second card of the pair
+  */
+ public final void pairMatched(int aFirst, int aSecond) {
+
+  removeUnmatched(aFirst);
+  removeUnmatched(aSecond);
+  matched(aFirst, aSecond);
+ }
+
+ /**
+  * This method gets the name of the player model.
+  *
+  * @return the name that create(String, SplittableRandom) understands
+  */
+ public abstract String getModel();
+
+ /**
+  * This method prepares the player for a new game.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the game
+  */
+ public void reset(int aNumOfCards) {
+
+  if (mUnmatched.length != aNumOfCards) {
+   mUnmatched = new int[aNumOfCards];
+   mUnmatchedPosition = new int[aNumOfCards];
+  }
+
+  for (int i = 0; i < aNumOfCards; i++) {
+   mUnmatched[i] = i;
+   mUnmatchedPosition[i] = i;
+  }
+  mNumOfUnmatched = aNumOfCards;
+ }
+
+ /**
+  * This method chooses the first card of a pair.
+  *
+  * @return the index of a card still on the board
+  */
+ public abstract int chooseFirst();
+
+ /**
+  * This method chooses the second card of a pair.
+  *
+  * @param aFirst
+  *            is the first card of the pair, its type was given to seen()
+  * @return the index of another card still on the board
+  */
+ public abstract int chooseSecond(int aFirst);
+
+ /**
+  * This method tells the player the type of a card it turned.
+  */
+ public abstract void seen(int anIndex, int aType);
+
+ /**
+  * This method tells the player that a pair was matched and removed.
+  */
+ public abstract void matched(int aFirst, int aSecond);
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Protected methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method checks if a card is still on the board.
+  */
+ protected final boolean isUnmatched(int anIndex) {
+
+  return mUnmatchedPosition[anIndex] >= 0;
+ }
+
+ /**
+  * This method gets the number of cards still on the board.
+  */
+ protected final int getNumOfUnmatched() {
+
+  return mNumOfUnmatched;
+ }
+
+ /**
+  * This method draws a random card still on the board.
+  */
+ protected final int randomUnmatched() {
+
+  return mUnmatched[mRandom.nextInt(mNumOfUnmatched)];
+ }
+
+ /**
+  * This method draws a random card still on the board other than the
+  * given one.
+  */
+ protected final int randomUnmatchedExcept(int anIndex) {
+
+  int card;
+  do {
+   card = randomUnmatched();
+  } while (card == anIndex);
+
+  return card;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method creates a player of the given model.
+  *
+  * @param aModel
+  *            is "perfect", "random" or "memory-k" where k is the number of
+  *            flips the player remembers
+  * @param aRandom
+  *            is the random source of the player's choices
+  * @return a new player, or null if the model is unknown
+  */
+ public static Player create(String aModel, SplittableRandom aRandom) {
+
+  if (PERFECT_MODEL.equals(aModel)) {
+   return new PerfectMemoryPlayer(aRandom);
+  }
+  if (RANDOM_MODEL.equals(aModel)) {
+   return new RandomPlayer(aRandom);
+  }
+  if (aModel != null && aModel.startsWith(LIMITED_MODEL_PREFIX)) {
+   try {
+    int memory = Integer.parseInt(aModel.substring(LIMITED_MODEL_PREFIX
+      .length()));
+    if (memory > 0) {
+     return new LimitedMemoryPlayer(aRandom, memory);
+    }
+   } catch (NumberFormatException e) {
+    // Falls through to the error
+   }
+  }
+
+  error("create(String, SplittableRandom) received an unknown model", false);
+  return null;
+ }
+
+ // This method removes a matched card from the list of cards on the board
+ private void removeUnmatched(int anIndex) {
+
+  int position = mUnmatchedPosition[anIndex];
+  int last = mUnmatched[--mNumOfUnmatched];
+
+  mUnmatched[position] = last;
+  mUnmatchedPosition[last] = position;
+  mUnmatchedPosition[anIndex] = -1;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
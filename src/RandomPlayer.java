@@ -0,0 +1,52 @@
+import java.util.SplittableRandom;
+
+/**
+ * A Player that remembers nothing: both cards of every pair are drawn at
+ * random among the cards still on the board.
+ */
+public class RandomPlayer extends Player {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a random player drawing its choices from the given source.
+  */
+ public RandomPlayer(SplittableRandom aRandom) {
+  super(aRandom);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ @Override
+ public String getModel() {
+
+  return "random";
+ }
+
+ @Override
+ public int chooseFirst() {
+
+  return randomUnmatched();
+ }
+
+ @Override
+ public int chooseSecond(int aFirst) {
+
+  return randomUnmatchedExcept(aFirst);
+ }
+
+ @Override
+ public void seen(int anIndex, int aType) {
+  // Forgotten at once
+ }
+
+ @Override
+ public void matched(int aFirst, int aSecond) {
+  // Nothing to forget
+ }
+
+}
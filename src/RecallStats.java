@@ -0,0 +1,412 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where and when players forget cards, for boards of one size. Every
+ * attempt, i.e. every second flip, is an event: the first card of the pair,
+ * its type, whether its partner was seen before and how long ago. When the
+ * partner was seen, the attempt is a recall if the pair matched and a lapse
+ * otherwise, counted at the partner's position: the card that was forgotten.
+ *
+ * The events are summed into heatmaps by position and by type, and into
+ * histograms of the time since the partner was seen, all arrays of longs
+ * sized once. Feeding a flip allocates nothing, so a journal of any length
+ * is analysed in one streaming pass, see JournalReplayer.
+ *
+ * The flips are fed after Game.flip(int), with the time they happened in
+ * nanoseconds on any clock that doesn't go back during a game.
+ */
+public class RecallStats {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "RecallStats: ";
+
+ /**
+  * The number of buckets of the time histograms: bucket b counts the times
+  * from 2^(b-1) to 2^b - 1 milliseconds, the last one counts the longer
+  * ones.
+  */
+ public static final int NUMBER_OF_BUCKETS = 24;
+
+ // Positions of the two cards of a type seen last
+ private static final int RECENT = 2;
+ private static final int NOT_SEEN = -1;
+
+ private static final long NANOS_PER_MILLI = 1000000;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfCards;
+ private final int mNumOfTypes;
+
+ // Heatmaps by position
+ private final long[] mAttempts;
+ private final long[] mMismatches;
+ private final long[] mRecalls;
+ private final long[] mLapses;
+
+ // Heatmaps by type
+ private final long[] mTypeAttempts;
+ private final long[] mTypeMismatches;
+ private final long[] mTypeLapses;
+
+ // Time since the partner was seen, in log2 buckets of milliseconds
+ private final long[] mRecallTimes = new long[NUMBER_OF_BUCKETS];
+ private final long[] mLapseTimes = new long[NUMBER_OF_BUCKETS];
+
+ // The current game: the cards of each type seen last, most recent first,
+ // and the first card of the attempt under way
+ private final int[] mRecentPositions;
+ private final long[] mRecentTimes;
+ private boolean mIsTracking = false;
+ private int mFirstCard = Game.NO_CARD;
+ private int mFirstPartner = NOT_SEEN;
+ private long mFirstDelay = 0;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates empty statistics.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the boards, games of another size
+  *            are ignored
+  * @param aMaxType
+  *            is the largest card type followed, the flips of larger types
+  *            are counted by position only
+  */
+ public RecallStats(int aNumOfCards, int aMaxType) {
+
+  if (aNumOfCards < 2 || aMaxType < 0) {
+   error("RecallStats(int, int) reported \"Invalid size\"", true);
+  }
+
+  mNumOfCards = aNumOfCards;
+  mNumOfTypes = aMaxType + 1;
+
+  mAttempts = new long[aNumOfCards];
+  mMismatches = new long[aNumOfCards];
+  mRecalls = new long[aNumOfCards];
+  mLapses = new long[aNumOfCards];
+
+  mTypeAttempts = new long[mNumOfTypes];
+  mTypeMismatches = new long[mNumOfTypes];
+  mTypeLapses = new long[mNumOfTypes];
+
+  mRecentPositions = new int[mNumOfTypes * RECENT];
+  mRecentTimes = new long[mNumOfTypes * RECENT];
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method starts following a game, just dealt or restarted: no card
+  * was seen yet.
+  *
+  * @param aGame
+  *            is the game
+  */
+ public void deal(Game aGame) {
+
+  mIsTracking = aGame.getNumOfCards() == mNumOfCards;
+  mFirstCard = Game.NO_CARD;
+
+  if (!mIsTracking) {
+   return;
+  }
+
+  // Only the types of the deal, there may be many more
+  for (int index = 0; index < mNumOfCards; index++) {
+   int type = aGame.getType(index);
+   if (type < mNumOfTypes) {
+    mRecentPositions[type * RECENT] = NOT_SEEN;
+    mRecentPositions[type * RECENT + 1] = NOT_SEEN;
+   }
+  }
+ }
+
+ /**
+  * This method follows a flip of the current game.
+  *
+  * @param aGame
+  *            is the game, the flip was just played on it
+  * @param anIndex
+  *            is the card flipped
+  * @param aResult
+  *            is the result of Game.flip(int)
+  * @param aTime
+  *            is when the card was flipped, in nanoseconds
+  * @return the position whose lapse rate changed, or Game.NO_CARD
+  */
+ public int flip(Game aGame, int anIndex, int aResult, long aTime) {
+
+  if (!mIsTracking || aResult == Game.FLIP_IGNORED) {
+   return Game.NO_CARD;
+  }
+
+  int type = aGame.getType(anIndex);
+
+  if (aResult == Game.FLIP_FIRST) {
+   // Was its partner seen, before the card shows where it is
+   int entry = findPartner(aGame, anIndex, type);
+   mFirstCard = anIndex;
+   mFirstPartner = entry == NOT_SEEN ? NOT_SEEN : mRecentPositions[entry];
+   mFirstDelay = entry == NOT_SEEN ? 0 : aTime - mRecentTimes[entry];
+   see(anIndex, type, aTime);
+   return Game.NO_CARD;
+  }
+
+  if (mFirstCard == Game.NO_CARD) {
+   // Followed from the middle of an attempt
+   see(anIndex, type, aTime);
+   return Game.NO_CARD;
+  }
+
+  boolean isMatch = aResult == Game.FLIP_MATCH;
+  int firstType = aGame.getType(mFirstCard);
+
+  mAttempts[mFirstCard]++;
+  if (!isMatch) {
+   mMismatches[mFirstCard]++;
+  }
+  if (firstType < mNumOfTypes) {
+   mTypeAttempts[firstType]++;
+   if (!isMatch) {
+    mTypeMismatches[firstType]++;
+   }
+  }
+
+  if (mFirstPartner != NOT_SEEN) {
+   int bucket = getBucket(mFirstDelay / NANOS_PER_MILLI);
+   if (isMatch) {
+    mRecalls[mFirstPartner]++;
+    mRecallTimes[bucket]++;
+   } else {
+    mLapses[mFirstPartner]++;
+    mLapseTimes[bucket]++;
+    if (firstType < mNumOfTypes) {
+     mTypeLapses[firstType]++;
+    }
+   }
+  }
+
+  see(anIndex, type, aTime);
+  mFirstCard = Game.NO_CARD;
+  return mFirstPartner != NOT_SEEN ? mFirstPartner : Game.NO_CARD;
+ }
+
+ /**
+  * This method forgets every event, the current game is still followed.
+  */
+ public void reset() {
+
+  Arrays.fill(mAttempts, 0);
+  Arrays.fill(mMismatches, 0);
+  Arrays.fill(mRecalls, 0);
+  Arrays.fill(mLapses, 0);
+  Arrays.fill(mTypeAttempts, 0);
+  Arrays.fill(mTypeMismatches, 0);
+  Arrays.fill(mTypeLapses, 0);
+  Arrays.fill(mRecallTimes, 0);
+  Arrays.fill(mLapseTimes, 0);
+ }
+
+ /**
+  * This method gets the number of cards of the boards followed.
+  */
+ public int getNumOfCards() {
+
+  return mNumOfCards;
+ }
+
+ /**
+  * This method gets the number of attempts that began at a position.
+  */
+ public long getNumOfAttempts(int aPosition) {
+
+  return mAttempts[aPosition];
+ }
+
+ /**
+  * This method gets the number of mismatches that began at a position.
+  */
+ public long getNumOfMismatches(int aPosition) {
+
+  return mMismatches[aPosition];
+ }
+
+ /**
+  * This method gets the number of times the card at a position was
+  * remembered: it was seen, and its partner was matched with it.
+  */
+ public long getNumOfRecalls(int aPosition) {
+
+  return mRecalls[aPosition];
+ }
+
+ /**
+  * This method gets the number of times the card at a position was
+  * forgotten: it was seen, and its partner was flipped with another card.
+  */
+ public long getNumOfLapses(int aPosition) {
+
+  return mLapses[aPosition];
+ }
+
+ /**
+  * This method gets the share of the times a seen card was forgotten at a
+  * position.
+  *
+  * @return the rate, between 0 and 1, 0 if it was never needed
+  */
+ public float getLapseRate(int aPosition) {
+
+  long total = mRecalls[aPosition] + mLapses[aPosition];
+  return total == 0 ? 0 : (float) mLapses[aPosition] / total;
+ }
+
+ /**
+  * This method gets the number of attempts that began with a card type.
+  */
+ public long getNumOfTypeAttempts(int aType) {
+
+  return aType < mNumOfTypes ? mTypeAttempts[aType] : 0;
+ }
+
+ /**
+  * This method gets the number of mismatches that began with a card type.
+  */
+ public long getNumOfTypeMismatches(int aType) {
+
+  return aType < mNumOfTypes ? mTypeMismatches[aType] : 0;
+ }
+
+ /**
+  * This method gets the number of times the partner of a card type was
+  * forgotten.
+  */
+ public long getNumOfTypeLapses(int aType) {
+
+  return aType < mNumOfTypes ? mTypeLapses[aType] : 0;
+ }
+
+ /**
+  * This method gets the number of recalls in a bucket of the time since
+  * the partner was seen.
+  */
+ public long getNumOfRecallsInBucket(int aBucket) {
+
+  return mRecallTimes[aBucket];
+ }
+
+ /**
+  * This method gets the number of lapses in a bucket of the time since the
+  * partner was seen.
+  */
+ public long getNumOfLapsesInBucket(int aBucket) {
+
+  return mLapseTimes[aBucket];
+ }
+
+ /**
+  * This method prints the lapse rates as a grid, and the recalls and lapses
+  * by time since the partner was seen.
+  *
+  * @param anOut
+  *            is where to print
+  * @param aNumOfColumns
+  *            is the number of columns of the boards
+  */
+ public void print(PrintStream anOut, int aNumOfColumns) {
+
+  anOut.println("lapse rate by position, %");
+  for (int position = 0; position < mNumOfCards; position++) {
+   anOut.print(String.format(Locale.ROOT, "%6.1f",
+     100 * getLapseRate(position)));
+   if ((position + 1) % aNumOfColumns == 0 || position == mNumOfCards - 1) {
+    anOut.println();
+   }
+  }
+
+  anOut.println(String.format(Locale.ROOT, "%12s %12s %12s", "seen ms <",
+    "recalls", "lapses"));
+  for (int bucket = 0; bucket < NUMBER_OF_BUCKETS; bucket++) {
+   if (mRecallTimes[bucket] != 0 || mLapseTimes[bucket] != 0) {
+    anOut.println(String.format(Locale.ROOT, "%12s %12d %12d",
+      bucket == NUMBER_OF_BUCKETS - 1 ? "more" : Long.toString(1L << bucket),
+      mRecallTimes[bucket], mLapseTimes[bucket]));
+   }
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method finds the card of a type seen last, other than a card, that
+ // is still on the board. It returns its entry in the recent cards.
+ private int findPartner(Game aGame, int anIndex, int aType) {
+
+  if (aType >= mNumOfTypes) {
+   return NOT_SEEN;
+  }
+
+  for (int entry = aType * RECENT; entry < (aType + 1) * RECENT; entry++) {
+   int position = mRecentPositions[entry];
+   if (position != NOT_SEEN && position != anIndex
+     && !aGame.isRemoved(position)) {
+    return entry;
+   }
+  }
+  return NOT_SEEN;
+ }
+
+ // This method records that a card was seen, as the most recent of its
+ // type
+ private void see(int anIndex, int aType, long aTime) {
+
+  if (aType >= mNumOfTypes) {
+   return;
+  }
+
+  int first = aType * RECENT;
+  if (mRecentPositions[first] != anIndex) {
+   mRecentPositions[first + 1] = mRecentPositions[first];
+   mRecentTimes[first + 1] = mRecentTimes[first];
+   mRecentPositions[first] = anIndex;
+  }
+  mRecentTimes[first] = aTime;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method gets the bucket of a time in milliseconds
+ private static int getBucket(long milliseconds) {
+
+  int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, milliseconds));
+  return Math.min(bucket, NUMBER_OF_BUCKETS - 1);
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
@@ -0,0 +1,286 @@
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.swing.ImageIcon;
+
+/**
+ * A process-wide cache of the card images scaled to fit a cell size. The
+ * images of a size are scaled in parallel on a pool of their own, never on
+ * the event dispatch thread, and the few last sizes are kept: a window
+ * resized back and forth, or many boards of the same size, scale the images
+ * once.
+ *
+ * Only the card types asked for are scaled, i.e. the ones dealt, so a deck
+ * of thousands of faces scales the cards in play.
+ */
+public final class ScaledCardImages {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "ScaledCardImages: ";
+
+ // Card types, a slot per type from the hidden card to the largest face
+ private static final int MIN_TYPE = CardImages.HIDDEN_CARD_TYPE;
+ private static final int NUMBER_OF_SLOTS = CardImages.MAX_FACE - MIN_TYPE
+   + 1;
+
+ // Sizes kept, the least recently used one is dropped first
+ private static final int MAX_NUMBER_OF_SIZES = 4;
+ // Smallest size scaled, smaller cells keep the last icons
+ private static final int MIN_SIZE = 8;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final ForkJoinPool sPool = new ForkJoinPool(Math.max(1,
+   Runtime.getRuntime().availableProcessors()));
+
+ // The icons of each size. Access order makes it an LRU.
+ private static final Map<Long, Icons> sSizes = new LinkedHashMap<Long, Icons>(
+   MAX_NUMBER_OF_SIZES + 1, 0.75f, true) {
+
+  private static final long serialVersionUID = 1L;
+
+  protected boolean removeEldestEntry(Map.Entry<Long, Icons> anEldest) {
+   return size() > MAX_NUMBER_OF_SIZES;
+  }
+ };
+
+ private static final AtomicLong sHits = new AtomicLong();
+ private static final AtomicLong sMisses = new AtomicLong();
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ // Static access only
+ private ScaledCardImages() {
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the images scaled to fit a cell, the card types are
+  * scaled when they are asked for, see Icons.scale(int[]). Each image keeps
+  * its proportions.
+  *
+  * @param aWidth
+  *            is the width available for an image, in pixels
+  * @param aHeight
+  *            is the height available for an image, in pixels
+  * @return the icons of that size
+  */
+ public static Icons get(int aWidth, int aHeight) {
+
+  int width = Math.max(MIN_SIZE, aWidth);
+  int height = Math.max(MIN_SIZE, aHeight);
+  Long key = Long.valueOf(((long) width << 32) | height);
+
+  synchronized (sSizes) {
+   Icons icons = sSizes.get(key);
+   if (icons != null) {
+    sHits.incrementAndGet();
+    return icons;
+   }
+
+   sMisses.incrementAndGet();
+   icons = new Icons(width, height);
+   sSizes.put(key, icons);
+   return icons;
+  }
+ }
+
+ /**
+  * This method drops the scaled images of a card type, e.g. a face that is
+  * not dealt anymore.
+  *
+  * @param aType
+  *            is the card type
+  */
+ public static void forget(int aType) {
+
+  synchronized (sSizes) {
+   for (Icons icons : sSizes.values()) {
+    icons.mScaled.set(aType - MIN_TYPE, null);
+   }
+  }
+ }
+
+ /**
+  * This method gets the number of requests served from the cache.
+  *
+  * @return the number of cache hits since startup
+  */
+ public static long getHitCount() {
+
+  return sHits.get();
+ }
+
+ /**
+  * This method gets the number of requests that had to scale the images.
+  *
+  * @return the number of cache misses since startup
+  */
+ public static long getMissCount() {
+
+  return sMisses.get();
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Sizes
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * The images scaled to one size, by card type.
+  */
+ public static final class Icons {
+
+  private final int mWidth;
+  private final int mHeight;
+  // The scaling of each type, started once by the first request
+  private final AtomicReferenceArray<CompletableFuture<ImageIcon>> mScaled = new AtomicReferenceArray<CompletableFuture<ImageIcon>>(
+    NUMBER_OF_SLOTS);
+
+  private Icons(int aWidth, int aHeight) {
+   mWidth = aWidth;
+   mHeight = aHeight;
+  }
+
+  /**
+   * This method gets the scaled image of a card type, without waiting.
+   *
+   * @return the icon, or null if the type isn't scaled yet
+   */
+  public ImageIcon get(int aType) {
+
+   CompletableFuture<ImageIcon> scaled = mScaled.get(aType - MIN_TYPE);
+   return scaled != null ? scaled.getNow(null) : null;
+  }
+
+  /**
+   * This method scales the images of card types in the background, the
+   * ones scaled already are kept.
+   *
+   * @param someTypes
+   *            are the card types, a type can be repeated
+   * @return a future completed once every image is scaled
+   */
+  public CompletableFuture<Void> scale(int[] someTypes) {
+
+   CompletableFuture<?>[] scaling = new CompletableFuture<?>[someTypes.length];
+   int numOfScalings = 0;
+
+   for (int aType : someTypes) {
+    CompletableFuture<ImageIcon> scaled = mScaled.get(aType - MIN_TYPE);
+    if (scaled == null) {
+     final int type = aType;
+     CompletableFuture<ImageIcon> created = new CompletableFuture<ImageIcon>();
+     if (mScaled.compareAndSet(aType - MIN_TYPE, null, created)) {
+      sPool.execute(new Runnable() {
+       public void run() {
+        // A failure gives the placeholder the board shows meanwhile,
+        // the future never stays pending
+        ImageIcon icon;
+        try {
+         icon = ScaledCardImages.scale(CardImages.get(type), mWidth,
+           mHeight);
+        } catch (RuntimeException | OutOfMemoryError e) {
+         error("scale(int[]) reported " + e, false);
+         icon = CardImages.getPlaceholder();
+        }
+        created.complete(icon);
+        // A face released meanwhile isn't kept
+        if (!CardImages.isHeld(type)) {
+         mScaled.compareAndSet(type - MIN_TYPE, created, null);
+        }
+       }
+      });
+      scaled = created;
+     } else {
+      scaled = mScaled.get(aType - MIN_TYPE);
+     }
+    }
+    if (scaled != null && !scaled.isDone()) {
+     scaling[numOfScalings++] = scaled;
+    }
+   }
+
+   return CompletableFuture.allOf(Arrays.copyOf(scaling, numOfScalings));
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method scales an image to fit a size. A large reduction is done by
+ // halving the image a few times, each step keeps the details that a
+ // single bilinear step would drop.
+ private static ImageIcon scale(ImageIcon icon, int width, int height) {
+
+  int sourceWidth = icon.getIconWidth();
+  int sourceHeight = icon.getIconHeight();
+  double ratio = Math.min((double) width / sourceWidth, (double) height
+    / sourceHeight);
+  int targetWidth = Math.max(1, (int) Math.round(sourceWidth * ratio));
+  int targetHeight = Math.max(1, (int) Math.round(sourceHeight * ratio));
+
+  if (targetWidth == sourceWidth && targetHeight == sourceHeight) {
+   return icon;
+  }
+
+  Image image = icon.getImage();
+  int currentWidth = sourceWidth;
+  int currentHeight = sourceHeight;
+
+  do {
+   currentWidth = Math.max(targetWidth, currentWidth / 2);
+   currentHeight = Math.max(targetHeight, currentHeight / 2);
+   if (targetWidth > sourceWidth || targetHeight > sourceHeight) {
+    // Enlarged in one step
+    currentWidth = targetWidth;
+    currentHeight = targetHeight;
+   }
+
+   BufferedImage step = new BufferedImage(currentWidth, currentHeight,
+     BufferedImage.TYPE_INT_RGB);
+   Graphics2D graphics = step.createGraphics();
+   graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+     ratio > 1 ? RenderingHints.VALUE_INTERPOLATION_BICUBIC
+       : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+   graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+     RenderingHints.VALUE_RENDER_QUALITY);
+   graphics.drawImage(image, 0, 0, currentWidth, currentHeight, null);
+   graphics.dispose();
+
+   image = step;
+  } while (currentWidth != targetWidth || currentHeight != targetHeight);
+
+  return new ImageIcon(image);
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
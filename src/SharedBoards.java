@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The boards of a server that several sessions play together, one per table
+ * number. The sessions of a table may be served by different event loops,
+ * so their flips come from several threads at once: a table is played on a
+ * ConcurrentGame.
+ *
+ * A table is dealt by the first session that joins it, and dealt again by
+ * the first one that joins it once it is solved. The new deal is a new game,
+ * laid out before it is shared: the sessions still on the solved one join
+ * again to play it.
+ */
+public final class SharedBoards {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * The number of tables of a server.
+  */
+ public static final int NUMBER_OF_TABLES = 64;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final AtomicReferenceArray<Table> mTables = new AtomicReferenceArray<Table>(
+   NUMBER_OF_TABLES);
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method joins the game of a table, it is dealt if the table is empty
+  * or solved. It may be called from any thread.
+  *
+  * @param aTable
+  *            is the table, between 0 and NUMBER_OF_TABLES - 1
+  * @param aNumOfCards
+  *            is the number of cards the player asks for, an even number
+  *            from 2 to ConcurrentGame.MAX_NUMBER_OF_CARDS
+  * @param aSeed
+  *            is the seed of the deal, if the table is dealt
+  * @return the table, or null if it is played with another number of
+  *         cards
+  */
+ public Table join(int aTable, int aNumOfCards, long aSeed) {
+
+  for (;;) {
+   Table table = mTables.get(aTable);
+   if (table != null && !table.mGame.isSolved()) {
+    return table.mGame.getNumOfCards() == aNumOfCards ? table : null;
+   }
+
+   // Dealt before it is published, the others join it once it is set
+   Table dealt = new Table(aNumOfCards, aSeed);
+   if (mTables.compareAndSet(aTable, table, dealt)) {
+    return dealt;
+   }
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Table
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * A deal of a table, played by every session that joined it.
+  */
+ public static final class Table {
+
+  private final ConcurrentGame mGame;
+  private final long mSeed;
+
+  private Table(int aNumOfCards, long aSeed) {
+   mGame = new ConcurrentGame(aNumOfCards);
+   mGame.deal(new Dealer(aSeed).deal(aNumOfCards));
+   mSeed = aSeed;
+  }
+
+  /**
+   * This method gets the game of the table.
+   */
+  public ConcurrentGame getGame() {
+
+   return mGame;
+  }
+
+  /**
+   * This method gets the seed of the deal of the table.
+   */
+  public long getSeed() {
+
+   return mSeed;
+  }
+ }
+
+}
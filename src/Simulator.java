@@ -0,0 +1,324 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A Monte-Carlo simulator that measures how hard the deals are: it plays
+ * millions of games without a display, with the rules of Game and the player
+ * models of Player, and reports the distribution of the failed attempts for
+ * every board size and player model.
+ *
+ * The games are split in a fixed number of chunks, each with its own random
+ * streams split from the seed, so a run gives the same results whatever the
+ * number of threads.
+ */
+public class Simulator {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "Simulator: ";
+
+ private static final int DEFAULT_NUMBER_OF_GAMES = 100000;
+ private static final long DEFAULT_SEED = 2012;
+ private static final String DEFAULT_SIZES = "4x4,4x6,6x6";
+ private static final String DEFAULT_MODELS = "perfect,memory-4,memory-8,random";
+
+ // Work is split in a fixed number of chunks, whatever the number of threads
+ private static final int NUMBER_OF_CHUNKS = 256;
+ private static final int INITIAL_HISTOGRAM_SIZE = 256;
+
+ private static final double[] PERCENTILES = { 0.50, 0.90, 0.99 };
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final long mSeed;
+ private final ForkJoinPool mPool;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a simulator.
+  *
+  * @param aSeed
+  *            is the seed of every random stream of a run
+  * @param aNumOfThreads
+  *            is the number of threads playing the games
+  */
+ public Simulator(long aSeed, int aNumOfThreads) {
+  mSeed = aSeed;
+  mPool = new ForkJoinPool(aNumOfThreads);
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method plays a number of games of one board size with one player
+  * model.
+  *
+  * @param aNumOfCards
+  *            is the number of cards of the board
+  * @param aModel
+  *            is the player model, see Player.create()
+  * @param aNumOfGames
+  *            is the number of games to play
+  * @return the histogram of the failed attempts, indexed by the number of
+  *         failed attempts of a game
+  */
+ public long[] run(final int aNumOfCards, final String aModel,
+   final long aNumOfGames) {
+
+  // Every chunk gets its own streams, split in a fixed order
+  SplittableRandom root = new SplittableRandom(mSeed);
+  final SplittableRandom[] dealRandoms = new SplittableRandom[NUMBER_OF_CHUNKS];
+  final SplittableRandom[] playRandoms = new SplittableRandom[NUMBER_OF_CHUNKS];
+  for (int chunk = 0; chunk < NUMBER_OF_CHUNKS; chunk++) {
+   dealRandoms[chunk] = root.split();
+   playRandoms[chunk] = root.split();
+  }
+
+  try {
+   return mPool.submit(
+     () -> IntStream
+       .range(0, NUMBER_OF_CHUNKS)
+       .parallel()
+       .mapToObj(
+         chunk -> play(aNumOfCards, aModel,
+           gamesOfChunk(aNumOfGames, chunk),
+           dealRandoms[chunk].nextLong(),
+           playRandoms[chunk]))
+       .reduce(new long[0], Simulator::merge)).get();
+  } catch (InterruptedException e) {
+   Thread.currentThread().interrupt();
+   error("run(int, String, long) was interrupted", true);
+  } catch (ExecutionException e) {
+   error("run(int, String, long) reported " + e.getCause(), true);
+  }
+
+  return new long[0];
+ }
+
+ /**
+  * This method stops the threads of the simulator.
+  */
+ public void shutdown() {
+
+  mPool.shutdown();
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Runs the simulation and prints the distribution of the failed attempts.
+  *
+  * @param args
+  *            - Optional -games n, -seed s, -threads t, -sizes 4x6,6x6,
+  *            -models perfect,memory-4,random and -histogram to print the
+  *            whole distributions.
+  */
+ public static void main(String[] args) {
+
+  long numOfGames = DEFAULT_NUMBER_OF_GAMES;
+  long seed = DEFAULT_SEED;
+  int numOfThreads = Runtime.getRuntime().availableProcessors();
+  String sizes = DEFAULT_SIZES;
+  String models = DEFAULT_MODELS;
+  boolean histogram = false;
+
+  for (int i = 0; i < args.length; i++) {
+   if ("-games".equals(args[i]) && i + 1 < args.length) {
+    numOfGames = Long.parseLong(args[++i]);
+   } else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+    seed = Long.parseLong(args[++i]);
+   } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+    numOfThreads = Integer.parseInt(args[++i]);
+   } else if ("-sizes".equals(args[i]) && i + 1 < args.length) {
+    sizes = args[++i];
+   } else if ("-models".equals(args[i]) && i + 1 < args.length) {
+    models = args[++i];
+   } else if ("-histogram".equals(args[i])) {
+    histogram = true;
+   } else {
+    error("main(String[]) received an unknown argument " + args[i], true);
+   }
+  }
+
+  Simulator simulator = new Simulator(seed, numOfThreads);
+
+  System.out.println(String.format(Locale.ROOT,
+    "%-8s %-10s %10s %9s %8s %6s %6s %6s %6s %6s %8s %12s", "size",
+    "model", "games", "mean", "stddev", "min", "p50", "p90", "p99",
+    "max", "error%", "games/s"));
+
+  for (String size : sizes.split(",")) {
+   String[] dimensions = size.split("x");
+   int numOfCards = Integer.parseInt(dimensions[0])
+     * Integer.parseInt(dimensions[1]);
+
+   for (String model : models.split(",")) {
+    long start = System.nanoTime();
+    long[] failures = simulator.run(numOfCards, model, numOfGames);
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    print(size, model, numOfCards, failures, seconds);
+    if (histogram) {
+     printHistogram(failures);
+    }
+   }
+  }
+
+  simulator.shutdown();
+ }
+
+ // This method plays the games of one chunk
+ private static long[] play(int numOfCards, String model, long numOfGames,
+   long dealSeed, SplittableRandom playRandom) {
+
+  Dealer dealer = new Dealer(dealSeed);
+  Player player = Player.create(model, playRandom);
+  Game game = new Game(numOfCards);
+  int[] deal = new int[numOfCards];
+  long[] failures = new long[INITIAL_HISTOGRAM_SIZE];
+
+  if (player == null) {
+   error("play() received an unknown model " + model, true);
+  }
+
+  for (long i = 0; i < numOfGames; i++) {
+   dealer.deal(deal);
+   game.deal(deal);
+
+   int failed = player.play(game);
+   if (failed >= failures.length) {
+    failures = grow(failures, failed + 1);
+   }
+   failures[failed]++;
+  }
+
+  return failures;
+ }
+
+ // This method gets the number of games played by a chunk
+ private static long gamesOfChunk(long numOfGames, int chunk) {
+
+  long games = numOfGames / NUMBER_OF_CHUNKS;
+  if (chunk < numOfGames % NUMBER_OF_CHUNKS) {
+   games++;
+  }
+  return games;
+ }
+
+ // This method adds two histograms
+ private static long[] merge(long[] first, long[] second) {
+
+  long[] sum = new long[Math.max(first.length, second.length)];
+  System.arraycopy(first, 0, sum, 0, first.length);
+  for (int i = 0; i < second.length; i++) {
+   sum[i] += second[i];
+  }
+  return sum;
+ }
+
+ // This method copies a histogram into a larger one
+ private static long[] grow(long[] histogram, int minLength) {
+
+  long[] grown = new long[Math.max(minLength, histogram.length * 2)];
+  System.arraycopy(histogram, 0, grown, 0, histogram.length);
+  return grown;
+ }
+
+ // This method prints the statistics of a histogram
+ private static void print(String size, String model, int numOfCards,
+   long[] failures, double seconds) {
+
+  long games = 0;
+  double sum = 0;
+  double squares = 0;
+  int min = -1;
+  int max = 0;
+
+  for (int failed = 0; failed < failures.length; failed++) {
+   long count = failures[failed];
+   if (count > 0) {
+    games += count;
+    sum += (double) failed * count;
+    squares += (double) failed * failed * count;
+    if (min < 0) {
+     min = failed;
+    }
+    max = failed;
+   }
+  }
+
+  if (games == 0) {
+   return;
+  }
+
+  double mean = sum / games;
+  double stddev = Math.sqrt(Math.max(0, squares / games - mean * mean));
+
+  StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+    "%-8s %-10s %10d %9.3f %8.3f %6d", size, model, games, mean,
+    stddev, min));
+  for (double percentile : PERCENTILES) {
+   line.append(String.format(Locale.ROOT, " %6d",
+     percentile(failures, games, percentile)));
+  }
+  line.append(String.format(Locale.ROOT, " %6d %8.2f %12.0f", max,
+    (mean / numOfCards) * 100, games / seconds));
+
+  System.out.println(line);
+ }
+
+ // This method gets the smallest number of failed attempts reached by a
+ // fraction of the games
+ private static int percentile(long[] failures, long games, double fraction) {
+
+  long rank = (long) Math.ceil(fraction * games);
+  long seen = 0;
+
+  for (int failed = 0; failed < failures.length; failed++) {
+   seen += failures[failed];
+   if (seen >= rank) {
+    return failed;
+   }
+  }
+  return failures.length - 1;
+ }
+
+ // This method prints every non-empty bucket of a histogram
+ private static void printHistogram(long[] failures) {
+
+  List<String> buckets = new ArrayList<String>();
+  for (int failed = 0; failed < failures.length; failed++) {
+   if (failures[failed] > 0) {
+    buckets.add(failed + ":" + failures[failed]);
+   }
+  }
+  System.out.println("  failures " + String.join(" ", buckets));
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
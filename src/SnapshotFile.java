@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file of game snapshots, mapped in memory. The file holds a number of
+ * slots of the same size, one per game, so that saving or resuming a game is
+ * a copy of a few hundred bytes into the mapping and the operating system
+ * writes the pages back to the disk. Every slot holds the seed of the deal,
+ * the time the game was played for and the snapshot written by
+ * Game.save(ByteBuffer).
+ *
+ * Different slots can be saved from different threads, a slot is saved by a
+ * single thread at a time.
+ */
+public class SnapshotFile {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "SnapshotFile: ";
+
+ // File header: magic, version, number of cards and number of slots
+ private static final int MAGIC = 0x4D454D53;
+ private static final int VERSION = 2;
+ private static final int HEADER_SIZE = 16;
+
+ // Slot header: state, seed and time played
+ private static final int SLOT_HEADER_SIZE = 24;
+ private static final int SEED_OFFSET = 8;
+ private static final int ELAPSED_TIME_OFFSET = 16;
+ private static final int SLOT_ALIGNMENT = 8;
+ private static final int EMPTY_SLOT = 0;
+ private static final int SAVED_SLOT = 1;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final int mNumOfCards;
+ private final int mNumOfSlots;
+ private final int mSlotSize;
+ private final MappedByteBuffer mBuffer;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Opens a snapshot file, it is created if it doesn't exist. A file made
+  * for another number of cards or slots is emptied.
+  *
+  * @param aFile
+  *            is the file
+  * @param aNumOfCards
+  *            is the number of cards of the games
+  * @param aNumOfSlots
+  *            is the number of games the file holds
+  */
+ public SnapshotFile(File aFile, int aNumOfCards, int aNumOfSlots)
+   throws IOException {
+
+  mNumOfCards = aNumOfCards;
+  mNumOfSlots = aNumOfSlots;
+  mSlotSize = align(SLOT_HEADER_SIZE + Game.getSnapshotSize(aNumOfCards));
+
+  long size = HEADER_SIZE + (long) mSlotSize * aNumOfSlots;
+  if (aNumOfSlots < 1 || size > Integer.MAX_VALUE) {
+   throw new IOException("Invalid number of slots " + aNumOfSlots);
+  }
+
+  RandomAccessFile file = new RandomAccessFile(aFile, "rw");
+  try {
+   // The mapping stays valid once the file is closed
+   mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+     size);
+  } finally {
+   file.close();
+  }
+
+  if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION
+    || mBuffer.getInt(8) != aNumOfCards
+    || mBuffer.getInt(12) != aNumOfSlots) {
+   clear();
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method saves a game in a slot.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  * @param aSeed
+  *            is the seed of the deal of the game
+  * @param anElapsedTime
+  *            is the time the game was played for so far, in milliseconds
+  * @param aGame
+  *            is the game, of getNumOfCards() cards
+  */
+ public void save(int aSlot, long aSeed, long anElapsedTime, Game aGame) {
+
+  if (aGame.getNumOfCards() != mNumOfCards) {
+   error("save(int, long, long, Game) received a game of another size",
+     false);
+   return;
+  }
+
+  int offset = getOffset(aSlot);
+
+  // The slot is marked saved last, a save cut short leaves it empty
+  mBuffer.putInt(offset, EMPTY_SLOT);
+  mBuffer.putLong(offset + SEED_OFFSET, aSeed);
+  mBuffer.putLong(offset + ELAPSED_TIME_OFFSET, anElapsedTime);
+
+  ByteBuffer slot = mBuffer.duplicate();
+  slot.position(offset + SLOT_HEADER_SIZE);
+  aGame.save(slot);
+
+  mBuffer.putInt(offset, SAVED_SLOT);
+ }
+
+ /**
+  * This method resumes the game saved in a slot.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  * @param aGame
+  *            receives the saved game, it must have getNumOfCards() cards
+  * @return true if the slot held a game, false if it is empty
+  */
+ public boolean restore(int aSlot, Game aGame) {
+
+  int offset = getOffset(aSlot);
+  if (mBuffer.getInt(offset) != SAVED_SLOT) {
+   return false;
+  }
+
+  ByteBuffer slot = mBuffer.duplicate();
+  slot.position(offset + SLOT_HEADER_SIZE);
+  return aGame.restore(slot);
+ }
+
+ /**
+  * This method gets the seed of the deal saved in a slot.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  * @return the seed, meaningless if the slot is empty
+  */
+ public long getSeed(int aSlot) {
+
+  return mBuffer.getLong(getOffset(aSlot) + SEED_OFFSET);
+ }
+
+ /**
+  * This method gets the time the game saved in a slot was played for.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  * @return the time in milliseconds, meaningless if the slot is empty
+  */
+ public long getElapsedTime(int aSlot) {
+
+  return mBuffer.getLong(getOffset(aSlot) + ELAPSED_TIME_OFFSET);
+ }
+
+ /**
+  * This method checks if a slot holds a game.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  * @return true if a game was saved in the slot
+  */
+ public boolean isSaved(int aSlot) {
+
+  return mBuffer.getInt(getOffset(aSlot)) == SAVED_SLOT;
+ }
+
+ /**
+  * This method empties a slot.
+  *
+  * @param aSlot
+  *            is the slot, between 0 and getNumOfSlots() - 1
+  */
+ public void remove(int aSlot) {
+
+  mBuffer.putInt(getOffset(aSlot), EMPTY_SLOT);
+ }
+
+ /**
+  * This method writes the saved games to the disk now, instead of when the
+  * operating system decides to.
+  */
+ public void force() {
+
+  mBuffer.force();
+ }
+
+ /**
+  * This method gets the number of cards of the games of the file.
+  *
+  * @return the number of cards
+  */
+ public int getNumOfCards() {
+
+  return mNumOfCards;
+ }
+
+ /**
+  * This method gets the number of games the file holds.
+  *
+  * @return the number of slots
+  */
+ public int getNumOfSlots() {
+
+  return mNumOfSlots;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method writes the header and empties every slot
+ private void clear() {
+
+  for (int slot = 0; slot < mNumOfSlots; slot++) {
+   remove(slot);
+  }
+
+  mBuffer.putInt(0, MAGIC);
+  mBuffer.putInt(4, VERSION);
+  mBuffer.putInt(8, mNumOfCards);
+  mBuffer.putInt(12, mNumOfSlots);
+ }
+
+ // This method gets the position of a slot in the file
+ private int getOffset(int slot) {
+
+  if (slot < 0 || slot >= mNumOfSlots) {
+   throw new IndexOutOfBoundsException("Invalid slot " + slot);
+  }
+  return HEADER_SIZE + slot * mSlotSize;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method rounds a size up to the alignment of the slots
+ private static int align(int size) {
+  return (size + SLOT_ALIGNMENT - 1) & -SLOT_ALIGNMENT;
+ }
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}
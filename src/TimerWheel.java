@@ -0,0 +1,328 @@
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: one thread runs the delayed tasks of every board.
+ * Time is cut in ticks, and the wheel has one bucket per tick of a round; a
+ * task goes to the bucket of its deadline, with the number of whole rounds
+ * left before it is due. Scheduling and cancelling cost the same whatever
+ * the number of pending tasks, and each tick only visits one bucket.
+ *
+ * The due tasks of a tick are handed together to an executor, the event
+ * dispatch thread for the default wheel. A task cancelled before it runs on
+ * that executor never runs, even if it was already due. The thread sleeps
+ * while the wheel is empty.
+ */
+public final class TimerWheel {
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constants
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final String TAG = "TimerWheel: ";
+
+ private static final long DEFAULT_TICK = TimeUnit.MILLISECONDS.toNanos(10);
+ private static final int DEFAULT_NUMBER_OF_BUCKETS = 512;
+
+ // States of a timeout
+ private static final int PENDING = 0;
+ private static final int CANCELLED = 1;
+ private static final int EXPIRED = 2;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private static final TimerWheel DEFAULT_WHEEL = new TimerWheel(DEFAULT_TICK,
+   DEFAULT_NUMBER_OF_BUCKETS, new Executor() {
+    public void execute(Runnable aTask) {
+     EventQueue.invokeLater(aTask);
+    }
+   });
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Instance variables
+ ////////////////////////////////////////////////////////////////////////////
+
+ private final long mTick;
+ private final int mMask;
+ private final Executor mExecutor;
+
+ // Timeouts scheduled since the last tick, moved to the buckets by the
+ // wheel thread
+ private final ConcurrentLinkedQueue<Timeout> mScheduled = new ConcurrentLinkedQueue<Timeout>();
+
+ // Owned by the wheel thread: the buckets, lists linked through the
+ // timeouts, and the current tick
+ private final Timeout[] mBuckets;
+ private long mCurrentTick = 0;
+ private int mNumOfTimeouts = 0;
+
+ private final long mStartTime = System.nanoTime();
+ private volatile Thread mThread = null;
+ private volatile boolean mIsIdle = false;
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Constructor
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Creates a wheel, its thread starts with the first task.
+  *
+  * @param aTick
+  *            is the length of a tick in nanoseconds, the precision of the
+  *            deadlines
+  * @param aNumOfBuckets
+  *            is the number of ticks of a round, a power of two
+  * @param anExecutor
+  *            runs the due tasks
+  */
+ public TimerWheel(long aTick, int aNumOfBuckets, Executor anExecutor) {
+
+  if (aTick <= 0 || aNumOfBuckets <= 0
+    || Integer.bitCount(aNumOfBuckets) != 1) {
+   error("TimerWheel(long, int, Executor) reported \"Invalid wheel\"", true);
+  }
+
+  mTick = aTick;
+  mMask = aNumOfBuckets - 1;
+  mBuckets = new Timeout[aNumOfBuckets];
+  mExecutor = anExecutor;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Public Interface
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * This method gets the wheel of the process, running its tasks on the
+  * event dispatch thread.
+  */
+ public static TimerWheel getDefault() {
+
+  return DEFAULT_WHEEL;
+ }
+
+ /**
+  * This method runs a task once a delay is over.
+  *
+  * @param aTask
+  *            is the task
+  * @param aDelay
+  *            is the delay in milliseconds
+  * @return the timeout of the task, to cancel it
+  */
+ public Timeout schedule(Runnable aTask, long aDelay) {
+
+  long deadline = System.nanoTime() - mStartTime
+    + TimeUnit.MILLISECONDS.toNanos(Math.max(0, aDelay));
+  Timeout timeout = new Timeout(aTask, deadline);
+
+  mScheduled.add(timeout);
+  if (mThread == null) {
+   start();
+  } else if (mIsIdle) {
+   LockSupport.unpark(mThread);
+  }
+
+  return timeout;
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Timeout
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * A task waiting in the wheel.
+  */
+ public static final class Timeout {
+
+  private final Runnable mTask;
+  private final long mDeadline;
+  private final AtomicInteger mState = new AtomicInteger(PENDING);
+
+  // Owned by the wheel thread
+  private long mRemainingRounds = 0;
+  private Timeout mNext = null;
+
+  private Timeout(Runnable aTask, long aDeadline) {
+   mTask = aTask;
+   mDeadline = aDeadline;
+  }
+
+  /**
+   * This method cancels the task.
+   *
+   * @return true if the task won't run, false if it already ran
+   */
+  public boolean cancel() {
+
+   return mState.compareAndSet(PENDING, CANCELLED)
+     || mState.get() == CANCELLED;
+  }
+
+  /**
+   * This method checks if the task was cancelled.
+   */
+  public boolean isCancelled() {
+
+   return mState.get() == CANCELLED;
+  }
+
+  // This method runs the task, unless it was cancelled
+  private void expire() {
+
+   if (mState.compareAndSet(PENDING, EXPIRED)) {
+    mTask.run();
+   }
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Utils Methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ // This method starts the wheel thread once
+ private synchronized void start() {
+
+  if (mThread == null) {
+   mThread = new Thread(new Runnable() {
+    public void run() {
+     turn();
+    }
+   }, "timer-wheel");
+   mThread.setDaemon(true);
+   mThread.start();
+  }
+ }
+
+ // This method is the loop of the wheel thread
+ private void turn() {
+
+  List<Timeout> due = new ArrayList<Timeout>();
+
+  while (true) {
+   if (mNumOfTimeouts == 0) {
+    // Nothing to wait for, sleep until a task is scheduled and skip the
+    // empty ticks
+    mIsIdle = true;
+    while (mScheduled.isEmpty()) {
+     LockSupport.park(this);
+    }
+    mIsIdle = false;
+    mCurrentTick = Math.max(mCurrentTick, (System.nanoTime() - mStartTime)
+      / mTick);
+   }
+
+   waitForTick();
+
+   addScheduled();
+   expireBucket(due);
+
+   if (!due.isEmpty()) {
+    final Timeout[] batch = due.toArray(new Timeout[due.size()]);
+    due.clear();
+
+    // One event for all the tasks of the tick
+    mExecutor.execute(new Runnable() {
+     public void run() {
+      for (Timeout timeout : batch) {
+       timeout.expire();
+      }
+     }
+    });
+   }
+
+   mCurrentTick++;
+  }
+ }
+
+ // This method sleeps until the end of the current tick
+ private void waitForTick() {
+
+  long deadline = (mCurrentTick + 1) * mTick;
+
+  while (true) {
+   long sleep = deadline - (System.nanoTime() - mStartTime);
+   if (sleep <= 0) {
+    return;
+   }
+   LockSupport.parkNanos(this, sleep);
+  }
+ }
+
+ // This method moves the new timeouts to the buckets of their deadline
+ private void addScheduled() {
+
+  Timeout timeout;
+  while ((timeout = mScheduled.poll()) != null) {
+   if (timeout.isCancelled()) {
+    continue;
+   }
+
+   // A deadline already past goes to the current bucket
+   long tick = Math.max(mCurrentTick, timeout.mDeadline / mTick);
+   int bucket = (int) (tick & mMask);
+
+   timeout.mRemainingRounds = (tick - mCurrentTick) / mBuckets.length;
+   timeout.mNext = mBuckets[bucket];
+   mBuckets[bucket] = timeout;
+   mNumOfTimeouts++;
+  }
+ }
+
+ // This method takes the due timeouts out of the bucket of the current
+ // tick, and drops the cancelled ones
+ private void expireBucket(List<Timeout> due) {
+
+  int bucket = (int) (mCurrentTick & mMask);
+  Timeout previous = null;
+  Timeout timeout = mBuckets[bucket];
+
+  while (timeout != null) {
+   Timeout next = timeout.mNext;
+   boolean remove = timeout.isCancelled();
+
+   if (!remove && timeout.mRemainingRounds <= 0) {
+    due.add(timeout);
+    remove = true;
+   } else if (!remove) {
+    timeout.mRemainingRounds--;
+   }
+
+   if (remove) {
+    if (previous == null) {
+     mBuckets[bucket] = next;
+    } else {
+     previous.mNext = next;
+    }
+    timeout.mNext = null;
+    mNumOfTimeouts--;
+   } else {
+    previous = timeout;
+   }
+   timeout = next;
+  }
+ }
+
+ ////////////////////////////////////////////////////////////////////////////
+ // Static methods
+ ////////////////////////////////////////////////////////////////////////////
+
+ /**
+  * Error reporting.
+  */
+ private static void error(String message, boolean crash) {
+  System.err.println(TAG + message);
+  if (crash) {
+   System.exit(-1);
+  }
+ }
+
+}